@@ -12,10 +12,40 @@
 #   public *;
 #}
 
-# Uncomment this to preserve the line number information for
-# debugging stack traces.
-#-keepattributes SourceFile,LineNumberTable
+# Preserve the line number information for debugging stack traces,
+# but hide the original source file name.
+-keepattributes SourceFile,LineNumberTable
+-renamesourcefileattribute SourceFile
 
-# If you keep the line number information, uncomment this to
-# hide the original source file name.
-#-renamesourcefileattribute SourceFile
+# R8 full mode only keeps the attributes that are explicitly requested.
+-keepattributes Signature,InnerClasses,EnclosingMethod,*Annotation*
+
+# The IMA SDK and the True[X] Ad Renderer ship their own consumer rules, so that they are shrunk and
+# obfuscated along with the app. ReleaseSmokeTest checks that an engagement still starts.
+-dontwarn com.google.ads.interactivemedia.**
+-dontwarn com.truex.adrenderer.**
+
+# The ad UIs are WebViews, which call into their JavaScript bridges by method name.
+-keepclassmembers class * {
+    @android.webkit.JavascriptInterface <methods>;
+}
+
+# True[X] Ad Renderer: the engagement reports its ad events by name, which are looked up in the enum.
+-keepclassmembers enum com.truex.adrenderer.TruexAdEvent {
+    <fields>;
+    public static **[] values();
+    public static ** valueOf(java.lang.String);
+}
+
+# Dagger: the generated components are referenced directly, only the injected members need to stay.
+-keepclassmembers,allowobfuscation class * {
+    @javax.inject.Inject <init>(...);
+    @javax.inject.Inject <fields>;
+}
+-dontwarn com.google.errorprone.annotations.**
+-dontwarn javax.annotation.**
+
+# Fragments are re-created by their class name when the activity is restored.
+-keep class com.truex.googlereferenceapp.** extends androidx.fragment.app.Fragment {
+    public <init>();
+}
@@ -2,10 +2,13 @@ package com.truex.googlereferenceapp;
 
 import androidx.fragment.app.Fragment;
 import android.os.Bundle;
+import android.view.KeyEvent;
 import android.view.Window;
 import android.view.WindowManager;
 
 import com.truex.googlereferenceapp.home.HomeViewFragment;
+import com.truex.googlereferenceapp.player.PlayerViewFragment;
+import com.truex.googlereferenceapp.util.StartupTrace;
 
 import dagger.android.support.DaggerAppCompatActivity;
 
@@ -14,22 +17,34 @@ public class MainActivity extends DaggerAppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.mark("activity.onCreate");
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN, WindowManager.LayoutParams.FLAG_FULLSCREEN);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
         setContentView(R.layout.activity_main);
+
+        // The fragment manager restores the current screen itself, e.g. after a configuration change.
+        if (savedInstanceState == null) {
+            displayFragment(new HomeViewFragment());
+        }
     }
 
     @Override
-    protected void onStart() {
-        super.onStart();
-        displayFragment(new HomeViewFragment());
+    public boolean onKeyUp(int keyCode, KeyEvent event) {
+        // The info key toggles the debug HUD during playback, for diagnosing stalls in the field.
+        if (keyCode == KeyEvent.KEYCODE_INFO) {
+            Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.fragment_container);
+            if (fragment instanceof PlayerViewFragment) {
+                ((PlayerViewFragment) fragment).toggleDebugHud();
+                return true;
+            }
+        }
+        return super.onKeyUp(keyCode, event);
     }
 
     private void displayFragment(Fragment fragment) {
         getSupportFragmentManager().beginTransaction()
                 .replace(R.id.fragment_container, fragment)
-                .addToBackStack(null)
                 .commit();
     }
 }
\ No newline at end of file
@@ -2,29 +2,67 @@ package com.truex.googlereferenceapp;
 
 import android.util.Log;
 
+import com.bumptech.glide.Glide;
 import com.truex.googlereferenceapp.dagger.DaggerAppComponent;
+import com.truex.googlereferenceapp.memory.MemoryPressureManager;
+import com.truex.googlereferenceapp.util.StartupTrace;
 
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
+import javax.inject.Inject;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import dagger.Lazy;
 import dagger.android.AndroidInjector;
 import dagger.android.DaggerApplication;
+import okhttp3.OkHttpClient;
 
 public class MainApplication extends DaggerApplication {
     private static final String CLASSTAG = MainApplication.class.getSimpleName();
 
+    @Inject
+    MemoryPressureManager memoryPressureManager;
+
+    // Shared with Glide, which only builds it on its first image load.
+    @Inject
+    Lazy<OkHttpClient> httpClient;
+
+    @Override
+    public void onCreate() {
+        StartupTrace.mark("application.onCreate");
+        super.onCreate();
+        StartupTrace.mark("application.injected");
+
+        registerComponentCallbacks(memoryPressureManager);
+        memoryPressureManager.register("image cache", MemoryPressureManager.SHED_IMAGE_CACHE,
+                new MemoryPressureManager.Resource() {
+                    @Override
+                    public long getEstimatedBytes() {
+                        return Glide.get(MainApplication.this).getBitmapPool().getMaxSize();
+                    }
+
+                    @Override
+                    public void shed(int level) {
+                        // Glide only trims its caches by itself, drop them entirely.
+                        Glide.get(MainApplication.this).clearMemory();
+                    }
+                });
+    }
+
     @Override
     protected AndroidInjector<? extends MainApplication> applicationInjector() {
         // HACK Alert! We are only doing this for testing with the older video contents.
+        // Done before anything else starts, so that no https connection, e.g. of the players' data
+        // sources, is opened with the default socket factory instead.
         disableSSLCertificateChecking();
 
+        // The bindings themselves are created lazily, as they are first needed.
         return DaggerAppComponent.builder().create(this);
     }
 
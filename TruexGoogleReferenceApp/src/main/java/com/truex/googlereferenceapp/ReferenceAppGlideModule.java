@@ -0,0 +1,36 @@
+package com.truex.googlereferenceapp;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.integration.okhttp3.OkHttpUrlLoader;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.module.AppGlideModule;
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+
+import java.io.InputStream;
+
+/**
+ * Loads Glide's images, e.g. the stream covers, with the shared http client, so that they are
+ * arbitrated as UI requests like the rest of the app's traffic.
+ */
+@GlideModule
+public class ReferenceAppGlideModule extends AppGlideModule {
+    @Override
+    public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
+        MainApplication application = (MainApplication) context.getApplicationContext();
+        registry.replace(GlideUrl.class, InputStream.class, new OkHttpUrlLoader.Factory(request ->
+                application.httpClient.get().newCall(request.newBuilder()
+                        .tag(BandwidthArbiter.Priority.class, BandwidthArbiter.Priority.UI)
+                        .build())));
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,196 @@
+package com.truex.googlereferenceapp.analytics;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Provider;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Reports analytics events, such as ad events and playback session metrics.
+ *
+ * Events are appended to an on-disk event log on a low priority background thread, and uploaded
+ * in gzip compressed batches. Uploads are held back while playback is active, so that they don't
+ * compete with the segment downloads, and are retried with an exponential backoff when they fail,
+ * e.g. when the device is offline. Reporting an event never blocks the calling thread.
+ */
+public class AnalyticsReporter {
+    private static final String CLASSTAG = AnalyticsReporter.class.getSimpleName();
+
+    private static final MediaType NDJSON = MediaType.get("application/x-ndjson");
+
+    private static final int MAX_BATCHES = 20;
+    private static final long MAX_BATCH_BYTES = 64 * 1024;
+    private static final long INITIAL_RETRY_DELAY_MS = 5_000;
+    private static final long MAX_RETRY_DELAY_MS = 10 * 60_000;
+
+    private final Provider<OkHttpClient> httpClient;
+    private final String uploadUrl;
+    private final String sessionId;
+    private final long initialRetryDelayMs;
+    private final ScheduledExecutorService executor;
+
+    // Only accessed from the executor.
+    private EventLog eventLog;
+    private boolean playbackActive;
+    private long retryDelayMs;
+    private ScheduledFuture<?> pendingUpload;
+
+    /**
+     * @param directory - the directory to keep the event log in
+     * @param httpClient - provides the shared http client to upload with, only requested when uploading
+     * @param uploadUrl - the url to upload batches to, or null/empty to only keep the events on disk
+     */
+    public AnalyticsReporter(File directory, Provider<OkHttpClient> httpClient, String uploadUrl) {
+        this(directory, httpClient, uploadUrl, INITIAL_RETRY_DELAY_MS);
+    }
+
+    /**
+     * @param initialRetryDelayMs - the delay before the first retry of a failed upload
+     */
+    AnalyticsReporter(File directory, Provider<OkHttpClient> httpClient, String uploadUrl, long initialRetryDelayMs) {
+        this.httpClient = httpClient;
+        this.uploadUrl = uploadUrl;
+        this.initialRetryDelayMs = initialRetryDelayMs;
+        this.retryDelayMs = initialRetryDelayMs;
+        this.sessionId = UUID.randomUUID().toString();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "analytics");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Opening the event log touches the disk, so keep it off the calling thread.
+        executor.execute(() -> eventLog = new EventLog(directory, MAX_BATCHES, MAX_BATCH_BYTES));
+    }
+
+    /**
+     * Records an event.
+     * @param type - the event type, e.g. "truex_ad_event"
+     * @param name - the event name, e.g. "OPT_IN"
+     * @param data - additional event data, or null
+     */
+    public void report(String type, String name, JSONObject data) {
+        long timestamp = System.currentTimeMillis();
+        executor.execute(() -> {
+            try {
+                JSONObject event = new JSONObject();
+                event.put("ts", timestamp);
+                event.put("session", sessionId);
+                event.put("type", type);
+                event.put("name", name);
+                if (data != null) event.put("data", data);
+                eventLog.append(event.toString());
+            } catch (JSONException | IOException e) {
+                Log.w(CLASSTAG, "Unable to record analytics event: " + e);
+            }
+        });
+    }
+
+    public void report(String type, String name) {
+        report(type, name, null);
+    }
+
+    /**
+     * Holds back uploads while the stream is playing. Uploads are resumed when playback stops.
+     */
+    public void setPlaybackActive(boolean active) {
+        executor.execute(() -> {
+            playbackActive = active;
+            if (!active) scheduleUpload(0);
+        });
+    }
+
+    /**
+     * Uploads the events recorded so far, as soon as playback allows.
+     */
+    public void flush() {
+        executor.execute(() -> scheduleUpload(0));
+    }
+
+    private void scheduleUpload(long delayMs) {
+        if (pendingUpload != null && !pendingUpload.isDone()) {
+            if (delayMs > 0 || pendingUpload.getDelay(TimeUnit.MILLISECONDS) <= 0) return;
+            pendingUpload.cancel(false);
+        }
+        pendingUpload = executor.schedule(this::uploadBatches, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void uploadBatches() {
+        // This upload is running, so a retry has to be scheduled as a new one.
+        pendingUpload = null;
+        if (playbackActive || uploadUrl == null || uploadUrl.isEmpty()) return;
+
+        try {
+            eventLog.sealCurrentFile();
+            File batch;
+            while ((batch = eventLog.oldestBatch()) != null) {
+                if (playbackActive) return;
+                upload(batch);
+                batch.delete();
+            }
+            retryDelayMs = initialRetryDelayMs;
+        } catch (IOException e) {
+            Log.w(CLASSTAG, "Analytics upload failed, retrying in " + retryDelayMs + "ms: " + e);
+            scheduleUpload(retryDelayMs);
+            retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+        }
+    }
+
+    private void upload(File batch) throws IOException {
+        byte[] contents = Files.readAllBytes(batch.toPath());
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(contents);
+        }
+
+        Request request = new Request.Builder()
+                .url(uploadUrl)
+                .header("Content-Encoding", "gzip")
+                .tag(BandwidthArbiter.Priority.class, BandwidthArbiter.Priority.BACKGROUND)
+                .post(RequestBody.create(compressed.toByteArray(), NDJSON))
+                .build();
+
+        // We are already on the background executor, so upload synchronously.
+        try (Response response = httpClient.get().newCall(request).execute()) {
+            if (response.isSuccessful()) return;
+            if (isRejected(response.code())) {
+                // Retrying won't help, and would hold back the newer batches forever, so drop it.
+                Log.w(CLASSTAG, "Analytics batch rejected, dropping it: " + response.code());
+                return;
+            }
+            throw new IOException("Upload Error Response: " + response.code());
+        }
+    }
+
+    /**
+     * @return whether the server refused the batch itself, as opposed to failing temporarily.
+     */
+    private static boolean isRejected(int code) {
+        return code >= 400 && code < 500 && code != 408 && code != 429;
+    }
+}
@@ -0,0 +1,105 @@
+package com.truex.googlereferenceapp.analytics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An append-only, on-disk log of analytics events, one JSON object per line.
+ *
+ * Events are appended to the current log file. To upload, the current file is sealed into a
+ * numbered batch file, so that appends and uploads never touch the same file. Batches are deleted
+ * once uploaded. The number of pending batches is bounded, dropping the oldest ones first, so that
+ * a device that stays offline does not fill up its storage.
+ *
+ * Not thread safe, only to be used from the analytics reporter's executor.
+ */
+class EventLog {
+    private static final String CURRENT_FILE_NAME = "events.log";
+    private static final String BATCH_FILE_PREFIX = "batch-";
+
+    private final File directory;
+    private final int maxBatches;
+    private final long maxCurrentFileBytes;
+
+    private OutputStream currentStream;
+    private long currentFileBytes;
+    private long nextBatchNumber;
+
+    EventLog(File directory, int maxBatches, long maxCurrentFileBytes) {
+        this.directory = directory;
+        this.maxBatches = maxBatches;
+        this.maxCurrentFileBytes = maxCurrentFileBytes;
+        directory.mkdirs();
+
+        File[] batches = listBatches();
+        if (batches.length > 0) {
+            nextBatchNumber = batchNumberOf(batches[batches.length - 1]) + 1;
+        }
+        currentFileBytes = new File(directory, CURRENT_FILE_NAME).length();
+    }
+
+    void append(String event) throws IOException {
+        if (currentStream == null) {
+            currentStream = new FileOutputStream(new File(directory, CURRENT_FILE_NAME), true);
+        }
+        byte[] bytes = (event + "\n").getBytes(StandardCharsets.UTF_8);
+        currentStream.write(bytes);
+        currentFileBytes += bytes.length;
+
+        if (currentFileBytes >= maxCurrentFileBytes) {
+            sealCurrentFile();
+        }
+    }
+
+    /**
+     * Closes the current log file and turns it into a batch ready for upload, if not empty.
+     */
+    void sealCurrentFile() throws IOException {
+        if (currentStream != null) {
+            currentStream.close();
+            currentStream = null;
+        }
+        File current = new File(directory, CURRENT_FILE_NAME);
+        if (current.length() == 0) return;
+
+        File batch = new File(directory, BATCH_FILE_PREFIX + nextBatchNumber);
+        if (!current.renameTo(batch)) {
+            throw new IOException("Unable to seal analytics event log");
+        }
+        nextBatchNumber++;
+        currentFileBytes = 0;
+
+        // Bound the pending batches, dropping the oldest first.
+        File[] batches = listBatches();
+        for (int i = 0; i < batches.length - maxBatches; i++) {
+            batches[i].delete();
+        }
+    }
+
+    /**
+     * @return the oldest batch pending upload, or null if none.
+     */
+    File oldestBatch() {
+        File[] batches = listBatches();
+        return batches.length == 0 ? null : batches[0];
+    }
+
+    private File[] listBatches() {
+        File[] batches = directory.listFiles((dir, name) -> name.startsWith(BATCH_FILE_PREFIX));
+        if (batches == null) return new File[0];
+        Arrays.sort(batches, (a, b) -> Long.compare(batchNumberOf(a), batchNumberOf(b)));
+        return batches;
+    }
+
+    private static long batchNumberOf(File batch) {
+        try {
+            return Long.parseLong(batch.getName().substring(BATCH_FILE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
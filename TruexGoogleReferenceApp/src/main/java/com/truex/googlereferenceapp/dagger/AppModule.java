@@ -1,20 +1,120 @@
 package com.truex.googlereferenceapp.dagger;
 
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.OptIn;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.database.DatabaseProvider;
+import androidx.media3.database.StandaloneDatabaseProvider;
+
+import com.truex.googlereferenceapp.MainApplication;
+import com.truex.googlereferenceapp.R;
+import com.truex.googlereferenceapp.analytics.AnalyticsReporter;
+import com.truex.googlereferenceapp.download.StreamDownloads;
+import com.truex.googlereferenceapp.home.StreamConfigurationRepository;
+import com.truex.googlereferenceapp.memory.MemoryPressureManager;
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+import com.truex.googlereferenceapp.network.PriorityInterceptor;
+import com.truex.googlereferenceapp.player.PlaybackResources;
+import com.truex.googlereferenceapp.player.PreviewPreloader;
+import com.truex.googlereferenceapp.trace.PlaybackTrace;
+
+import java.io.File;
+import java.io.IOException;
+
 import javax.inject.Singleton;
 
+import dagger.Lazy;
 import dagger.Module;
 import dagger.Provides;
 import okhttp3.OkHttpClient;
 
 @Module
 public class AppModule {
+    private static final String CLASSTAG = AppModule.class.getSimpleName();
+
+    // 4096 records of 32 bytes, i.e. the last few sessions of events.
+    private static final int PLAYBACK_TRACE_CAPACITY = 4096;
 
     public AppModule() {
     }
 
     @Provides
     @Singleton
-    OkHttpClient provideOkHttpClient() {
-        return new OkHttpClient.Builder().build();
+    BandwidthArbiter provideBandwidthArbiter() {
+        return new BandwidthArbiter();
+    }
+
+    @Provides
+    @Singleton
+    OkHttpClient provideOkHttpClient(BandwidthArbiter bandwidthArbiter) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(new PriorityInterceptor(bandwidthArbiter))
+                .build();
+    }
+
+    @Provides
+    @Singleton
+    MemoryPressureManager provideMemoryPressureManager() {
+        return new MemoryPressureManager();
+    }
+
+    @Provides
+    @Singleton
+    @OptIn(markerClass = UnstableApi.class)
+    DatabaseProvider provideDatabaseProvider(MainApplication application) {
+        // Shared by the download index and the media caches.
+        return new StandaloneDatabaseProvider(application);
+    }
+
+    @Provides
+    @Singleton
+    StreamDownloads provideStreamDownloads(MainApplication application, DatabaseProvider databaseProvider,
+                                           BandwidthArbiter bandwidthArbiter) {
+        return new StreamDownloads(application, new File(application.getFilesDir(), "downloads"), databaseProvider,
+                bandwidthArbiter);
+    }
+
+    @Provides
+    @Singleton
+    PlaybackResources providePlaybackResources(MainApplication application, DatabaseProvider databaseProvider,
+                                               BandwidthArbiter bandwidthArbiter) {
+        return new PlaybackResources(application, new File(application.getCacheDir(), "media"), databaseProvider,
+                bandwidthArbiter);
+    }
+
+    @Provides
+    @Singleton
+    PreviewPreloader providePreviewPreloader(PlaybackResources playbackResources) {
+        return new PreviewPreloader(playbackResources);
+    }
+
+    @Provides
+    @Singleton
+    StreamConfigurationRepository provideStreamConfigurationRepository(MainApplication application,
+                                                                       Lazy<OkHttpClient> httpClient) {
+        // The http client is only built on first use, on the repository's I/O thread.
+        return new StreamConfigurationRepository(application, httpClient::get);
+    }
+
+    @Provides
+    @Singleton
+    @Nullable
+    PlaybackTrace providePlaybackTrace(MainApplication application) {
+        try {
+            return new PlaybackTrace(new File(application.getFilesDir(), "playback.trace"), PLAYBACK_TRACE_CAPACITY);
+        } catch (IOException e) {
+            Log.w(CLASSTAG, "Unable to open the playback trace: " + e);
+            return null;
+        }
+    }
+
+    @Provides
+    @Singleton
+    AnalyticsReporter provideAnalyticsReporter(MainApplication application, Lazy<OkHttpClient> httpClient) {
+        File directory = new File(application.getFilesDir(), "analytics");
+        String uploadUrl = application.getString(R.string.analytics_upload_url);
+        return new AnalyticsReporter(directory, httpClient::get, uploadUrl);
     }
 }
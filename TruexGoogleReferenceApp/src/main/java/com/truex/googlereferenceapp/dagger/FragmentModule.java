@@ -1,7 +1,9 @@
 package com.truex.googlereferenceapp.dagger;
 
 import com.truex.googlereferenceapp.MainActivity;
+import com.truex.googlereferenceapp.download.StreamDownloadService;
 import com.truex.googlereferenceapp.home.HomeViewFragment;
+import com.truex.googlereferenceapp.player.PlayerViewFragment;
 
 import dagger.Module;
 import dagger.android.ContributesAndroidInjector;
@@ -14,4 +16,10 @@ abstract class FragmentModule {
 
     @ContributesAndroidInjector
     abstract HomeViewFragment contributeHomeViewFragmentInjector();
+
+    @ContributesAndroidInjector
+    abstract PlayerViewFragment contributePlayerViewFragmentInjector();
+
+    @ContributesAndroidInjector
+    abstract StreamDownloadService contributeStreamDownloadServiceInjector();
 }
@@ -0,0 +1,69 @@
+package com.truex.googlereferenceapp.download;
+
+import android.app.Notification;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.OptIn;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.offline.Download;
+import androidx.media3.exoplayer.offline.DownloadManager;
+import androidx.media3.exoplayer.offline.DownloadNotificationHelper;
+import androidx.media3.exoplayer.offline.DownloadService;
+import androidx.media3.exoplayer.scheduler.PlatformScheduler;
+import androidx.media3.exoplayer.scheduler.Requirements;
+import androidx.media3.exoplayer.scheduler.Scheduler;
+
+import com.truex.googlereferenceapp.R;
+
+import java.util.List;
+
+import javax.inject.Inject;
+
+import dagger.android.AndroidInjection;
+
+/**
+ * Runs the stream downloads in a foreground service, with a progress notification.
+ */
+@OptIn(markerClass = UnstableApi.class)
+public class StreamDownloadService extends DownloadService {
+    private static final int FOREGROUND_NOTIFICATION_ID = 1;
+    private static final String CHANNEL_ID = "downloads";
+    private static final int JOB_ID = 1;
+
+    @Inject
+    StreamDownloads streamDownloads;
+
+    private DownloadNotificationHelper notificationHelper;
+
+    public StreamDownloadService() {
+        super(FOREGROUND_NOTIFICATION_ID, DEFAULT_FOREGROUND_NOTIFICATION_UPDATE_INTERVAL, CHANNEL_ID,
+                R.string.download_channel_name, 0);
+    }
+
+    @Override
+    public void onCreate() {
+        AndroidInjection.inject(this);
+        notificationHelper = new DownloadNotificationHelper(this, CHANNEL_ID);
+        super.onCreate();
+    }
+
+    @NonNull
+    @Override
+    protected DownloadManager getDownloadManager() {
+        return streamDownloads.getDownloadManager();
+    }
+
+    @Override
+    protected Scheduler getScheduler() {
+        // Resumes the downloads when their requirements are met again, e.g. once the network is back.
+        return new PlatformScheduler(this, JOB_ID);
+    }
+
+    @NonNull
+    @Override
+    protected Notification getForegroundNotification(@NonNull List<Download> downloads,
+                                                     @Requirements.RequirementFlags int notMetRequirements) {
+        return notificationHelper.buildProgressNotification(this, android.R.drawable.stat_sys_download,
+                null, null, downloads, notMetRequirements);
+    }
+}
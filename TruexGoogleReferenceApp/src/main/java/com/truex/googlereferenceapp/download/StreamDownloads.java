@@ -0,0 +1,294 @@
+package com.truex.googlereferenceapp.download;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.OptIn;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.StreamKey;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.database.DatabaseProvider;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DefaultHttpDataSource;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.NoOpCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+import androidx.media3.exoplayer.DefaultRenderersFactory;
+import androidx.media3.exoplayer.offline.Download;
+import androidx.media3.exoplayer.offline.DownloadCursor;
+import androidx.media3.exoplayer.offline.DownloadHelper;
+import androidx.media3.exoplayer.offline.DownloadManager;
+import androidx.media3.exoplayer.offline.DownloadRequest;
+import androidx.media3.exoplayer.offline.DownloadService;
+
+import com.google.ads.interactivemedia.v3.api.CuePoint;
+import com.truex.googlereferenceapp.home.StreamConfiguration;
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+import com.truex.googlereferenceapp.network.PrioritizedDataSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads VOD streams for offline playback, keyed by their IMA content and video ids.
+ *
+ * A download stores the ad-stitched stream that IMA returned for a playback session, together with
+ * its ad breaks, so that the downloaded stream can be played back with content times and ad markers
+ * without IMA. The segments are stored in a cache shared by all downloads, at most
+ * MAX_PARALLEL_DOWNLOADS are downloaded at a time, and interrupted downloads resume where they left
+ * off, e.g. once the network is back.
+ *
+ * Must be created on the main thread. Listeners are called on the main thread.
+ */
+@OptIn(markerClass = UnstableApi.class)
+public class StreamDownloads {
+    private static final String CLASSTAG = StreamDownloads.class.getSimpleName();
+
+    private static final int MAX_PARALLEL_DOWNLOADS = 2;
+
+    public interface Listener {
+        void onDownloadsChanged();
+    }
+
+    /**
+     * A downloaded stream, ready to be played from the download cache.
+     */
+    public static class OfflineStream {
+        private final String url;
+        private final List<StreamKey> streamKeys;
+        private final long[] adBreakStartTimesMs;
+        private final long[] adBreakEndTimesMs;
+
+        private OfflineStream(String url, List<StreamKey> streamKeys, long[] adBreakStartTimesMs,
+                              long[] adBreakEndTimesMs) {
+            this.url = url;
+            this.streamKeys = streamKeys;
+            this.adBreakStartTimesMs = adBreakStartTimesMs;
+            this.adBreakEndTimesMs = adBreakEndTimesMs;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public List<StreamKey> getStreamKeys() {
+            return streamKeys;
+        }
+
+        public long[] getAdBreakStartTimesMs() {
+            return adBreakStartTimesMs;
+        }
+
+        public long[] getAdBreakEndTimesMs() {
+            return adBreakEndTimesMs;
+        }
+    }
+
+    private final Context context;
+    private final DataSource.Factory httpDataSourceFactory;
+    private final Cache downloadCache;
+    private final DownloadManager downloadManager;
+    private final Handler mainHandler;
+
+    // The downloads by id, kept in sync with the download index.
+    private final Map<String, Download> downloads = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param directory - the directory to keep the downloaded segments in
+     * @param databaseProvider - the database to keep the download index and cache index in
+     * @param bandwidthArbiter - holds back the downloads while playback needs the bandwidth
+     */
+    public StreamDownloads(Context context, File directory, DatabaseProvider databaseProvider,
+                           BandwidthArbiter bandwidthArbiter) {
+        this.context = context.getApplicationContext();
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        httpDataSourceFactory = new PrioritizedDataSource.Factory(
+                new DefaultHttpDataSource.Factory().setAllowCrossProtocolRedirects(true),
+                bandwidthArbiter, BandwidthArbiter.Priority.BACKGROUND);
+        downloadCache = new SimpleCache(directory, new NoOpCacheEvictor(), databaseProvider);
+        // Runs the downloads, and reads the download index once, without keeping a thread for it.
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_DOWNLOADS);
+        downloadManager = new DownloadManager(this.context, databaseProvider, downloadCache,
+                httpDataSourceFactory, executor);
+        downloadManager.setMaxParallelDownloads(MAX_PARALLEL_DOWNLOADS);
+        downloadManager.addListener(new DownloadManager.Listener() {
+            @Override
+            public void onDownloadChanged(@NonNull DownloadManager downloadManager, @NonNull Download download,
+                                          Exception finalException) {
+                downloads.put(download.request.id, download);
+                if (finalException != null) {
+                    Log.w(CLASSTAG, "Download " + download.request.id + " failed: " + finalException);
+                }
+                notifyListeners();
+            }
+
+            @Override
+            public void onDownloadRemoved(@NonNull DownloadManager downloadManager, @NonNull Download download) {
+                downloads.remove(download.request.id);
+                notifyListeners();
+            }
+        });
+
+        // Reading the download index touches the disk.
+        executor.execute(this::loadDownloads);
+    }
+
+    public static String getDownloadId(StreamConfiguration streamConfiguration) {
+        return streamConfiguration.getContentID() + "/" + streamConfiguration.getVideoID();
+    }
+
+    /**
+     * @return whether the stream can be downloaded, i.e. whether it is a VOD stream with content and video ids.
+     */
+    public boolean isDownloadable(StreamConfiguration streamConfiguration) {
+        return !streamConfiguration.isLive() && !streamConfiguration.isPodServing()
+                && streamConfiguration.getContentID() != null && streamConfiguration.getVideoID() != null;
+    }
+
+    /**
+     * @return the stream's download, or null if it was never downloaded.
+     */
+    public Download getDownload(StreamConfiguration streamConfiguration) {
+        return downloads.get(getDownloadId(streamConfiguration));
+    }
+
+    /**
+     * @return the downloaded stream, or null if the stream's download isn't complete.
+     */
+    public OfflineStream getOfflineStream(StreamConfiguration streamConfiguration) {
+        Download download = getDownload(streamConfiguration);
+        if (download == null || download.state != Download.STATE_COMPLETED) return null;
+        DownloadRequest request = download.request;
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(request.data));
+            int count = input.readInt();
+            long[] startTimesMs = new long[count];
+            long[] endTimesMs = new long[count];
+            for (int i = 0; i < count; i++) {
+                startTimesMs[i] = input.readLong();
+                endTimesMs[i] = input.readLong();
+            }
+            return new OfflineStream(request.uri.toString(), request.streamKeys, startTimesMs, endTimesMs);
+        } catch (IOException e) {
+            Log.w(CLASSTAG, "Invalid ad breaks for download " + request.id + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the data source factory that reads the downloaded segments.
+     */
+    public DataSource.Factory getDataSourceFactory() {
+        return new CacheDataSource.Factory()
+                .setCache(downloadCache)
+                .setUpstreamDataSourceFactory(httpDataSourceFactory)
+                .setCacheWriteDataSinkFactory(null); // Playback doesn't write to the download cache.
+    }
+
+    /**
+     * Downloads the ad-stitched stream of a playback session, along with its ad breaks.
+     * The renditions to download are selected for the device's display.
+     * @param streamUrl - the stitched stream's url, as returned by IMA
+     * @param cuePoints - the stream's ad breaks
+     */
+    public void download(StreamConfiguration streamConfiguration, String streamUrl, List<CuePoint> cuePoints) {
+        String id = getDownloadId(streamConfiguration);
+        byte[] data = encodeAdBreaks(cuePoints);
+        MediaItem mediaItem = new MediaItem.Builder()
+                .setUri(streamUrl)
+                .setMimeType(streamConfiguration.getFormat().getMimeType())
+                .build();
+
+        // Loads the manifest to select the renditions to download.
+        DownloadHelper helper = DownloadHelper.forMediaItem(context, mediaItem,
+                new DefaultRenderersFactory(context), httpDataSourceFactory);
+        helper.prepare(new DownloadHelper.Callback() {
+            @Override
+            public void onPrepared(@NonNull DownloadHelper helper) {
+                DownloadRequest request = helper.getDownloadRequest(id, data);
+                helper.release();
+                Log.i(CLASSTAG, "Downloading " + id + ": " + streamUrl);
+                DownloadService.sendAddDownload(context, StreamDownloadService.class, request, false);
+            }
+
+            @Override
+            public void onPrepareError(@NonNull DownloadHelper helper, @NonNull IOException e) {
+                helper.release();
+                Log.e(CLASSTAG, "Unable to download " + id + ": " + e);
+            }
+        });
+    }
+
+    public void remove(StreamConfiguration streamConfiguration) {
+        DownloadService.sendRemoveDownload(context, StreamDownloadService.class,
+                getDownloadId(streamConfiguration), false);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    DownloadManager getDownloadManager() {
+        return downloadManager;
+    }
+
+    private void loadDownloads() {
+        try (DownloadCursor cursor = downloadManager.getDownloadIndex().getDownloads()) {
+            while (cursor.moveToNext()) {
+                Download download = cursor.getDownload();
+                downloads.putIfAbsent(download.request.id, download);
+            }
+        } catch (IOException e) {
+            Log.w(CLASSTAG, "Unable to load the downloads: " + e);
+        }
+        mainHandler.post(this::notifyListeners);
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : listeners) {
+            listener.onDownloadsChanged();
+        }
+    }
+
+    /**
+     * @return the ad breaks in ascending order, as the offline player expects them.
+     */
+    static byte[] encodeAdBreaks(List<CuePoint> cuePoints) {
+        List<CuePoint> sortedCuePoints = new ArrayList<>(cuePoints);
+        Collections.sort(sortedCuePoints, (a, b) -> Long.compare(a.getStartTimeMs(), b.getStartTimeMs()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(sortedCuePoints.size());
+            for (CuePoint cuePoint : sortedCuePoints) {
+                output.writeLong(cuePoint.getStartTimeMs());
+                output.writeLong(cuePoint.getEndTimeMs());
+            }
+        } catch (IOException e) {
+            // Not thrown when writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -1,134 +1,322 @@
 package com.truex.googlereferenceapp.home;
 
-import static com.truex.googlereferenceapp.home.StreamConfiguration.requestStreamConfigurations;
-
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.OptIn;
 import androidx.fragment.app.Fragment;
-import androidx.media3.common.Player;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.offline.Download;
 import androidx.media3.ui.PlayerView;
 
 import com.bumptech.glide.Glide;
 import com.truex.googlereferenceapp.R;
+import com.truex.googlereferenceapp.download.StreamDownloads;
+import com.truex.googlereferenceapp.memory.MemoryPressureManager;
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+import com.truex.googlereferenceapp.player.LifecyclePlayerOwner;
+import com.truex.googlereferenceapp.player.PlaybackResources;
 import com.truex.googlereferenceapp.player.PlayerViewFragment;
+import com.truex.googlereferenceapp.player.PreviewPreloader;
 import com.truex.googlereferenceapp.player.VideoPlayer;
-import com.truex.googlereferenceapp.util.FileUtils;
-
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.truex.googlereferenceapp.util.StartupTrace;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.inject.Inject;
 
 import dagger.android.support.DaggerFragment;
-import okhttp3.OkHttpClient;
+import mehdi.sakout.fancybuttons.FancyButton;
 
 public class HomeViewFragment extends DaggerFragment {
-    private static String CLASSTAG = HomeViewFragment.class.getSimpleName();
+    private static final String CLASSTAG = HomeViewFragment.class.getSimpleName();
+
+    // How long the focus has to rest on a catalog entry before its preview is preloaded, and before
+    // it is shown and played. Shorter rests are considered browsing.
+    private static final long PRELOAD_DWELL_MS = 300;
+    private static final long PREVIEW_DWELL_MS = 1000;
+
+    @Inject
+    StreamConfigurationRepository streamConfigurationRepository;
+
+    @Inject
+    MemoryPressureManager memoryPressureManager;
+
+    @Inject
+    StreamDownloads streamDownloads;
+
+    @Inject
+    PlaybackResources playbackResources;
 
     @Inject
-    OkHttpClient httpClient;
+    PreviewPreloader previewPreloader;
 
+    private List<StreamConfiguration> streamConfigurations;
     private StreamConfiguration currentStreamConfiguration;
 
     private ViewGroup streamSelectionLayout;
     private TextView streamTitle;
     private TextView streamDescription;
-    private ImageView streamCover;
+    private ViewGroup streamCatalog;
     private PlayerView previewPlayerView;
-    private VideoPlayer previewPlayer;
     private View playButton;
+    private FancyButton downloadButton;
 
-    @Override
-    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
-                             Bundle savedInstanceState) {
-        return inflater.inflate(R.layout.fragment_home, container, false);
-    }
+    // Delays the preload and the preview of the focused catalog entry until the focus rests on it.
+    private final Handler focusHandler = new Handler(Looper.getMainLooper());
 
-    @Override
-    public void onStart() {
-        super.onStart();
+    private final StreamDownloads.Listener downloadsListener = this::updateDownloadButton;
 
-        streamSelectionLayout = getView().findViewById(R.id.stream_selection_layout);
-        streamTitle = getView().findViewById(R.id.stream_title);
-        streamDescription = getView().findViewById(R.id.stream_description);
-        streamCover = getView().findViewById(R.id.stream_cover);
-        previewPlayerView = getView().findViewById(R.id.player_view);
-        playButton = getView().findViewById(R.id.play_button);
+    // Creates the preview player when the view starts, and releases it when the view stops.
+    private LifecyclePlayerOwner<VideoPlayer> previewPlayerOwner;
 
-        previewPlayer = new VideoPlayer(getContext(), previewPlayerView);
-        previewPlayer.enableControls(false);
+    // The preview is the first thing to go under memory pressure, the cover image stays.
+    private final MemoryPressureManager.Resource previewPlayerResource = new MemoryPressureManager.Resource() {
+        @Override
+        public long getEstimatedBytes() {
+            VideoPlayer previewPlayer = previewPlayerOwner.getPlayer();
+            return previewPlayer != null ? previewPlayer.getBufferedBytes() : 0;
+        }
 
-        String streamsConfigURL = getResources().getString(R.string.streams_config_url);
-        requestStreamConfigurations(httpClient, streamsConfigURL, (List<StreamConfiguration> streamConfigurations) -> {
-            updateCurrentStream(streamConfigurations.get(0));
-        }, (Exception e) -> {
-            StreamConfiguration fallbackStreamConfiguration = getFallbackStreamConfiguration();
-            if (fallbackStreamConfiguration != null) {
-                updateCurrentStream(fallbackStreamConfiguration);
+        @Override
+        public void shed(int level) {
+            // Dropped by its owner as well, so that it isn't played again until the view restarts,
+            // which creates a new player registered with the memory manager and playback resources.
+            previewPlayerOwner.releasePlayer();
+        }
+    };
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_home, container, false);
+
+        // Completes the startup trace on the first draw of the home screen.
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.complete("home.firstDraw");
+                return true;
             }
         });
+        return view;
     }
 
     @Override
-    public void onPause() {
-        super.onPause();
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+
+        streamSelectionLayout = view.findViewById(R.id.stream_selection_layout);
+        streamTitle = view.findViewById(R.id.stream_title);
+        streamDescription = view.findViewById(R.id.stream_description);
+        streamCatalog = view.findViewById(R.id.stream_catalog);
+        previewPlayerView = view.findViewById(R.id.player_view);
+        playButton = view.findViewById(R.id.play_button);
+        downloadButton = view.findViewById(R.id.download_button);
+
+        previewPlayerOwner = new LifecyclePlayerOwner<>(CLASSTAG, getViewLifecycleOwner(),
+                new LifecyclePlayerOwner.Callback<VideoPlayer>() {
+                    @Override
+                    public VideoPlayer createPlayer(long resumePositionMs) {
+                        VideoPlayer previewPlayer = new VideoPlayer(getContext(), previewPlayerView, playbackResources);
+                        previewPlayer.enableControls(false);
+                        previewPlayer.setRequestPriority(BandwidthArbiter.Priority.UI);
+                        memoryPressureManager.register("preview player", MemoryPressureManager.SHED_PREVIEW_PLAYER,
+                                previewPlayerResource);
+                        if (currentStreamConfiguration != null) {
+                            playPreview(previewPlayer);
+                        }
+                        return previewPlayer;
+                    }
+
+                    @Override
+                    public long releasePlayer(VideoPlayer previewPlayer) {
+                        memoryPressureManager.unregister(previewPlayerResource);
+                        previewPlayer.release();
+                        // The preview always starts from the beginning.
+                        return C.TIME_UNSET;
+                    }
+                });
+
+        // The stream configurations are only requested once per view. Results are delivered on the
+        // main thread, once the view is started.
+        String streamsConfigURL = getResources().getString(R.string.streams_config_url);
+        streamConfigurationRepository.loadStreamConfigurations(streamsConfigURL, getViewLifecycleOwner(),
+                (List<StreamConfiguration> streamConfigurations) -> {
+                    showCatalog(streamConfigurations);
+                }, (Exception e) -> {
+                    Log.d(CLASSTAG, "Unable to load any stream configuration");
+                });
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
+    public void onStart() {
+        super.onStart();
+        streamDownloads.addListener(downloadsListener);
+        updateDownloadButton();
     }
 
     @Override
     public void onStop() {
         super.onStop();
+        streamDownloads.removeListener(downloadsListener);
+        focusHandler.removeCallbacksAndMessages(null);
+        previewPreloader.cancelAll();
+    }
+
+    private void showCatalog(List<StreamConfiguration> streamConfigurations) {
+        this.streamConfigurations = streamConfigurations;
+
+        // Add a cover per stream, which selects the stream once the focus rests on it.
+        LayoutInflater inflater = LayoutInflater.from(getContext());
+        streamCatalog.removeAllViews();
+        for (int i = 0; i < streamConfigurations.size(); i++) {
+            StreamConfiguration streamConfiguration = streamConfigurations.get(i);
+            ImageView cover = (ImageView) inflater.inflate(R.layout.item_stream_cover, streamCatalog, false);
+            int index = i;
+            cover.setOnFocusChangeListener((View v, boolean hasFocus) -> {
+                if (hasFocus) onCatalogEntryFocused(index);
+            });
+            cover.setOnClickListener((View v) -> {
+                focusHandler.removeCallbacksAndMessages(null);
+                currentStreamConfiguration = streamConfiguration;
+                openPlayer(false);
+            });
+            Glide.with(this)
+                    .load(streamConfiguration.getCoverURL())
+                    .centerCrop()
+                    .into(cover);
+            streamCatalog.addView(cover);
+        }
+
+        // The view may be recreated, e.g. when returning from the player.
+        currentStreamConfiguration = null;
+        updateCurrentStream(streamConfigurations.get(0));
+        playButton.requestFocus();
+
+        // Display the layout
+        streamSelectionLayout.setVisibility(View.VISIBLE);
+    }
+
+    private void onCatalogEntryFocused(int index) {
+        // Drop the pending preload and preview of the previously focused entry.
+        focusHandler.removeCallbacksAndMessages(null);
+        focusHandler.postDelayed(() -> preloadPreviews(index), PRELOAD_DWELL_MS);
+        focusHandler.postDelayed(() -> updateCurrentStream(streamConfigurations.get(index)), PREVIEW_DWELL_MS);
+    }
+
+    /**
+     * Preloads the focused entry's preview first, then its neighbours', the likely next focus.
+     */
+    private void preloadPreviews(int index) {
+        List<String> previewUrls = new ArrayList<>(3);
+        addPreloadablePreview(previewUrls, index);
+        addPreloadablePreview(previewUrls, index + 1);
+        addPreloadablePreview(previewUrls, index - 1);
+        previewPreloader.preload(previewUrls);
+    }
+
+    /**
+     * Only progressive previews are preloaded, adaptive ones start at a low rendition anyway.
+     */
+    private void addPreloadablePreview(List<String> previewUrls, int index) {
+        if (index < 0 || index >= streamConfigurations.size()) return;
+        StreamConfiguration streamConfiguration = streamConfigurations.get(index);
+        if (streamConfiguration.getPreviewURL() != null
+                && streamConfiguration.getPreviewFormat() == StreamConfiguration.Format.PROGRESSIVE) {
+            previewUrls.add(streamConfiguration.getPreviewURL());
+        }
     }
 
     private void updateCurrentStream(StreamConfiguration streamConfiguration) {
+        if (streamConfiguration == currentStreamConfiguration) return;
         currentStreamConfiguration = streamConfiguration;
 
-        getActivity().runOnUiThread(() -> {
-            // Update the title
-            streamTitle.setText(currentStreamConfiguration.getTitle());
+        // Update the title
+        streamTitle.setText(currentStreamConfiguration.getTitle());
 
-            // Update the stream description
-            streamDescription.setText(currentStreamConfiguration.getDescription());
+        // Update the stream description
+        streamDescription.setText(currentStreamConfiguration.getDescription());
 
-            // Update the cover image
-            Glide.with(this)
-                    .load(streamConfiguration.getCoverURL())
-                    .centerCrop()
-                    .into(streamCover);
+        // Update and play the preview video
+        VideoPlayer previewPlayer = previewPlayerOwner.getPlayer();
+        if (previewPlayer != null) {
+            playPreview(previewPlayer);
+        }
 
-            // Update and play the preview video
-            previewPlayer.setStreamUrl(currentStreamConfiguration.getPreviewURL());
-            previewPlayer.enableRepeatOnce();
-            previewPlayer.setVolume(0);
-            previewPlayer.play();
+        // Set-up the Play Button
+        playButton.setOnClickListener((View v) -> openPlayer(false));
 
-            // Set-up the Play Button
-            playButton.setOnClickListener((View v) -> onPlayButtonClicked());
-            playButton.requestFocus();
+        // Set-up the Download Button
+        downloadButton.setOnClickListener((View v) -> onDownloadButtonClicked());
+        updateDownloadButton();
+    }
 
-            // Display the layout
-            streamSelectionLayout.setVisibility(View.VISIBLE);
-        });
+    private void playPreview(VideoPlayer previewPlayer) {
+        String previewUrl = currentStreamConfiguration.getPreviewURL();
+        if (previewUrl == null) {
+            previewPlayer.pause();
+            return;
+        }
+
+        // The player reads the preloaded start from the cache, and loads the rest itself.
+        previewPreloader.cancel(previewUrl);
+        previewPlayer.setStreamUrl(previewUrl, currentStreamConfiguration.getPreviewFormat().getContentType());
+        previewPlayer.enableRepeatOnce();
+        previewPlayer.setVolume(0);
+        previewPlayer.play();
     }
 
-    private void onPlayButtonClicked() {
-        previewPlayer.release();
+    @OptIn(markerClass = UnstableApi.class)
+    private void updateDownloadButton() {
+        if (currentStreamConfiguration == null || !streamDownloads.isDownloadable(currentStreamConfiguration)) {
+            downloadButton.setVisibility(View.GONE);
+            return;
+        }
 
+        Download download = streamDownloads.getDownload(currentStreamConfiguration);
+        if (download == null || download.state == Download.STATE_FAILED) {
+            downloadButton.setText(getString(R.string.download));
+        } else if (download.state == Download.STATE_COMPLETED) {
+            downloadButton.setText(getString(R.string.remove_download));
+        } else {
+            downloadButton.setText(getString(R.string.downloading));
+        }
+        downloadButton.setVisibility(View.VISIBLE);
+    }
+
+    @OptIn(markerClass = UnstableApi.class)
+    private void onDownloadButtonClicked() {
+        Download download = streamDownloads.getDownload(currentStreamConfiguration);
+        if (download == null || download.state == Download.STATE_FAILED) {
+            // The stitched stream is only known once IMA has started a playback session for it.
+            openPlayer(true);
+        } else {
+            streamDownloads.remove(currentStreamConfiguration);
+        }
+    }
+
+    /**
+     * @param download - whether to download the stream once it is loaded
+     */
+    private void openPlayer(boolean download) {
+        // The preview player is released once this view stops.
         Bundle arguments = new Bundle();
         arguments.putParcelable(StreamConfiguration.class.getSimpleName(), currentStreamConfiguration);
+        arguments.putBoolean(PlayerViewFragment.ARG_DOWNLOAD, download);
 
         Fragment fragment = new PlayerViewFragment();
         fragment.setArguments(arguments);
@@ -138,15 +326,4 @@ public class HomeViewFragment extends DaggerFragment {
                 .addToBackStack(null)
                 .commit();
     }
-
-    StreamConfiguration getFallbackStreamConfiguration() {
-        try {
-            String rawStreamConfiguration = FileUtils.getRawFileContents(getContext(), R.raw.stream_config_fallback);
-            JSONObject streamConfigurationJSON = new JSONObject(rawStreamConfiguration);
-            return StreamConfiguration.getStreamConfiguration(streamConfigurationJSON);
-        } catch (JSONException e) {
-            Log.d(CLASSTAG, "Failed to parse fallback stream configuration");
-        }
-        return null;
-    }
 }
@@ -0,0 +1,261 @@
+package com.truex.googlereferenceapp.home;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary snapshot of the stream catalog, written after a successful fetch so that the next
+ * cold start can show the catalog without fetching and parsing JSON.
+ *
+ * Layout, little endian:
+ * <pre>
+ *   header:       magic, version, record count, string field count, string count (5 ints)
+ *   records:      record count * (string field count string indices (int, -1 for null),
+ *                 stream type, format, preview format and ad policy ordinals (4 ints),
+ *                 max bitrate (int), ad budget in ms (long))
+ *   string table: string count + 1 byte offsets (int), followed by the UTF-8 bytes of all strings
+ * </pre>
+ * The file is memory mapped, and since records are fixed width, a stream configuration is only
+ * decoded when it is accessed. Shared strings are stored once, and decoded once. Only the strings
+ * are in the string table, the enums and numbers are stored in the record, and checked when read.
+ * Reordering an enum's constants changes the ordinals, and requires a new version.
+ */
+class StreamCatalogSnapshot {
+    private static final int MAGIC = 0x54585343; // "TXSC"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+    private static final int STRING_FIELD_COUNT = StreamConfiguration.STRING_FIELD_COUNT;
+    // The ordinals and the max bitrate, followed by the ad budget.
+    private static final int INT_FIELD_COUNT = 5;
+    private static final int RECORD_SIZE = (STRING_FIELD_COUNT + INT_FIELD_COUNT) * Integer.BYTES + Long.BYTES;
+
+    private static final StreamConfiguration.StreamType[] STREAM_TYPES = StreamConfiguration.StreamType.values();
+    private static final StreamConfiguration.Format[] FORMATS = StreamConfiguration.Format.values();
+    private static final StreamConfiguration.AdPolicy[] AD_POLICIES = StreamConfiguration.AdPolicy.values();
+
+    private final ByteBuffer buffer;
+    private final int recordCount;
+    private final int stringOffsetsPosition;
+    private final int stringDataPosition;
+    // The strings decoded so far, by index. Racing decodes of the same string are harmless.
+    private final String[] strings;
+
+    private StreamCatalogSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Invalid stream catalog snapshot");
+        }
+        recordCount = buffer.getInt(8);
+        int stringFieldCount = buffer.getInt(12);
+        int stringCount = buffer.getInt(16);
+        if (stringFieldCount != STRING_FIELD_COUNT) {
+            throw new IOException("Unsupported stream catalog snapshot");
+        }
+        // The counts are checked in long arithmetic, so that corrupt counts can't overflow past the checks.
+        long offsetsPosition = HEADER_SIZE + (long) recordCount * RECORD_SIZE;
+        long dataPosition = offsetsPosition + ((long) stringCount + 1) * Integer.BYTES;
+        if (recordCount < 0 || stringCount < 0 || dataPosition > buffer.capacity()) {
+            throw new IOException("Truncated stream catalog snapshot");
+        }
+        stringOffsetsPosition = (int) offsetsPosition;
+        stringDataPosition = (int) dataPosition;
+        validate(stringCount);
+        strings = new String[stringCount];
+    }
+
+    /**
+     * Checks every field and string offset up front, which is cheap compared to decoding the strings,
+     * so that a corrupt snapshot fails to read rather than failing later, when an entry is accessed.
+     */
+    private void validate(int stringCount) throws IOException {
+        for (int i = 0; i < recordCount; i++) {
+            int recordPosition = HEADER_SIZE + i * RECORD_SIZE;
+            for (int j = 0; j < STRING_FIELD_COUNT; j++) {
+                int index = buffer.getInt(recordPosition + j * Integer.BYTES);
+                if (index < -1 || index >= stringCount) {
+                    throw new IOException("Invalid string index in stream catalog snapshot");
+                }
+            }
+            int position = recordPosition + STRING_FIELD_COUNT * Integer.BYTES;
+            if (!isIndex(buffer.getInt(position), STREAM_TYPES.length)
+                    || !isIndex(buffer.getInt(position + Integer.BYTES), FORMATS.length)
+                    || !isIndex(buffer.getInt(position + 2 * Integer.BYTES), FORMATS.length)
+                    || !isIndex(buffer.getInt(position + 3 * Integer.BYTES), AD_POLICIES.length)
+                    || buffer.getInt(position + 4 * Integer.BYTES) < 0
+                    || buffer.getLong(position + INT_FIELD_COUNT * Integer.BYTES) < 0) {
+                throw new IOException("Invalid field in stream catalog snapshot");
+            }
+        }
+        int dataSize = buffer.capacity() - stringDataPosition;
+        int previousOffset = 0;
+        for (int i = 0; i <= stringCount; i++) {
+            int offset = buffer.getInt(stringOffsetsPosition + i * Integer.BYTES);
+            if (offset < previousOffset || offset > dataSize) {
+                throw new IOException("Invalid string offset in stream catalog snapshot");
+            }
+            previousOffset = offset;
+        }
+    }
+
+    private static boolean isIndex(int value, int length) {
+        return value >= 0 && value < length;
+    }
+
+    /**
+     * Maps the snapshot file into memory.
+     * @return the snapshot, or null if there is none.
+     * @throws IOException if the snapshot can't be read or is invalid
+     */
+    static StreamCatalogSnapshot read(File file) throws IOException {
+        if (!file.exists()) return null;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StreamCatalogSnapshot(mapped);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first, and then replaces the file, so that readers
+     * never see a partially written snapshot.
+     */
+    static void write(File file, List<StreamConfiguration> streamConfigurations) throws IOException {
+        Map<String, Integer> stringIndices = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] records = new int[streamConfigurations.size() * STRING_FIELD_COUNT];
+        int stringBytes = 0;
+        for (int i = 0; i < streamConfigurations.size(); i++) {
+            String[] fields = streamConfigurations.get(i).toStringFields();
+            for (int j = 0; j < STRING_FIELD_COUNT; j++) {
+                String field = fields[j];
+                int index = -1;
+                if (field != null) {
+                    Integer existing = stringIndices.get(field);
+                    if (existing == null) {
+                        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                        existing = strings.size();
+                        stringIndices.put(field, existing);
+                        strings.add(bytes);
+                        stringBytes += bytes.length;
+                    }
+                    index = existing;
+                }
+                records[i * STRING_FIELD_COUNT + j] = index;
+            }
+        }
+
+        int size = HEADER_SIZE + streamConfigurations.size() * RECORD_SIZE + (strings.size() + 1) * Integer.BYTES + stringBytes;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(streamConfigurations.size());
+        buffer.putInt(STRING_FIELD_COUNT);
+        buffer.putInt(strings.size());
+        for (int i = 0; i < streamConfigurations.size(); i++) {
+            StreamConfiguration streamConfiguration = streamConfigurations.get(i);
+            for (int j = 0; j < STRING_FIELD_COUNT; j++) {
+                buffer.putInt(records[i * STRING_FIELD_COUNT + j]);
+            }
+            buffer.putInt(streamConfiguration.getStreamType().ordinal());
+            buffer.putInt(streamConfiguration.getFormat().ordinal());
+            buffer.putInt(streamConfiguration.getPreviewFormat().ordinal());
+            buffer.putInt(streamConfiguration.getAdPolicy().ordinal());
+            buffer.putInt(streamConfiguration.getMaxBitrate());
+            buffer.putLong(streamConfiguration.getAdBudgetMs());
+        }
+        int offset = 0;
+        for (byte[] string : strings) {
+            buffer.putInt(offset);
+            offset += string.length;
+        }
+        buffer.putInt(offset);
+        for (byte[] string : strings) {
+            buffer.put(string);
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile)) {
+            output.write(buffer.array());
+            output.getFD().sync();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to replace stream catalog snapshot");
+        }
+    }
+
+    int size() {
+        return recordCount;
+    }
+
+    /**
+     * Decodes the stream configuration at the index.
+     */
+    StreamConfiguration get(int index) {
+        String[] strings = new String[STRING_FIELD_COUNT];
+        int recordPosition = HEADER_SIZE + index * RECORD_SIZE;
+        for (int j = 0; j < STRING_FIELD_COUNT; j++) {
+            strings[j] = getString(buffer.getInt(recordPosition + j * Integer.BYTES));
+        }
+        int position = recordPosition + STRING_FIELD_COUNT * Integer.BYTES;
+        return StreamConfiguration.fromFields(strings,
+                STREAM_TYPES[buffer.getInt(position)],
+                FORMATS[buffer.getInt(position + Integer.BYTES)],
+                FORMATS[buffer.getInt(position + 2 * Integer.BYTES)],
+                AD_POLICIES[buffer.getInt(position + 3 * Integer.BYTES)],
+                buffer.getLong(position + INT_FIELD_COUNT * Integer.BYTES),
+                buffer.getInt(position + 4 * Integer.BYTES));
+    }
+
+    /**
+     * @return the snapshot as a list that decodes each stream configuration on its first access.
+     */
+    List<StreamConfiguration> asList() {
+        StreamConfiguration[] decoded = new StreamConfiguration[recordCount];
+        return new AbstractList<StreamConfiguration>() {
+            @Override
+            public StreamConfiguration get(int index) {
+                StreamConfiguration result = decoded[index];
+                if (result == null) {
+                    result = StreamCatalogSnapshot.this.get(index);
+                    decoded[index] = result;
+                }
+                return result;
+            }
+
+            @Override
+            public int size() {
+                return recordCount;
+            }
+        };
+    }
+
+    private String getString(int index) {
+        if (index < 0) return null;
+        String string = strings[index];
+        if (string != null) return string;
+        int start = buffer.getInt(stringOffsetsPosition + index * Integer.BYTES);
+        int end = buffer.getInt(stringOffsetsPosition + (index + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        // Read through a duplicate, so that concurrent reads don't share a buffer position.
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringDataPosition + start);
+        view.get(bytes);
+        string = new String(bytes, StandardCharsets.UTF_8);
+        strings[index] = string;
+        return string;
+    }
+}
@@ -1,95 +1,122 @@
 package com.truex.googlereferenceapp.home;
 
+import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
-import androidx.annotation.NonNull;
 import android.util.Log;
 
+import androidx.annotation.OptIn;
+import androidx.media3.common.C;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.Util;
+
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A stream of the catalog: how it is presented, how it is requested from IMA, and how it is played.
+ *
+ * Parsing is tolerant: missing or invalid optional values fall back to their defaults, and an entry
+ * is only dropped if its stream can't be requested at all. Strings shared between the entries of a
+ * catalog, e.g. network codes or placeholder covers, are only kept once.
+ */
 public class StreamConfiguration implements Parcelable {
     private static String CLASSTAG = StreamConfiguration.class.getSimpleName();
 
+    // The number of string fields, in the order used by toStringFields() and fromFields().
+    static final int STRING_FIELD_COUNT = 9;
+
+    public enum StreamType {
+        VOD,
+        LIVE
+    }
+
+    /**
+     * The format of a stream, which selects the player's media source without sniffing the url.
+     */
+    public enum Format {
+        HLS(C.CONTENT_TYPE_HLS, MimeTypes.APPLICATION_M3U8),
+        DASH(C.CONTENT_TYPE_DASH, MimeTypes.APPLICATION_MPD),
+        PROGRESSIVE(C.CONTENT_TYPE_OTHER, null);
+
+        private final int contentType;
+        private final String mimeType;
+
+        Format(int contentType, String mimeType) {
+            this.contentType = contentType;
+            this.mimeType = mimeType;
+        }
+
+        /**
+         * @return the media3 content type, i.e. one of the C.CONTENT_TYPE_* constants.
+         */
+        public int getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the manifest mime type, or null for progressive media.
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        @OptIn(markerClass = UnstableApi.class)
+        static Format infer(String url) {
+            if (url == null) return PROGRESSIVE;
+            switch (Util.inferContentType(Uri.parse(url))) {
+                case C.CONTENT_TYPE_HLS:
+                    return HLS;
+                case C.CONTENT_TYPE_DASH:
+                    return DASH;
+                default:
+                    return PROGRESSIVE;
+            }
+        }
+    }
+
+    /**
+     * Which unplayed ad breaks a seek has to play first, see the player's SnapbackPolicy.
+     */
+    public enum AdPolicy {
+        LATEST_BREAK_ONLY,
+        ALL_UNPLAYED_BREAKS,
+        NONE,
+        PLAYED_BUDGET
+    }
+
     private String title;
     private String description;
     private String coverURL;
     private String previewURL;
     private String contentID;
     private String videoID;
-
-    static void requestStreamConfigurations(OkHttpClient httpClient, String url,
-                                                   RequestSuccessListener successListener,
-                                                   RequestErrorListener errorListener) {
-        Request req = new Request.Builder()
-                .url(url)
-                .build();
-
-        httpClient.newCall(req).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                errorListener.onError(e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) {
-                if (!response.isSuccessful()) {
-                    Exception e = new Exception("Request Error Response: " + response.code());
-                    errorListener.onError(e);
-                    return;
-                }
-
-                try {
-                    // Retrieve the request body
-                    String responseBody = response.body().string();
-                    JSONArray jsonArray = new JSONArray(responseBody);
-
-                    // Parse the stream configurations array
-                    List<StreamConfiguration> streamConfigurations = getStreamConfigurations(jsonArray);
-
-                    // If the stream configurations array is empty, throw an error
-                    if (streamConfigurations.isEmpty()) {
-                        Exception e = new Exception("Missing or invalid stream configuration");
-                        errorListener.onError(e);
-                        return;
-                    }
-
-                    // Share the stream configurations with the success listener
-                    successListener.onSuccess(streamConfigurations);
-                } catch (JSONException e) {
-                    Log.e(CLASSTAG, "Error parsing response as JSON");
-                    errorListener.onError(e);
-                } catch (Exception e) {
-                    Log.e(CLASSTAG, "Error retrieving stream configurations from response");
-                    errorListener.onError(e);
-                } finally {
-                    if (response.body() != null) {
-                        response.body().close();
-                    }
-                }
-            }
-        });
-    }
-
-    private static List<StreamConfiguration> getStreamConfigurations(JSONArray jsonArray) {
+    private String assetKey;
+    private String networkCode;
+    private String podManifestURL;
+    private StreamType streamType;
+    private Format format;
+    private Format previewFormat;
+    private AdPolicy adPolicy;
+    private long adBudgetMs;
+    private int maxBitrate;
+
+    static List<StreamConfiguration> getStreamConfigurations(JSONArray jsonArray) {
         List<StreamConfiguration> streamConfigurations = new ArrayList<>();
+        Map<String, String> strings = new HashMap<>();
         for (int i = 0; i < jsonArray.length(); i++) {
             JSONObject jsonObject = jsonArray.optJSONObject(i);
             if (jsonObject == null) {
                 continue;
             }
-            StreamConfiguration streamConfiguration = getStreamConfiguration(jsonObject);
+            StreamConfiguration streamConfiguration = getStreamConfiguration(jsonObject, strings);
             if (streamConfiguration == null) {
                 continue;
             }
@@ -99,35 +126,119 @@ public class StreamConfiguration implements Parcelable {
     }
 
     public static StreamConfiguration getStreamConfiguration(JSONObject jsonObject) {
+        return getStreamConfiguration(jsonObject, new HashMap<>());
+    }
+
+    /**
+     * @param strings - the strings parsed so far, to share equal strings between entries
+     * @return the stream configuration, or null if its stream can't be requested.
+     */
+    private static StreamConfiguration getStreamConfiguration(JSONObject jsonObject, Map<String, String> strings) {
+        StreamConfiguration streamConfiguration = new StreamConfiguration();
+        streamConfiguration.title = optString(jsonObject, "title", strings, "");
+        streamConfiguration.description = optString(jsonObject, "description", strings, "");
+        streamConfiguration.coverURL = optString(jsonObject, "cover", strings, null);
+        streamConfiguration.previewURL = optString(jsonObject, "preview", strings, null);
+        // Live streams are requested by their asset key, VOD streams by their content and video IDs.
+        streamConfiguration.assetKey = optString(jsonObject, "google_asset_key", strings, null);
+        streamConfiguration.contentID = optString(jsonObject, "google_content_id", strings, null);
+        streamConfiguration.videoID = optString(jsonObject, "google_video_id", strings, null);
+        // Pod serving streams are requested by network code, and stitched by the manifest url.
+        streamConfiguration.networkCode = optString(jsonObject, "google_network_code", strings, null);
+        streamConfiguration.podManifestURL = optString(jsonObject, "pod_manifest_url", strings, null);
+
+        streamConfiguration.streamType = parseEnum(StreamType.class, optString(jsonObject, "stream_type", strings, null),
+                streamConfiguration.assetKey != null ? StreamType.LIVE : StreamType.VOD);
+        // IMA serves HLS unless asked otherwise.
+        streamConfiguration.format = parseEnum(Format.class, optString(jsonObject, "format", strings, null), Format.HLS);
+        streamConfiguration.previewFormat = parseEnum(Format.class, optString(jsonObject, "preview_format", strings, null),
+                null);
+        if (streamConfiguration.previewFormat == null) {
+            streamConfiguration.previewFormat = Format.infer(streamConfiguration.previewURL);
+        }
+        streamConfiguration.adPolicy = parseEnum(AdPolicy.class, optString(jsonObject, "ad_policy", strings, null),
+                AdPolicy.LATEST_BREAK_ONLY);
+        streamConfiguration.adBudgetMs = Math.max(0, jsonObject.optLong("ad_budget_seconds", 0)) * 1000;
+        streamConfiguration.maxBitrate = Math.max(0, jsonObject.optInt("max_bitrate", 0));
+
+        if (!streamConfiguration.isRequestable()) {
+            Log.d(CLASSTAG, "Skipping stream configuration without stream ids: " + streamConfiguration.title);
+            return null;
+        }
+        return streamConfiguration;
+    }
+
+    /**
+     * @return the string value, shared with equal strings parsed before, or the fallback if it is
+     * missing, null or empty.
+     */
+    private static String optString(JSONObject jsonObject, String name, Map<String, String> strings, String fallback) {
+        Object value = jsonObject.opt(name);
+        if (!(value instanceof String) || ((String) value).isEmpty()) {
+            return fallback;
+        }
+        String string = (String) value;
+        String shared = strings.get(string);
+        if (shared == null) {
+            strings.put(string, string);
+            shared = string;
+        }
+        return shared;
+    }
+
+    /**
+     * @return the enum constant named by the value, case insensitive, or the fallback.
+     */
+    private static <T extends Enum<T>> T parseEnum(Class<T> type, String value, T fallback) {
+        if (value == null) return fallback;
         try {
-            StreamConfiguration streamConfiguration = new StreamConfiguration();
-            streamConfiguration.title = jsonObject.getString("title");
-            streamConfiguration.description = jsonObject.getString("description");
-            streamConfiguration.coverURL = jsonObject.getString("cover");
-            streamConfiguration.previewURL = jsonObject.getString("preview");
-            streamConfiguration.contentID = jsonObject.getString("google_content_id");
-            streamConfiguration.videoID = jsonObject.getString("google_video_id");
-            return streamConfiguration;
-        } catch (Exception e) {
-            Log.d(CLASSTAG, "Unable to parse stream configuration JSON");
+            return Enum.valueOf(type, value.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            Log.d(CLASSTAG, "Unknown " + type.getSimpleName() + ": " + value);
+            return fallback;
         }
-        return null;
     }
 
     private StreamConfiguration() {
     }
 
     private StreamConfiguration(Parcel in) {
-        String[] data = new String[6];
-
-        in.readStringArray(data);
+        title = in.readString();
+        description = in.readString();
+        coverURL = in.readString();
+        previewURL = in.readString();
+        contentID = in.readString();
+        videoID = in.readString();
+        assetKey = in.readString();
+        networkCode = in.readString();
+        podManifestURL = in.readString();
+        streamType = StreamType.values()[in.readInt()];
+        format = Format.values()[in.readInt()];
+        previewFormat = Format.values()[in.readInt()];
+        adPolicy = AdPolicy.values()[in.readInt()];
+        adBudgetMs = in.readLong();
+        maxBitrate = in.readInt();
+    }
 
-        title = data[0];
-        description = data[1];
-        coverURL = data[2];
-        previewURL = data[3];
-        contentID = data[4];
-        videoID = data[5];
+    static StreamConfiguration fromFields(String[] strings, StreamType streamType, Format format,
+                                          Format previewFormat, AdPolicy adPolicy, long adBudgetMs, int maxBitrate) {
+        StreamConfiguration streamConfiguration = new StreamConfiguration();
+        streamConfiguration.title = strings[0];
+        streamConfiguration.description = strings[1];
+        streamConfiguration.coverURL = strings[2];
+        streamConfiguration.previewURL = strings[3];
+        streamConfiguration.contentID = strings[4];
+        streamConfiguration.videoID = strings[5];
+        streamConfiguration.assetKey = strings[6];
+        streamConfiguration.networkCode = strings[7];
+        streamConfiguration.podManifestURL = strings[8];
+        streamConfiguration.streamType = streamType;
+        streamConfiguration.format = format;
+        streamConfiguration.previewFormat = previewFormat;
+        streamConfiguration.adPolicy = adPolicy;
+        streamConfiguration.adBudgetMs = adBudgetMs;
+        streamConfiguration.maxBitrate = maxBitrate;
+        return streamConfiguration;
     }
 
     public String getTitle() {
@@ -138,14 +249,24 @@ public class StreamConfiguration implements Parcelable {
         return description;
     }
 
+    /**
+     * @return the cover image url, or null.
+     */
     public String getCoverURL() {
         return coverURL;
     }
 
+    /**
+     * @return the preview video url, or null.
+     */
     public String getPreviewURL() {
         return previewURL;
     }
 
+    public Format getPreviewFormat() {
+        return previewFormat;
+    }
+
     public String getContentID() {
         return contentID;
     }
@@ -154,6 +275,61 @@ public class StreamConfiguration implements Parcelable {
         return videoID;
     }
 
+    public String getAssetKey() {
+        return assetKey;
+    }
+
+    public StreamType getStreamType() {
+        return streamType;
+    }
+
+    public boolean isLive() {
+        return streamType == StreamType.LIVE;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public AdPolicy getAdPolicy() {
+        return adPolicy;
+    }
+
+    /**
+     * @return the ad time to play before seeking over ad breaks is allowed, for the PLAYED_BUDGET policy.
+     */
+    public long getAdBudgetMs() {
+        return adBudgetMs;
+    }
+
+    /**
+     * @return the preferred maximum video bitrate in bits per second, or 0 for no limit.
+     */
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    public String getNetworkCode() {
+        return networkCode;
+    }
+
+    /**
+     * @return the url of the stitched pod serving manifest, with a "[[STREAMID]]" placeholder for the
+     * IMA stream ID.
+     */
+    public String getPodManifestURL() {
+        return podManifestURL;
+    }
+
+    public boolean isPodServing() {
+        return networkCode != null && podManifestURL != null;
+    }
+
+    private boolean isRequestable() {
+        if (isLive()) return assetKey != null;
+        return isPodServing() || (contentID != null && videoID != null);
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -161,14 +337,35 @@ public class StreamConfiguration implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeStringArray(new String[] {
+        dest.writeString(title);
+        dest.writeString(description);
+        dest.writeString(coverURL);
+        dest.writeString(previewURL);
+        dest.writeString(contentID);
+        dest.writeString(videoID);
+        dest.writeString(assetKey);
+        dest.writeString(networkCode);
+        dest.writeString(podManifestURL);
+        dest.writeInt(streamType.ordinal());
+        dest.writeInt(format.ordinal());
+        dest.writeInt(previewFormat.ordinal());
+        dest.writeInt(adPolicy.ordinal());
+        dest.writeLong(adBudgetMs);
+        dest.writeInt(maxBitrate);
+    }
+
+    String[] toStringFields() {
+        return new String[] {
                 title,
                 description,
                 coverURL,
                 previewURL,
                 contentID,
-                videoID
-        });
+                videoID,
+                assetKey,
+                networkCode,
+                podManifestURL
+        };
     }
 
     @Override
@@ -176,7 +373,7 @@ public class StreamConfiguration implements Parcelable {
         return title;
     }
 
-    public static final Parcelable.Creator CREATOR = new Parcelable.Creator() {
+    public static final Parcelable.Creator<StreamConfiguration> CREATOR = new Parcelable.Creator<StreamConfiguration>() {
         public StreamConfiguration createFromParcel(Parcel in) {
             return new StreamConfiguration(in);
         }
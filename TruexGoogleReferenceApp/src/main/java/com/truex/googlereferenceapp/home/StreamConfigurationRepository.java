@@ -0,0 +1,220 @@
+package com.truex.googlereferenceapp.home;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.truex.googlereferenceapp.R;
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+import com.truex.googlereferenceapp.util.FileUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Provider;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Loads the stream configurations, either from the network or from the bundled fallback configuration.
+ *
+ * Reading and parsing happen on a dedicated I/O thread, so that neither the main thread nor
+ * OkHttp's dispatcher are blocked by them. Results are delivered on the main thread, once the
+ * requesting lifecycle is started, and dropped if it is destroyed first.
+ */
+public class StreamConfigurationRepository {
+    private static final String CLASSTAG = StreamConfigurationRepository.class.getSimpleName();
+
+    private static final String SNAPSHOT_FILE_NAME = "stream_catalog.bin";
+
+    private final Context context;
+    private final File snapshotFile;
+    private final Provider<OkHttpClient> httpClient;
+    private final ExecutorService ioExecutor;
+    private final Handler mainHandler;
+
+    /**
+     * @param httpClient - provides the shared http client, which is only requested on the I/O thread
+     */
+    public StreamConfigurationRepository(Context context, Provider<OkHttpClient> httpClient) {
+        this.context = context.getApplicationContext();
+        this.snapshotFile = new File(this.context.getFilesDir(), SNAPSHOT_FILE_NAME);
+        this.httpClient = httpClient;
+        this.ioExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "stream-config-io"));
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Loads the stream configurations from the snapshot of the last successful fetch if available,
+     * and requests them from the url, falling back to the bundled configuration on errors.
+     * When a snapshot is available, the fetched configurations only refresh the snapshot for the next start.
+     * @param lifecycleOwner - the results are delivered once this owner is started
+     */
+    public void loadStreamConfigurations(String url, LifecycleOwner lifecycleOwner,
+                                         StreamConfiguration.RequestSuccessListener successListener,
+                                         StreamConfiguration.RequestErrorListener errorListener) {
+        ioExecutor.execute(() -> {
+            List<StreamConfiguration> snapshot = readSnapshot();
+            if (snapshot != null) {
+                deliver(lifecycleOwner, () -> successListener.onSuccess(snapshot));
+                requestStreamConfigurations(url, lifecycleOwner, null, null);
+            } else {
+                requestStreamConfigurations(url, lifecycleOwner, successListener, errorListener);
+            }
+        });
+    }
+
+    private List<StreamConfiguration> readSnapshot() {
+        try {
+            StreamCatalogSnapshot snapshot = StreamCatalogSnapshot.read(snapshotFile);
+            if (snapshot != null && snapshot.size() > 0) {
+                return snapshot.asList();
+            }
+        } catch (IOException | RuntimeException e) {
+            // A corrupt snapshot is replaced by the next fetch.
+            Log.w(CLASSTAG, "Unable to read stream catalog snapshot: " + e);
+            snapshotFile.delete();
+        }
+        return null;
+    }
+
+    private void writeSnapshot(List<StreamConfiguration> streamConfigurations) {
+        try {
+            StreamCatalogSnapshot.write(snapshotFile, streamConfigurations);
+        } catch (IOException e) {
+            Log.w(CLASSTAG, "Unable to write stream catalog snapshot: " + e);
+        }
+    }
+
+    /**
+     * @param successListener - the listener for the results, or null to only refresh the snapshot
+     */
+    private void requestStreamConfigurations(String url, LifecycleOwner lifecycleOwner,
+                                             StreamConfiguration.RequestSuccessListener successListener,
+                                             StreamConfiguration.RequestErrorListener errorListener) {
+        // The catalog is what the user is waiting for, unless it only refreshes the snapshot.
+        BandwidthArbiter.Priority priority = successListener != null
+                ? BandwidthArbiter.Priority.UI : BandwidthArbiter.Priority.BACKGROUND;
+        Request req = new Request.Builder()
+                .url(url)
+                .tag(BandwidthArbiter.Priority.class, priority)
+                .build();
+
+        httpClient.get().newCall(req).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                ioExecutor.execute(() -> loadFallback(e, lifecycleOwner, successListener, errorListener));
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                // Hand off reading the body to the I/O thread, to free up the dispatcher.
+                ioExecutor.execute(() -> parseResponse(response, lifecycleOwner, successListener, errorListener));
+            }
+        });
+    }
+
+    private void parseResponse(Response response, LifecycleOwner lifecycleOwner,
+                               StreamConfiguration.RequestSuccessListener successListener,
+                               StreamConfiguration.RequestErrorListener errorListener) {
+        try (Response ignored = response) {
+            if (!response.isSuccessful()) {
+                throw new Exception("Request Error Response: " + response.code());
+            }
+
+            // Retrieve the request body
+            String responseBody = response.body().string();
+            JSONArray jsonArray = new JSONArray(responseBody);
+
+            // Parse the stream configurations array
+            List<StreamConfiguration> streamConfigurations = StreamConfiguration.getStreamConfigurations(jsonArray);
+
+            // If the stream configurations array is empty, throw an error
+            if (streamConfigurations.isEmpty()) {
+                throw new Exception("Missing or invalid stream configuration");
+            }
+
+            // Keep a snapshot for a fast next start
+            writeSnapshot(streamConfigurations);
+
+            // Share the stream configurations with the success listener
+            if (successListener != null) {
+                deliver(lifecycleOwner, () -> successListener.onSuccess(streamConfigurations));
+            }
+        } catch (JSONException e) {
+            Log.e(CLASSTAG, "Error parsing response as JSON");
+            loadFallback(e, lifecycleOwner, successListener, errorListener);
+        } catch (Exception e) {
+            Log.e(CLASSTAG, "Error retrieving stream configurations from response");
+            loadFallback(e, lifecycleOwner, successListener, errorListener);
+        }
+    }
+
+    private void loadFallback(Exception error, LifecycleOwner lifecycleOwner,
+                              StreamConfiguration.RequestSuccessListener successListener,
+                              StreamConfiguration.RequestErrorListener errorListener) {
+        // The snapshot was already delivered.
+        if (successListener == null) return;
+
+        StreamConfiguration fallbackStreamConfiguration = getFallbackStreamConfiguration();
+        if (fallbackStreamConfiguration != null) {
+            List<StreamConfiguration> streamConfigurations = Collections.singletonList(fallbackStreamConfiguration);
+            deliver(lifecycleOwner, () -> successListener.onSuccess(streamConfigurations));
+        } else {
+            deliver(lifecycleOwner, () -> errorListener.onError(error));
+        }
+    }
+
+    private StreamConfiguration getFallbackStreamConfiguration() {
+        try {
+            String rawStreamConfiguration = FileUtils.getRawFileContents(context, R.raw.stream_config_fallback);
+            if (rawStreamConfiguration == null) return null;
+            JSONObject streamConfigurationJSON = new JSONObject(rawStreamConfiguration);
+            return StreamConfiguration.getStreamConfiguration(streamConfigurationJSON);
+        } catch (JSONException e) {
+            Log.d(CLASSTAG, "Failed to parse fallback stream configuration");
+        }
+        return null;
+    }
+
+    private void deliver(LifecycleOwner lifecycleOwner, Runnable result) {
+        mainHandler.post(() -> {
+            Lifecycle lifecycle = lifecycleOwner.getLifecycle();
+            if (lifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+                result.run();
+            } else if (lifecycle.getCurrentState() != Lifecycle.State.DESTROYED) {
+                // Hold the result until the screen is started again, or drop it if it is destroyed.
+                lifecycle.addObserver(new DefaultLifecycleObserver() {
+                    @Override
+                    public void onStart(@NonNull LifecycleOwner owner) {
+                        lifecycle.removeObserver(this);
+                        result.run();
+                    }
+
+                    @Override
+                    public void onDestroy(@NonNull LifecycleOwner owner) {
+                        lifecycle.removeObserver(this);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,121 @@
+package com.truex.googlereferenceapp.memory;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sheds memory held by the app's subsystems, such as the preview player, the image cache and the
+ * player's media buffers, when the system reports memory pressure.
+ *
+ * Each subsystem registers the trim level at which it is shed, so that the least important ones go
+ * first: e.g. the preview player is released well before the main player's buffers are reduced.
+ * Once the app is in the background, everything that is registered is shed.
+ *
+ * Only to be used from the main thread, which is where the system delivers the trim callbacks.
+ */
+public class MemoryPressureManager implements ComponentCallbacks2 {
+    private static final String CLASSTAG = MemoryPressureManager.class.getSimpleName();
+
+    // The trim levels at which the app's subsystems are shed, in the order they are shed.
+    // NOTE: the running levels are no longer delivered from Android 14, but they are on the
+    // low RAM TV devices that need them most.
+    public static final int SHED_PREVIEW_PLAYER = TRIM_MEMORY_RUNNING_MODERATE;
+    public static final int SHED_IMAGE_CACHE = TRIM_MEMORY_RUNNING_LOW;
+    public static final int SHED_PLAYER_BUFFERS = TRIM_MEMORY_RUNNING_CRITICAL;
+
+    /**
+     * A subsystem holding memory that can be released under pressure.
+     */
+    public interface Resource {
+        /**
+         * @return the estimated memory held by the resource, in bytes.
+         */
+        long getEstimatedBytes();
+
+        /**
+         * Releases the memory the resource can spare.
+         * @param level - the trim level, see ComponentCallbacks2
+         */
+        void shed(int level);
+    }
+
+    private static class Registration {
+        final String name;
+        final int shedLevel;
+        final Resource resource;
+
+        Registration(String name, int shedLevel, Resource resource) {
+            this.name = name;
+            this.shedLevel = shedLevel;
+            this.resource = resource;
+        }
+    }
+
+    // Sorted by shed level, so that resources are shed in priority order.
+    private final List<Registration> registrations = new ArrayList<>();
+
+    /**
+     * @param name - the resource's name, for logging
+     * @param shedLevel - the lowest trim level at which the resource is shed, e.g. SHED_PREVIEW_PLAYER
+     */
+    public void register(String name, int shedLevel, Resource resource) {
+        unregister(resource);
+        int index = 0;
+        while (index < registrations.size() && registrations.get(index).shedLevel <= shedLevel) {
+            index++;
+        }
+        registrations.add(index, new Registration(name, shedLevel, resource));
+    }
+
+    public void unregister(Resource resource) {
+        for (int i = 0; i < registrations.size(); i++) {
+            if (registrations.get(i).resource == resource) {
+                registrations.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the estimated memory held by all the registered resources, in bytes.
+     */
+    public long getEstimatedBytes() {
+        long total = 0;
+        for (Registration registration : registrations) {
+            total += registration.resource.getEstimatedBytes();
+        }
+        return total;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // From TRIM_MEMORY_UI_HIDDEN on, the app is no longer visible, so nothing needs to stay resident.
+        boolean background = level >= TRIM_MEMORY_UI_HIDDEN;
+
+        // Resources may unregister themselves while being shed.
+        List<Registration> candidates = new ArrayList<>(registrations);
+        for (Registration registration : candidates) {
+            if (!background && level < registration.shedLevel) break;
+
+            long bytes = registration.resource.getEstimatedBytes();
+            Log.i(CLASSTAG, "Shedding " + registration.name + " (~" + bytes / 1024 + " KB) at trim level " + level);
+            registration.resource.shed(level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+
+    }
+}
@@ -0,0 +1,285 @@
+package com.truex.googlereferenceapp.metrics;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.OptIn;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.common.Player;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.DecoderReuseEvaluation;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects quality of experience metrics for a single playback session: rebuffering, dropped
+ * frames, bitrate switches, seek latency and the playback gaps around ad breaks and Infillion
+ * engagements.
+ *
+ * Player events are received as an ExoPlayer AnalyticsListener, ad lifecycle events are reported
+ * explicitly by the ad integration. Everything is aggregated into atomic counters and latency
+ * histograms, so that a snapshot can be taken from any thread without locking.
+ */
+@OptIn(markerClass = UnstableApi.class)
+public class PlaybackMetrics implements AnalyticsListener {
+    private static final long NONE = -1;
+
+    // The trace section from the play request to the first rendered frame, measured by the macrobenchmarks.
+    public static final String FIRST_FRAME_TRACE_SECTION = "PlaybackFirstFrame";
+
+    private final long sessionStartMs;
+
+    private final AtomicLong rebufferCount = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong videoFormatChanges = new AtomicLong();
+    private final AtomicLong seekCount = new AtomicLong();
+    private final AtomicLong playerErrors = new AtomicLong();
+    private final AtomicLong adBreakCount = new AtomicLong();
+    private final AtomicLong engagementCount = new AtomicLong();
+    private final AtomicLong adCreditCount = new AtomicLong();
+    private final AtomicLong lastVideoBitrate = new AtomicLong(Format.NO_VALUE);
+
+    private final LatencyHistogram timeToFirstFrame = new LatencyHistogram();
+    private final LatencyHistogram rebufferDuration = new LatencyHistogram();
+    private final LatencyHistogram seekLatency = new LatencyHistogram();
+    private final LatencyHistogram timeToEngagement = new LatencyHistogram();
+    private final LatencyHistogram engagementDuration = new LatencyHistogram();
+    private final LatencyHistogram engagementResumeGap = new LatencyHistogram();
+
+    // Start times of the pending measurements, in elapsed realtime, or NONE.
+    private volatile long playRequestedMs = NONE;
+    private volatile long rebufferStartMs = NONE;
+    private volatile long seekStartMs = NONE;
+    private volatile long adBreakStartMs = NONE;
+    private volatile long engagementStartMs = NONE;
+    private volatile long engagementEndMs = NONE;
+    private volatile boolean wasReady;
+
+    public PlaybackMetrics() {
+        sessionStartMs = SystemClock.elapsedRealtime();
+    }
+
+    /** Ad lifecycle **/
+
+    public void onPlayRequested() {
+        if (playRequestedMs == NONE) {
+            playRequestedMs = SystemClock.elapsedRealtime();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(FIRST_FRAME_TRACE_SECTION, System.identityHashCode(this));
+            }
+        }
+    }
+
+    public void onAdBreakStarted() {
+        adBreakCount.incrementAndGet();
+        adBreakStartMs = SystemClock.elapsedRealtime();
+    }
+
+    public void onEngagementStarted() {
+        engagementCount.incrementAndGet();
+        long now = SystemClock.elapsedRealtime();
+        engagementStartMs = now;
+        // Measure how long the viewer waited for the engagement since the ad break started.
+        long breakStartMs = adBreakStartMs;
+        if (breakStartMs != NONE) {
+            timeToEngagement.record(now - breakStartMs);
+            adBreakStartMs = NONE;
+        }
+    }
+
+    public void onAdCreditReceived() {
+        adCreditCount.incrementAndGet();
+    }
+
+    public void onEngagementEnded() {
+        long now = SystemClock.elapsedRealtime();
+        long startMs = engagementStartMs;
+        if (startMs != NONE) {
+            engagementDuration.record(now - startMs);
+            engagementStartMs = NONE;
+        }
+        // Measure the stall until the content is playing again.
+        engagementEndMs = now;
+    }
+
+    /** AnalyticsListener implementation **/
+
+    @Override
+    public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        long now = eventTime.realtimeMs;
+        if (state == Player.STATE_BUFFERING) {
+            // Buffering caused by a seek is measured as seek latency instead.
+            if (wasReady && seekStartMs == NONE && rebufferStartMs == NONE) {
+                rebufferCount.incrementAndGet();
+                rebufferStartMs = now;
+            }
+        } else if (state == Player.STATE_READY) {
+            wasReady = true;
+            long startMs = rebufferStartMs;
+            if (startMs != NONE) {
+                rebufferDuration.record(now - startMs);
+                rebufferStartMs = NONE;
+            }
+            startMs = seekStartMs;
+            if (startMs != NONE) {
+                seekLatency.record(now - startMs);
+                seekStartMs = NONE;
+            }
+        }
+    }
+
+    @Override
+    public void onIsPlayingChanged(@NonNull EventTime eventTime, boolean isPlaying) {
+        long startMs = engagementEndMs;
+        if (isPlaying && startMs != NONE) {
+            engagementResumeGap.record(eventTime.realtimeMs - startMs);
+            engagementEndMs = NONE;
+        }
+    }
+
+    @Override
+    public void onRenderedFirstFrame(@NonNull EventTime eventTime, @NonNull Object output, long renderTimeMs) {
+        long startMs = playRequestedMs;
+        if (startMs != NONE && timeToFirstFrame.getCount() == 0) {
+            timeToFirstFrame.record(eventTime.realtimeMs - startMs);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(FIRST_FRAME_TRACE_SECTION, System.identityHashCode(this));
+            }
+        }
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull EventTime eventTime,
+                                        @NonNull Player.PositionInfo oldPosition,
+                                        @NonNull Player.PositionInfo newPosition,
+                                        int reason) {
+        if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+            seekCount.incrementAndGet();
+            seekStartMs = eventTime.realtimeMs;
+        }
+    }
+
+    @Override
+    public void onDroppedVideoFrames(@NonNull EventTime eventTime, int droppedFrameCount, long elapsedMs) {
+        droppedFrames.addAndGet(droppedFrameCount);
+    }
+
+    @Override
+    public void onVideoInputFormatChanged(@NonNull EventTime eventTime, @NonNull Format format,
+                                          DecoderReuseEvaluation decoderReuseEvaluation) {
+        long previousBitrate = lastVideoBitrate.getAndSet(format.bitrate);
+        if (previousBitrate != Format.NO_VALUE && previousBitrate != format.bitrate) {
+            videoFormatChanges.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onPlayerError(@NonNull EventTime eventTime, @NonNull PlaybackException error) {
+        playerErrors.incrementAndGet();
+    }
+
+    /**
+     * @return the metrics collected so far.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * An immutable copy of the session metrics, e.g. for reporting at the end of the session.
+     */
+    public static class Snapshot {
+        public final long sessionDurationMs;
+        public final long rebufferCount;
+        public final long droppedFrames;
+        public final long bitrateSwitches;
+        public final long seekCount;
+        public final long playerErrors;
+        public final long adBreakCount;
+        public final long engagementCount;
+        public final long adCreditCount;
+        public final long lastVideoBitrate;
+        public final LatencyHistogram.Summary timeToFirstFrame;
+        public final LatencyHistogram.Summary rebufferDuration;
+        public final LatencyHistogram.Summary seekLatency;
+        public final LatencyHistogram.Summary timeToEngagement;
+        public final LatencyHistogram.Summary engagementDuration;
+        public final LatencyHistogram.Summary engagementResumeGap;
+
+        private Snapshot(PlaybackMetrics metrics) {
+            sessionDurationMs = SystemClock.elapsedRealtime() - metrics.sessionStartMs;
+            rebufferCount = metrics.rebufferCount.get();
+            droppedFrames = metrics.droppedFrames.get();
+            bitrateSwitches = metrics.videoFormatChanges.get();
+            seekCount = metrics.seekCount.get();
+            playerErrors = metrics.playerErrors.get();
+            adBreakCount = metrics.adBreakCount.get();
+            engagementCount = metrics.engagementCount.get();
+            adCreditCount = metrics.adCreditCount.get();
+            long bitrate = metrics.lastVideoBitrate.get();
+            lastVideoBitrate = bitrate == Format.NO_VALUE ? C.LENGTH_UNSET : bitrate;
+            timeToFirstFrame = metrics.timeToFirstFrame.summarize();
+            rebufferDuration = metrics.rebufferDuration.summarize();
+            seekLatency = metrics.seekLatency.summarize();
+            timeToEngagement = metrics.timeToEngagement.summarize();
+            engagementDuration = metrics.engagementDuration.summarize();
+            engagementResumeGap = metrics.engagementResumeGap.summarize();
+        }
+
+        /**
+         * @return the snapshot as JSON, e.g. for analytics reporting, or null if it can't be encoded.
+         */
+        public JSONObject toJSON() {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("sessionDurationMs", sessionDurationMs);
+                json.put("rebuffers", rebufferCount);
+                json.put("droppedFrames", droppedFrames);
+                json.put("bitrateSwitches", bitrateSwitches);
+                json.put("seeks", seekCount);
+                json.put("errors", playerErrors);
+                json.put("adBreaks", adBreakCount);
+                json.put("engagements", engagementCount);
+                json.put("adCredits", adCreditCount);
+                json.put("lastVideoBitrate", lastVideoBitrate);
+                json.put("timeToFirstFrameMs", timeToFirstFrame.toJSON());
+                json.put("rebufferMs", rebufferDuration.toJSON());
+                json.put("seekLatencyMs", seekLatency.toJSON());
+                json.put("timeToEngagementMs", timeToEngagement.toJSON());
+                json.put("engagementMs", engagementDuration.toJSON());
+                json.put("engagementResumeGapMs", engagementResumeGap.toJSON());
+                return json;
+            } catch (JSONException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "sessionDurationMs=" + sessionDurationMs
+                    + " rebuffers=" + rebufferCount
+                    + " droppedFrames=" + droppedFrames
+                    + " bitrateSwitches=" + bitrateSwitches
+                    + " seeks=" + seekCount
+                    + " errors=" + playerErrors
+                    + " adBreaks=" + adBreakCount
+                    + " engagements=" + engagementCount
+                    + " adCredits=" + adCreditCount
+                    + " lastVideoBitrate=" + lastVideoBitrate
+                    + " timeToFirstFrameMs=" + timeToFirstFrame
+                    + " rebufferMs=" + rebufferDuration
+                    + " seekLatencyMs=" + seekLatency
+                    + " timeToEngagementMs=" + timeToEngagement
+                    + " engagementMs=" + engagementDuration
+                    + " engagementResumeGapMs=" + engagementResumeGap;
+        }
+    }
+}
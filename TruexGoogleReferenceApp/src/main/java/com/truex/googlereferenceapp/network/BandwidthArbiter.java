@@ -0,0 +1,126 @@
+package com.truex.googlereferenceapp.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Arbitrates the network link between the app's subsystems, so that playback does not stall
+ * because of less important traffic on a congested link.
+ *
+ * Every request is classified with a priority. While the buffer of a playing stream is low,
+ * background requests are held back and UI requests are limited to one at a time. Playback and ad
+ * requests are never held back. Held requests proceed once the buffer recovers, or after a maximum
+ * hold time, so that nothing is starved indefinitely.
+ *
+ * Enforced by the PriorityInterceptor on the shared http client, and by the PrioritizedDataSource
+ * for the players and downloads. May be used from any thread.
+ */
+public class BandwidthArbiter {
+    private static final String CLASSTAG = BandwidthArbiter.class.getSimpleName();
+
+    public enum Priority {
+        // The segments of the stream being watched.
+        PLAYBACK,
+        // The ads and their configurations, which have to load for the ad break to play.
+        AD,
+        // What the user is looking at, e.g. the catalog and its cover images, or previews.
+        UI,
+        // Whatever can wait, e.g. analytics uploads, downloads and preloads.
+        BACKGROUND
+    }
+
+    private static final int MAX_UI_REQUESTS_WHILE_THROTTLED = 1;
+    private static final long MAX_UI_HOLD_MS = 5_000;
+    private static final long MAX_BACKGROUND_HOLD_MS = 30_000;
+
+    private final long maxUiHoldMs;
+    private final long maxBackgroundHoldMs;
+    private final Object lock = new Object();
+
+    // Guarded by the lock.
+    private final Set<Object> lowBufferSources = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final int[] activeRequests = new int[Priority.values().length];
+
+    public BandwidthArbiter() {
+        this(MAX_UI_HOLD_MS, MAX_BACKGROUND_HOLD_MS);
+    }
+
+    /**
+     * @param maxUiHoldMs - the maximum time a UI request is held back
+     * @param maxBackgroundHoldMs - the maximum time a background request is held back
+     */
+    BandwidthArbiter(long maxUiHoldMs, long maxBackgroundHoldMs) {
+        this.maxUiHoldMs = maxUiHoldMs;
+        this.maxBackgroundHoldMs = maxBackgroundHoldMs;
+    }
+
+    /**
+     * Reports whether a playback buffer is low. Background traffic is throttled as long as any
+     * reported buffer is low.
+     * @param source - the reporting buffer, e.g. a player's load control
+     */
+    public void setBufferLow(Object source, boolean low) {
+        synchronized (lock) {
+            boolean changed = low ? lowBufferSources.add(source) : lowBufferSources.remove(source);
+            if (!changed) return;
+            Log.d(CLASSTAG, isThrottling() ? "Throttling background traffic" : "Background traffic resumed");
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isThrottling() {
+        synchronized (lock) {
+            return !lowBufferSources.isEmpty();
+        }
+    }
+
+    /**
+     * Waits until a request of the priority may start. Every call must be paired with a call to
+     * release once the request is done.
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting
+     */
+    public void acquire(Priority priority) throws InterruptedIOException {
+        synchronized (lock) {
+            long maxHoldMs = priority == Priority.BACKGROUND ? maxBackgroundHoldMs : maxUiHoldMs;
+            long deadlineMs = SystemClock.elapsedRealtime() + maxHoldMs;
+            while (mustWait(priority)) {
+                long remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+                if (remainingMs <= 0) {
+                    Log.w(CLASSTAG, "Releasing a " + priority + " request held for " + maxHoldMs + "ms");
+                    break;
+                }
+                try {
+                    lock.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while held back by the bandwidth arbiter");
+                }
+            }
+            activeRequests[priority.ordinal()]++;
+        }
+    }
+
+    public void release(Priority priority) {
+        synchronized (lock) {
+            activeRequests[priority.ordinal()]--;
+            lock.notifyAll();
+        }
+    }
+
+    private boolean mustWait(Priority priority) {
+        if (lowBufferSources.isEmpty()) return false;
+        switch (priority) {
+            case BACKGROUND:
+                return true;
+            case UI:
+                return activeRequests[Priority.UI.ordinal()] >= MAX_UI_REQUESTS_WHILE_THROTTLED;
+            default:
+                return false;
+        }
+    }
+}
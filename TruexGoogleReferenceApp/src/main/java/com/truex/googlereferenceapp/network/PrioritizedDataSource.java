@@ -0,0 +1,93 @@
+package com.truex.googlereferenceapp.network;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.OptIn;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.TransferListener;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A data source that holds back its loads according to the bandwidth arbiter, so that ExoPlayer's
+ * loads, e.g. of the main stream, previews and downloads, are classified like any other request.
+ */
+@OptIn(markerClass = UnstableApi.class)
+public class PrioritizedDataSource implements DataSource {
+
+    public static class Factory implements DataSource.Factory {
+        private final DataSource.Factory upstreamFactory;
+        private final BandwidthArbiter bandwidthArbiter;
+        private final BandwidthArbiter.Priority priority;
+
+        public Factory(DataSource.Factory upstreamFactory, BandwidthArbiter bandwidthArbiter,
+                       BandwidthArbiter.Priority priority) {
+            this.upstreamFactory = upstreamFactory;
+            this.bandwidthArbiter = bandwidthArbiter;
+            this.priority = priority;
+        }
+
+        @NonNull
+        @Override
+        public DataSource createDataSource() {
+            return new PrioritizedDataSource(upstreamFactory.createDataSource(), bandwidthArbiter, priority);
+        }
+    }
+
+    private final DataSource upstream;
+    private final BandwidthArbiter bandwidthArbiter;
+    private final BandwidthArbiter.Priority priority;
+    private boolean acquired;
+
+    public PrioritizedDataSource(DataSource upstream, BandwidthArbiter bandwidthArbiter,
+                                 BandwidthArbiter.Priority priority) {
+        this.upstream = upstream;
+        this.bandwidthArbiter = bandwidthArbiter;
+        this.priority = priority;
+    }
+
+    @Override
+    public void addTransferListener(@NonNull TransferListener transferListener) {
+        upstream.addTransferListener(transferListener);
+    }
+
+    @Override
+    public long open(@NonNull DataSpec dataSpec) throws IOException {
+        bandwidthArbiter.acquire(priority);
+        acquired = true;
+        return upstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        return upstream.read(buffer, offset, length);
+    }
+
+    @Override
+    public Uri getUri() {
+        return upstream.getUri();
+    }
+
+    @NonNull
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return upstream.getResponseHeaders();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            upstream.close();
+        } finally {
+            if (acquired) {
+                acquired = false;
+                bandwidthArbiter.release(priority);
+            }
+        }
+    }
+}
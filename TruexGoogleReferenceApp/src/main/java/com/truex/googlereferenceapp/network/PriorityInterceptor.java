@@ -0,0 +1,108 @@
+package com.truex.googlereferenceapp.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Holds back the shared http client's requests according to the bandwidth arbiter.
+ *
+ * Requests are classified by their BandwidthArbiter.Priority tag, e.g.
+ * {@code new Request.Builder().tag(BandwidthArbiter.Priority.class, BandwidthArbiter.Priority.BACKGROUND)},
+ * and untagged requests are treated as UI requests. A request counts as active until its response
+ * body is closed, since most of its transfer happens after the headers have arrived.
+ */
+public class PriorityInterceptor implements Interceptor {
+    private final BandwidthArbiter bandwidthArbiter;
+
+    public PriorityInterceptor(BandwidthArbiter bandwidthArbiter) {
+        this.bandwidthArbiter = bandwidthArbiter;
+    }
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Request request = chain.request();
+        BandwidthArbiter.Priority priority = request.tag(BandwidthArbiter.Priority.class);
+        if (priority == null) {
+            priority = BandwidthArbiter.Priority.UI;
+        }
+
+        bandwidthArbiter.acquire(priority);
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException e) {
+            bandwidthArbiter.release(priority);
+            throw e;
+        }
+
+        ResponseBody body = response.body();
+        if (body == null) {
+            bandwidthArbiter.release(priority);
+            return response;
+        }
+        return response.newBuilder()
+                .body(new ReleasingResponseBody(body, bandwidthArbiter, priority))
+                .build();
+    }
+
+    /**
+     * Releases the request's priority once the body is closed, either directly or with its response.
+     */
+    private static class ReleasingResponseBody extends ResponseBody {
+        private final ResponseBody body;
+        private final BandwidthArbiter bandwidthArbiter;
+        private final BandwidthArbiter.Priority priority;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private BufferedSource source;
+
+        ReleasingResponseBody(ResponseBody body, BandwidthArbiter bandwidthArbiter, BandwidthArbiter.Priority priority) {
+            this.body = body;
+            this.bandwidthArbiter = bandwidthArbiter;
+            this.priority = priority;
+        }
+
+        @Nullable
+        @Override
+        public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return body.contentLength();
+        }
+
+        @NonNull
+        @Override
+        public synchronized BufferedSource source() {
+            if (source == null) {
+                source = Okio.buffer(new ForwardingSource(body.source()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            if (released.compareAndSet(false, true)) {
+                                bandwidthArbiter.release(priority);
+                            }
+                        }
+                    }
+                });
+            }
+            return source;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.truex.googlereferenceapp.player;
+
+import java.util.Arrays;
+
+/**
+ * A local copy of the stream's ad breaks (cue points), sorted by their stream start time.
+ *
+ * Allows stream and content positions to be converted in O(log n) without calling into the IMA
+ * SDK, where the content time is the stream time minus the duration of the preceding ad breaks.
+ *
+ * This class has no Android dependencies so it can be exercised directly on the JVM.
+ */
+class CuePointTable {
+    private long[] startTimesMs = new long[0];
+    private long[] endTimesMs = new long[0];
+    private boolean[] played = new boolean[0];
+
+    // The total ad duration preceding each ad break, i.e. the start of break i in content time
+    // is startTimesMs[i] - adTimeBeforeMs[i].
+    private long[] adTimeBeforeMs = new long[0];
+    private long[] contentStartTimesMs = new long[0];
+
+    private int count;
+
+    int size() {
+        return count;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * Adds an ad break. Ad breaks must be added in ascending order of their start times.
+     */
+    void add(long startTimeMs, long endTimeMs, boolean isPlayed) {
+        if (count == startTimesMs.length) {
+            int capacity = Math.max(8, count * 2);
+            startTimesMs = Arrays.copyOf(startTimesMs, capacity);
+            endTimesMs = Arrays.copyOf(endTimesMs, capacity);
+            played = Arrays.copyOf(played, capacity);
+            adTimeBeforeMs = Arrays.copyOf(adTimeBeforeMs, capacity);
+            contentStartTimesMs = Arrays.copyOf(contentStartTimesMs, capacity);
+        }
+        long adTimeBefore = count == 0 ? 0
+                : adTimeBeforeMs[count - 1] + (endTimesMs[count - 1] - startTimesMs[count - 1]);
+        startTimesMs[count] = startTimeMs;
+        endTimesMs[count] = endTimeMs;
+        played[count] = isPlayed;
+        adTimeBeforeMs[count] = adTimeBefore;
+        contentStartTimesMs[count] = startTimeMs - adTimeBefore;
+        count++;
+    }
+
+    /**
+     * Evicts the ad breaks that ended before the given time, e.g. the ones that slid out of a live
+     * stream's window. This keeps the table's memory flat over long live sessions.
+     * The remaining ad breaks keep their stream to content time offsets.
+     */
+    void removeEndingBefore(long timeMs) {
+        int removed = 0;
+        while (removed < count && endTimesMs[removed] < timeMs) {
+            removed++;
+        }
+        if (removed == 0) return;
+
+        int remaining = count - removed;
+        System.arraycopy(startTimesMs, removed, startTimesMs, 0, remaining);
+        System.arraycopy(endTimesMs, removed, endTimesMs, 0, remaining);
+        System.arraycopy(played, removed, played, 0, remaining);
+        System.arraycopy(adTimeBeforeMs, removed, adTimeBeforeMs, 0, remaining);
+        System.arraycopy(contentStartTimesMs, removed, contentStartTimesMs, 0, remaining);
+        count = remaining;
+    }
+
+    long getStartTimeMs(int index) {
+        return startTimesMs[index];
+    }
+
+    long getEndTimeMs(int index) {
+        return endTimesMs[index];
+    }
+
+    boolean isPlayed(int index) {
+        return played[index];
+    }
+
+    void setPlayed(int index) {
+        played[index] = true;
+    }
+
+    /**
+     * @return whether the ad break starting exactly at the stream position is played, false if there is none.
+     */
+    boolean isPlayedAt(long startTimeMs) {
+        int i = indexAtOrBefore(startTimeMs);
+        return i >= 0 && startTimesMs[i] == startTimeMs && played[i];
+    }
+
+    /**
+     * @return the index of the last ad break starting at or before the stream position, or -1.
+     */
+    int indexAtOrBefore(long streamTimeMs) {
+        return lastIndexAtOrBefore(startTimesMs, streamTimeMs);
+    }
+
+    /**
+     * @return the index of the ad break the stream position is in, or -1.
+     */
+    int indexContaining(long streamTimeMs) {
+        int i = indexAtOrBefore(streamTimeMs);
+        return i >= 0 && streamTimeMs < endTimesMs[i] ? i : -1;
+    }
+
+    /**
+     * The ad break a seek to the stream position would skip, i.e. the previous cue point if it is
+     * unplayed, like IMA's previous cue point for the stream time.
+     * @return the index of the last ad break starting at or before the stream position if it is unplayed, or -1.
+     */
+    int unplayedIndexAtOrBefore(long streamTimeMs) {
+        int i = indexAtOrBefore(streamTimeMs);
+        return i >= 0 && !played[i] ? i : -1;
+    }
+
+    long streamToContentMs(long streamTimeMs) {
+        int i = indexAtOrBefore(streamTimeMs);
+        if (i < 0) return streamTimeMs;
+        if (streamTimeMs < endTimesMs[i]) {
+            // Within the ad break, which is a single point in content time.
+            return contentStartTimesMs[i];
+        }
+        return streamTimeMs - adTimeBeforeMs[i] - (endTimesMs[i] - startTimesMs[i]);
+    }
+
+    long contentToStreamMs(long contentTimeMs) {
+        // Content positions at an ad break's start map to the start of the ad break itself.
+        int i = lastIndexAtOrBefore(contentStartTimesMs, contentTimeMs - 1);
+        if (i < 0) return contentTimeMs;
+        return contentTimeMs + adTimeBeforeMs[i] + (endTimesMs[i] - startTimesMs[i]);
+    }
+
+    /**
+     * Fills the ad marker arrays used by the player view, i.e. the content time of each ad break
+     * and whether it was played. The arrays must be at least size() long.
+     */
+    void fillAdMarkers(long[] adGroupTimesMs, boolean[] playedAdGroups) {
+        System.arraycopy(contentStartTimesMs, 0, adGroupTimesMs, 0, count);
+        System.arraycopy(played, 0, playedAdGroups, 0, count);
+    }
+
+    private int lastIndexAtOrBefore(long[] sortedTimesMs, long timeMs) {
+        int low = 0;
+        int high = count - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sortedTimesMs[mid] <= timeMs) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package com.truex.googlereferenceapp.player;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewStub;
+import android.widget.TextView;
+
+import androidx.media3.common.C;
+
+import com.truex.googlereferenceapp.metrics.PlaybackMetrics;
+
+import java.util.Locale;
+
+/**
+ * An on-screen overlay with live player and ad metrics, so that stalls can be diagnosed on devices
+ * in the field. Toggled with the remote's info key.
+ *
+ * The overlay is only inflated when it is first shown, and it only samples the player while it is
+ * shown, at a fixed low rate, so it costs nothing while it is disabled. While shown, every sample
+ * takes a fresh snapshot of the session metrics, a few small allocations twice a second.
+ *
+ * Only to be used from the main thread.
+ */
+class DebugHud {
+    private static final long SAMPLE_INTERVAL_MS = 500;
+
+    /**
+     * The player state at the time of a sample, filled in by the player.
+     */
+    static class Sample {
+        String playbackState;
+        long streamPositionMs;
+        long contentPositionMs;
+        long bufferedDurationMs;
+        long bufferedBytes;
+        long videoBitrate;
+        long bandwidthEstimate;
+        int cuePointIndex;
+        int cuePointCount;
+        long cuePointStartMs;
+        long cuePointEndMs;
+        PlaybackMetrics.Snapshot metrics;
+    }
+
+    interface SampleSource {
+        /**
+         * Fills in the sample.
+         * @return false if there is nothing to sample, e.g. the player is released.
+         */
+        boolean fillDebugSample(Sample sample);
+    }
+
+    private final ViewStub viewStub;
+    private final SampleSource sampleSource;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Sample sample = new Sample();
+    private final StringBuilder text = new StringBuilder(512);
+    private TextView textView;
+    private boolean shown;
+
+    private final Runnable sampler = new Runnable() {
+        @Override
+        public void run() {
+            render();
+            handler.postDelayed(this, SAMPLE_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * @param viewStub - the stub of the overlay's text view, only inflated once the HUD is shown
+     */
+    DebugHud(ViewStub viewStub, SampleSource sampleSource) {
+        this.viewStub = viewStub;
+        this.sampleSource = sampleSource;
+    }
+
+    void toggle() {
+        if (shown) {
+            hide();
+        } else {
+            show();
+        }
+    }
+
+    void show() {
+        if (shown) return;
+        if (textView == null) {
+            textView = (TextView) viewStub.inflate();
+        }
+        shown = true;
+        textView.setVisibility(View.VISIBLE);
+        sampler.run();
+    }
+
+    void hide() {
+        if (!shown) return;
+        shown = false;
+        handler.removeCallbacks(sampler);
+        textView.setVisibility(View.GONE);
+    }
+
+    private void render() {
+        text.setLength(0);
+        if (!sampleSource.fillDebugSample(sample)) {
+            text.append("No active player");
+            textView.setText(text);
+            return;
+        }
+
+        PlaybackMetrics.Snapshot metrics = sample.metrics;
+        line("state", sample.playbackState);
+        line("stream", positionDisplay(sample.streamPositionMs));
+        line("content", positionDisplay(sample.contentPositionMs));
+        line("buffer", String.format(Locale.US, "%.1fs  %d KB",
+                sample.bufferedDurationMs / 1000f, sample.bufferedBytes / 1024));
+        line("bitrate", kbps(sample.videoBitrate) + "  est " + kbps(sample.bandwidthEstimate));
+        line("dropped", Long.toString(metrics.droppedFrames));
+        line("rebuffers", metrics.rebufferCount + "  " + metrics.rebufferDuration.max + "ms max");
+        if (sample.cuePointIndex >= 0) {
+            line("cue point", (sample.cuePointIndex + 1) + "/" + sample.cuePointCount + "  "
+                    + positionDisplay(sample.cuePointStartMs) + "-" + positionDisplay(sample.cuePointEndMs));
+        } else {
+            line("cue point", "none/" + sample.cuePointCount);
+        }
+        line("to engagement", metrics.timeToEngagement.count > 0
+                ? metrics.timeToEngagement.p50 + "ms p50  " + metrics.timeToEngagement.max + "ms max" : "-");
+        line("gc", Debug.getRuntimeStat("art.gc.gc-count") + "  " + Debug.getRuntimeStat("art.gc.gc-time") + "ms"
+                + "  blocking " + Debug.getRuntimeStat("art.gc.blocking-gc-count"));
+        textView.setText(text);
+    }
+
+    private void line(String label, String value) {
+        if (text.length() > 0) text.append('\n');
+        text.append(label).append(": ").append(value);
+    }
+
+    private static String positionDisplay(long positionMs) {
+        return positionMs == C.TIME_UNSET ? "-" : VideoPlayer.positionDisplay(positionMs);
+    }
+
+    private static String kbps(long bitsPerSecond) {
+        return bitsPerSecond <= 0 ? "-" : (bitsPerSecond / 1000) + " kbps";
+    }
+}
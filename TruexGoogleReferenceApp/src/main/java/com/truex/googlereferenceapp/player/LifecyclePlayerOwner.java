@@ -0,0 +1,92 @@
+package com.truex.googlereferenceapp.player;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.media3.common.C;
+
+/**
+ * Owns the player of a screen, bound to the screen's (view) lifecycle.
+ *
+ * The player is created when the screen starts and released when it stops, so that there is never
+ * more than one player per screen, and no codecs, ad loaders or listeners are kept while the screen
+ * is in the background. The playback position at the time of the release is handed back to the
+ * next player, so the playback resumes where it left off.
+ *
+ * @param <T> the player type, e.g. VideoPlayer or VideoPlayerWithAds
+ */
+public class LifecyclePlayerOwner<T> implements DefaultLifecycleObserver {
+    private static final String CLASSTAG = LifecyclePlayerOwner.class.getSimpleName();
+
+    public interface Callback<T> {
+        /**
+         * Creates and starts the screen's player.
+         * @param resumePositionMs - the position to resume the playback from, or C.TIME_UNSET
+         */
+        T createPlayer(long resumePositionMs);
+
+        /**
+         * Releases the screen's player.
+         * @return the position to resume the playback from, or C.TIME_UNSET
+         */
+        long releasePlayer(T player);
+    }
+
+    private final String name;
+    private final Callback<T> callback;
+    private T player;
+    private long resumePositionMs = C.TIME_UNSET;
+
+    /**
+     * @param name - the screen's name, for logging
+     * @param lifecycleOwner - the screen's lifecycle owner, i.e. the fragment's view lifecycle owner
+     */
+    public LifecyclePlayerOwner(String name, LifecycleOwner lifecycleOwner, Callback<T> callback) {
+        this.name = name;
+        this.callback = callback;
+        lifecycleOwner.getLifecycle().addObserver(this);
+    }
+
+    /**
+     * @return the current player, or null while the screen is stopped, or once the player was
+     * released early.
+     */
+    public T getPlayer() {
+        return player;
+    }
+
+    @Override
+    public void onStart(@NonNull LifecycleOwner owner) {
+        if (player != null) return;
+        Log.i(CLASSTAG, name + ": creating player, resume position: " + VideoPlayer.positionDisplay(resumePositionMs));
+        player = callback.createPlayer(resumePositionMs);
+        VideoPlayer.logActivePlayers(name + " started");
+    }
+
+    @Override
+    public void onStop(@NonNull LifecycleOwner owner) {
+        releasePlayer("stopped");
+    }
+
+    /**
+     * Releases the player before the screen stops, e.g. under memory pressure. The screen has no
+     * player until it is started again.
+     */
+    public void releasePlayer() {
+        releasePlayer("released");
+    }
+
+    private void releasePlayer(String reason) {
+        if (player == null) return;
+        resumePositionMs = callback.releasePlayer(player);
+        player = null;
+        VideoPlayer.logActivePlayers(name + " " + reason);
+    }
+
+    @Override
+    public void onDestroy(@NonNull LifecycleOwner owner) {
+        owner.getLifecycle().removeObserver(this);
+    }
+}
@@ -0,0 +1,107 @@
+package com.truex.googlereferenceapp.player;
+
+import androidx.annotation.OptIn;
+import androidx.media3.common.C;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.DefaultLoadControl;
+import androidx.media3.upstream.DefaultAllocator;
+
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+
+/**
+ * ExoPlayer's default load control, with a media buffer that can be reduced under memory pressure.
+ *
+ * By default the buffer target is derived from the selected tracks, which for video can be well over
+ * 100 MB. Once reduced, loading stops at a much smaller byte target, as long as enough media is
+ * buffered to keep playing.
+ *
+ * Also reports whether the buffer is low to the bandwidth arbiter, if any, which then holds back
+ * less important traffic until the buffer has recovered. Once reduced, the buffer is considered
+ * recovered well below the reduced target, which is all it may ever hold at high bitrates.
+ */
+@OptIn(markerClass = UnstableApi.class)
+class MemoryAwareLoadControl extends DefaultLoadControl {
+    private static final int REDUCED_TARGET_BUFFER_BYTES = 8 * 1024 * 1024;
+    private static final long REDUCED_MIN_BUFFER_US = 10_000_000;
+    private static final long LOW_BUFFER_US = 10_000_000;
+    private static final long RECOVERED_BUFFER_US = 20_000_000;
+    private static final long REDUCED_LOW_BUFFER_US = 4_000_000;
+    private static final long REDUCED_RECOVERED_BUFFER_US = 8_000_000;
+
+    private final DefaultAllocator allocator;
+    private volatile boolean reduced;
+    private volatile BandwidthArbiter bandwidthArbiter;
+
+    // Only accessed from the playback thread.
+    private BandwidthArbiter reportedArbiter;
+    private boolean bufferLow;
+
+    MemoryAwareLoadControl() {
+        this(new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE));
+    }
+
+    private MemoryAwareLoadControl(DefaultAllocator allocator) {
+        super(allocator,
+                DEFAULT_MIN_BUFFER_MS,
+                DEFAULT_MAX_BUFFER_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+                DEFAULT_TARGET_BUFFER_BYTES,
+                DEFAULT_PRIORITIZE_TIME_OVER_SIZE_THRESHOLDS,
+                DEFAULT_BACK_BUFFER_DURATION_MS,
+                DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME);
+        this.allocator = allocator;
+    }
+
+    /**
+     * @return the memory allocated for the media buffer, in bytes.
+     */
+    long getAllocatedBytes() {
+        return allocator.getTotalBytesAllocated();
+    }
+
+    /**
+     * Reduces the media buffer for the rest of the playback session. May be called from any thread.
+     */
+    void reduceBuffer() {
+        reduced = true;
+        // Also releases the allocations that are no longer in use.
+        allocator.setTargetBufferSize(REDUCED_TARGET_BUFFER_BYTES);
+    }
+
+    /**
+     * @param bandwidthArbiter - the arbiter to report the buffer to, or null to stop reporting
+     */
+    void setBandwidthArbiter(BandwidthArbiter bandwidthArbiter) {
+        this.bandwidthArbiter = bandwidthArbiter;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(Parameters parameters) {
+        reportBuffer(parameters.bufferedDurationUs);
+        if (reduced
+                && parameters.bufferedDurationUs >= REDUCED_MIN_BUFFER_US
+                && allocator.getTotalBytesAllocated() >= REDUCED_TARGET_BUFFER_BYTES) {
+            return false;
+        }
+        return super.shouldContinueLoading(parameters);
+    }
+
+    private void reportBuffer(long bufferedDurationUs) {
+        BandwidthArbiter arbiter = bandwidthArbiter;
+        long thresholdUs = reduced
+                ? (bufferLow ? REDUCED_RECOVERED_BUFFER_US : REDUCED_LOW_BUFFER_US)
+                : (bufferLow ? RECOVERED_BUFFER_US : LOW_BUFFER_US);
+        boolean low = bufferedDurationUs < thresholdUs;
+        if (low == bufferLow && arbiter == reportedArbiter) return;
+
+        if (reportedArbiter != null && reportedArbiter != arbiter) {
+            reportedArbiter.setBufferLow(this, false);
+        }
+        if (arbiter != null) {
+            arbiter.setBufferLow(this, low);
+        }
+        bufferLow = low;
+        reportedArbiter = arbiter;
+    }
+}
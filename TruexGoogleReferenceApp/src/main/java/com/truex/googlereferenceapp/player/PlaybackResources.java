@@ -0,0 +1,140 @@
+package com.truex.googlereferenceapp.player;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.OptIn;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.database.DatabaseProvider;
+import androidx.media3.datasource.DefaultDataSource;
+import androidx.media3.datasource.cache.Cache;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.LeastRecentlyUsedCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+import androidx.media3.exoplayer.mediacodec.MediaCodecInfo;
+import androidx.media3.exoplayer.mediacodec.MediaCodecUtil;
+import androidx.media3.exoplayer.upstream.BandwidthMeter;
+import androidx.media3.exoplayer.upstream.DefaultBandwidthMeter;
+
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+import com.truex.googlereferenceapp.network.PrioritizedDataSource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The playback resources shared by all the video players of the app, so that several players can
+ * play at the same time, e.g. previews next to the main player:
+ * <ul>
+ *   <li>a single bandwidth meter, so that every player adapts to the same view of the network</li>
+ *   <li>a single segment cache, so that segments loaded by one player are reused by the others</li>
+ *   <li>a video decoder budget, which the players are scheduled against</li>
+ * </ul>
+ * The focused player always gets a video decoder and its full quality. The other players get the
+ * remaining decoders, limited to a reduced quality, and play without video once the budget is spent.
+ *
+ * The players are only to be registered and scheduled from the main thread.
+ */
+@OptIn(markerClass = UnstableApi.class)
+public class PlaybackResources {
+    private static final String CLASSTAG = PlaybackResources.class.getSimpleName();
+
+    private static final long SEGMENT_CACHE_BYTES = 200 * 1024 * 1024;
+
+    // Even when the codecs claim to support more instances, TV devices rarely decode more than a
+    // few video streams in real time.
+    private static final int MAX_VIDEO_DECODERS = 3;
+
+    private final Context context;
+    private final DefaultBandwidthMeter bandwidthMeter;
+    private final BandwidthArbiter bandwidthArbiter;
+    private final Cache segmentCache;
+    private final int maxVideoDecoders;
+
+    // The active players, with the focused one first.
+    private final List<VideoPlayer> players = new ArrayList<>();
+
+    /**
+     * @param directory - the directory to keep the segment cache in
+     */
+    public PlaybackResources(Context context, File directory, DatabaseProvider databaseProvider,
+                             BandwidthArbiter bandwidthArbiter) {
+        this.context = context.getApplicationContext();
+        this.bandwidthMeter = DefaultBandwidthMeter.getSingletonInstance(this.context);
+        this.bandwidthArbiter = bandwidthArbiter;
+        this.segmentCache = new SimpleCache(directory, new LeastRecentlyUsedCacheEvictor(SEGMENT_CACHE_BYTES),
+                databaseProvider);
+        this.maxVideoDecoders = getMaxVideoDecoders(this.context);
+        Log.i(CLASSTAG, "Video decoder budget: " + maxVideoDecoders);
+    }
+
+    BandwidthMeter getBandwidthMeter() {
+        return bandwidthMeter;
+    }
+
+    BandwidthArbiter getBandwidthArbiter() {
+        return bandwidthArbiter;
+    }
+
+    /**
+     * @param priority - the priority of the loads from the network, for the bandwidth arbiter
+     * @return a data source factory that reads through the shared segment cache.
+     */
+    CacheDataSource.Factory createDataSourceFactory(BandwidthArbiter.Priority priority) {
+        return new CacheDataSource.Factory()
+                .setCache(segmentCache)
+                .setUpstreamDataSourceFactory(new PrioritizedDataSource.Factory(
+                        new DefaultDataSource.Factory(context), bandwidthArbiter, priority))
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+    }
+
+    public int getMaxVideoDecoders() {
+        return maxVideoDecoders;
+    }
+
+    void register(VideoPlayer player) {
+        if (players.contains(player)) return;
+        players.add(player);
+        schedule();
+    }
+
+    void unregister(VideoPlayer player) {
+        if (players.remove(player)) schedule();
+    }
+
+    /**
+     * Gives the player the focus, i.e. a video decoder and its full quality.
+     */
+    void setFocused(VideoPlayer player) {
+        if (!players.remove(player)) return;
+        players.add(0, player);
+        schedule();
+    }
+
+    private void schedule() {
+        for (int i = 0; i < players.size(); i++) {
+            boolean focused = i == 0;
+            boolean hasDecoder = i < maxVideoDecoders;
+            players.get(i).applySchedule(hasDecoder, !focused);
+        }
+    }
+
+    private static int getMaxVideoDecoders(Context context) {
+        ActivityManager activityManager = context.getSystemService(ActivityManager.class);
+        if (activityManager != null && activityManager.isLowRamDevice()) return 1;
+
+        int maxDecoders = MAX_VIDEO_DECODERS;
+        try {
+            List<MediaCodecInfo> decoders = MediaCodecUtil.getDecoderInfos(MimeTypes.VIDEO_H264, false, false);
+            if (!decoders.isEmpty() && decoders.get(0).capabilities != null) {
+                maxDecoders = Math.min(maxDecoders, decoders.get(0).capabilities.getMaxSupportedInstances());
+            }
+        } catch (MediaCodecUtil.DecoderQueryException e) {
+            Log.w(CLASSTAG, "Unable to query the video decoders: " + e);
+        }
+        return Math.max(1, maxDecoders);
+    }
+}
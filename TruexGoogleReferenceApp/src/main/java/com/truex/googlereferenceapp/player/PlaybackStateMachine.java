@@ -0,0 +1,121 @@
+package com.truex.googlereferenceapp.player;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Tracks the playback state of an ad-stitched stream, i.e. whether we are playing content, an ad
+ * break, an Infillion engagement, etc.
+ *
+ * The allowed transitions are defined in a single table. Events that have no transition for the
+ * current state are ignored, which guarantees that e.g. the end of an ad break is only handled
+ * once, even if it is reported both by IMA and by our own ad skipping.
+ *
+ * This class has no Android dependencies so it can be exercised directly on the JVM.
+ */
+class PlaybackStateMachine {
+
+    enum State {
+        /** Playing the main content, seeking is allowed. */
+        CONTENT,
+        /** Seeked back to the start of an unplayed ad break, waiting for it to start. */
+        SNAPBACK_PENDING,
+        /** Playing the stitched ads of an ad break. */
+        AD_BREAK,
+        /** The stream is paused while the Infillion engagement is displayed. */
+        ENGAGEMENT,
+        /** The user earned the ad credit, the stream was seeked past the ad break. */
+        POST_SKIP
+    }
+
+    enum Event {
+        /** The user seeked past an unplayed ad break. */
+        SNAPBACK,
+        /** IMA reported the start of an ad break. */
+        AD_BREAK_STARTED,
+        /** IMA reported the end of an ad break. */
+        AD_BREAK_ENDED,
+        /** An Infillion placeholder ad started its engagement. */
+        ENGAGEMENT_STARTED,
+        /** The Infillion engagement was completed with an ad credit. */
+        AD_BREAK_SKIPPED,
+        /** The Infillion engagement was closed and the stream resumed. */
+        ENGAGEMENT_ENDED
+    }
+
+    interface Listener {
+        void onTransition(State from, Event event, State to);
+    }
+
+    private static final Map<State, Map<Event, State>> TRANSITIONS = new EnumMap<>(State.class);
+
+    static {
+        addTransition(State.CONTENT, Event.SNAPBACK, State.SNAPBACK_PENDING);
+        addTransition(State.CONTENT, Event.AD_BREAK_STARTED, State.AD_BREAK);
+
+        addTransition(State.SNAPBACK_PENDING, Event.AD_BREAK_STARTED, State.AD_BREAK);
+        addTransition(State.SNAPBACK_PENDING, Event.AD_BREAK_ENDED, State.CONTENT);
+
+        addTransition(State.AD_BREAK, Event.ENGAGEMENT_STARTED, State.ENGAGEMENT);
+        addTransition(State.AD_BREAK, Event.AD_BREAK_ENDED, State.CONTENT);
+
+        addTransition(State.ENGAGEMENT, Event.AD_BREAK_SKIPPED, State.POST_SKIP);
+        addTransition(State.ENGAGEMENT, Event.ENGAGEMENT_ENDED, State.AD_BREAK);
+
+        // The ad break is over once the stream resumes after the skip.
+        addTransition(State.POST_SKIP, Event.ENGAGEMENT_ENDED, State.CONTENT);
+    }
+
+    private static void addTransition(State from, Event event, State to) {
+        Map<Event, State> transitions = TRANSITIONS.get(from);
+        if (transitions == null) {
+            transitions = new EnumMap<>(Event.class);
+            TRANSITIONS.put(from, transitions);
+        }
+        transitions.put(event, to);
+    }
+
+    private State state = State.CONTENT;
+    private Listener listener;
+
+    State getState() {
+        return state;
+    }
+
+    boolean isIn(State state) {
+        return this.state == state;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return true if the event is allowed in the current state.
+     */
+    boolean canFire(Event event) {
+        Map<Event, State> transitions = TRANSITIONS.get(state);
+        return transitions != null && transitions.containsKey(event);
+    }
+
+    /**
+     * Applies the event to the current state.
+     * @return true if the event caused a transition, false if it was ignored.
+     */
+    boolean fire(Event event) {
+        Map<Event, State> transitions = TRANSITIONS.get(state);
+        State next = transitions == null ? null : transitions.get(event);
+        if (next == null) return false;
+
+        State previous = state;
+        state = next;
+        if (listener != null) {
+            listener.onTransition(previous, event, next);
+        }
+        return true;
+    }
+
+    void reset() {
+        state = State.CONTENT;
+    }
+}
@@ -4,19 +4,66 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewStub;
 
 import androidx.annotation.NonNull;
-import androidx.fragment.app.Fragment;
+import androidx.annotation.Nullable;
 import androidx.media3.ui.PlayerView;
 
 import com.truex.googlereferenceapp.R;
+import com.truex.googlereferenceapp.analytics.AnalyticsReporter;
+import com.truex.googlereferenceapp.download.StreamDownloads;
 import com.truex.googlereferenceapp.home.StreamConfiguration;
+import com.truex.googlereferenceapp.memory.MemoryPressureManager;
+import com.truex.googlereferenceapp.trace.PlaybackTrace;
 
-public class PlayerViewFragment extends Fragment {
+import javax.inject.Inject;
 
-    protected VideoPlayer videoPlayer;
+import dagger.android.support.DaggerFragment;
 
-    protected VideoPlayerWithAds videoPlayerWithAds;
+public class PlayerViewFragment extends DaggerFragment {
+    private static final String CLASSTAG = PlayerViewFragment.class.getSimpleName();
+
+    // Whether to download the stream once it is loaded.
+    public static final String ARG_DOWNLOAD = "download";
+
+    @Inject
+    AnalyticsReporter analyticsReporter;
+
+    @Inject
+    MemoryPressureManager memoryPressureManager;
+
+    @Inject
+    StreamDownloads streamDownloads;
+
+    @Inject
+    PlaybackResources playbackResources;
+
+    // Null if the trace file can't be mapped.
+    @Inject
+    @Nullable
+    PlaybackTrace playbackTrace;
+
+    // Creates the player when the view starts, and releases it when the view stops.
+    private LifecyclePlayerOwner<VideoPlayerWithAds> playerOwner;
+
+    // Only created once the view is, and only inflated once it is first shown.
+    private DebugHud debugHud;
+
+    // Under memory pressure, the playback continues with a reduced buffer.
+    private final MemoryPressureManager.Resource playerBuffers = new MemoryPressureManager.Resource() {
+        @Override
+        public long getEstimatedBytes() {
+            VideoPlayerWithAds videoPlayerWithAds = playerOwner.getPlayer();
+            return videoPlayerWithAds != null ? videoPlayerWithAds.getBufferedBytes() : 0;
+        }
+
+        @Override
+        public void shed(int level) {
+            VideoPlayerWithAds videoPlayerWithAds = playerOwner.getPlayer();
+            if (videoPlayerWithAds != null) videoPlayerWithAds.reduceBuffer();
+        }
+    };
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
@@ -25,17 +72,74 @@ public class PlayerViewFragment extends Fragment {
     }
 
     @Override
-    public void onStart() {
-        super.onStart();
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
 
         // Retrieve the stream configuration from the arguments bundle
         StreamConfiguration streamConfiguration = getArguments().getParcelable(StreamConfiguration.class.getSimpleName());
+        boolean download = getArguments().getBoolean(ARG_DOWNLOAD);
+
+        ViewGroup adUiContainer = view.findViewById(R.id.ad_ui_container);
+        PlayerView playerView = view.findViewById(R.id.player_view);
+
+        playerOwner = new LifecyclePlayerOwner<>(CLASSTAG, getViewLifecycleOwner(),
+                new LifecyclePlayerOwner.Callback<VideoPlayerWithAds>() {
+                    @Override
+                    public VideoPlayerWithAds createPlayer(long resumePositionMs) {
+                        VideoPlayerWithAds videoPlayerWithAds = new VideoPlayerWithAds(getContext(),
+                                streamConfiguration, playerView, adUiContainer, playbackResources, analyticsReporter);
+                        videoPlayerWithAds.setStartContentPositionMs(resumePositionMs);
+                        if (playbackTrace != null) {
+                            videoPlayerWithAds.setPlaybackTrace(playbackTrace);
+                        }
+
+                        // Play the stream offline if it was downloaded.
+                        StreamDownloads.OfflineStream offlineStream = streamDownloads.getOfflineStream(streamConfiguration);
+                        if (offlineStream != null) {
+                            videoPlayerWithAds.setOfflineStream(offlineStream, streamDownloads.getDataSourceFactory());
+                        } else if (download) {
+                            videoPlayerWithAds.setStitchedStreamListener((streamUrl, cuePoints) ->
+                                    streamDownloads.download(streamConfiguration, streamUrl, cuePoints));
+                        }
+                        videoPlayerWithAds.requestAndPlayStream();
+                        memoryPressureManager.register("player buffers", MemoryPressureManager.SHED_PLAYER_BUFFERS,
+                                playerBuffers);
+                        return videoPlayerWithAds;
+                    }
+
+                    @Override
+                    public long releasePlayer(VideoPlayerWithAds videoPlayerWithAds) {
+                        memoryPressureManager.unregister(playerBuffers);
+                        long contentPositionMs = videoPlayerWithAds.getContentPositionMs();
+                        videoPlayerWithAds.release();
+                        return contentPositionMs;
+                    }
+                });
+
+        ViewStub debugHudStub = view.findViewById(R.id.debug_hud_stub);
+        debugHud = new DebugHud(debugHudStub, (DebugHud.Sample sample) -> {
+            VideoPlayerWithAds videoPlayerWithAds = playerOwner.getPlayer();
+            return videoPlayerWithAds != null && videoPlayerWithAds.fillDebugSample(sample);
+        });
+    }
 
-        ViewGroup adUiContainer = getView().findViewById(R.id.ad_ui_container);
-        PlayerView playerView = getView().findViewById(R.id.player_view);
+    @Override
+    public void onStop() {
+        super.onStop();
+
+        // Stop sampling while the view is not visible.
+        if (debugHud != null) {
+            debugHud.hide();
+        }
+    }
 
-        videoPlayerWithAds = new VideoPlayerWithAds(getContext(), streamConfiguration, playerView, adUiContainer);
-        videoPlayerWithAds.requestAndPlayStream();
+    /**
+     * Shows or hides the debug HUD, e.g. on a remote key.
+     */
+    public void toggleDebugHud() {
+        if (debugHud != null && getView() != null) {
+            debugHud.toggle();
+        }
     }
 
     @Override
@@ -43,6 +147,7 @@ public class PlayerViewFragment extends Fragment {
         super.onPause();
 
         // Pause the playback
+        VideoPlayerWithAds videoPlayerWithAds = playerOwner.getPlayer();
         if (videoPlayerWithAds != null) {
             videoPlayerWithAds.pause();
         }
@@ -53,24 +158,9 @@ public class PlayerViewFragment extends Fragment {
         super.onResume();
 
         // Resume the playback
+        VideoPlayerWithAds videoPlayerWithAds = playerOwner.getPlayer();
         if (videoPlayerWithAds != null) {
             videoPlayerWithAds.resume();
         }
     }
-
-    @Override
-    public void onDestroy() {
-        cleanUp();
-        super.onDestroy();
-    }
-
-    private void cleanUp() {
-        videoPlayerWithAds.release();
-        reset();
-    }
-
-    private void reset() {
-        videoPlayerWithAds = null;
-        videoPlayer = null;
-    }
 }
@@ -0,0 +1,137 @@
+package com.truex.googlereferenceapp.player;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.OptIn;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.CacheWriter;
+
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Preloads the start of preview videos into the shared segment cache, so that previews start
+ * instantly while browsing the catalog.
+ *
+ * Preloads run one at a time on a low priority background thread, and only the first bytes of each
+ * preview are loaded. The queue is bounded and replaced as the focus moves, which cancels the
+ * preloads of previews that are no longer focused, so browsing quickly never saturates the network.
+ */
+@OptIn(markerClass = UnstableApi.class)
+public class PreviewPreloader {
+    private static final String CLASSTAG = PreviewPreloader.class.getSimpleName();
+
+    // Enough for the first seconds of a preview.
+    private static final long PRELOAD_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_QUEUED_PRELOADS = 3;
+
+    private final PlaybackResources playbackResources;
+    private final ExecutorService executor;
+
+    // Guarded by the queue.
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+    private boolean preloading;
+    private String activeUrl;
+    private CacheWriter activeWriter;
+
+    public PreviewPreloader(PlaybackResources playbackResources) {
+        this.playbackResources = playbackResources;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "preview-preload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Replaces the pending preloads with the given progressive previews, in order of priority. Only
+     * the first few previews are kept, and the running preload is cancelled if its preview is not
+     * among them.
+     */
+    public void preload(List<String> previewUrls) {
+        synchronized (queue) {
+            queue.clear();
+            for (String url : previewUrls) {
+                if (queue.size() == MAX_QUEUED_PRELOADS) break;
+                if (!queue.contains(url)) {
+                    queue.add(url);
+                }
+            }
+
+            if (activeUrl != null && !queue.remove(activeUrl)) {
+                activeWriter.cancel();
+            }
+            if (!preloading && !queue.isEmpty()) {
+                preloading = true;
+                executor.execute(this::preloadQueue);
+            }
+        }
+    }
+
+    /**
+     * Cancels the preload of the preview, e.g. once it is played, so that the player does not
+     * compete with it.
+     */
+    public void cancel(String previewUrl) {
+        synchronized (queue) {
+            queue.remove(previewUrl);
+            if (previewUrl != null && previewUrl.equals(activeUrl)) {
+                activeWriter.cancel();
+            }
+        }
+    }
+
+    public void cancelAll() {
+        synchronized (queue) {
+            queue.clear();
+            if (activeWriter != null) {
+                activeWriter.cancel();
+            }
+        }
+    }
+
+    private void preloadQueue() {
+        while (true) {
+            CacheWriter writer;
+            String url;
+            synchronized (queue) {
+                url = queue.poll();
+                if (url == null) {
+                    activeUrl = null;
+                    activeWriter = null;
+                    preloading = false;
+                    return;
+                }
+                DataSpec dataSpec = new DataSpec.Builder()
+                        .setUri(url)
+                        .setLength(PRELOAD_BYTES)
+                        .build();
+                writer = new CacheWriter(playbackResources.createDataSourceFactory(BandwidthArbiter.Priority.BACKGROUND)
+                        .createDataSource(),
+                        dataSpec, null, null);
+                activeUrl = url;
+                activeWriter = writer;
+            }
+
+            try {
+                writer.cache();
+                Log.d(CLASSTAG, "Preloaded preview: " + url);
+            } catch (InterruptedIOException e) {
+                Log.d(CLASSTAG, "Preview preload cancelled: " + url);
+            } catch (IOException e) {
+                Log.w(CLASSTAG, "Unable to preload preview " + url + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.truex.googlereferenceapp.player;
+
+/**
+ * Plans the seeks of a snapback: the unplayed ad breaks a user seek has to play first, as chosen
+ * by the snapback policy, and the position to resume at once they are played.
+ *
+ * The plan uses as few seeks as possible. Ad breaks that directly follow each other are played
+ * through without seeking, and no seek is made after the last ad break if the seek target is
+ * within it or just after it. The next seek target is known while an ad break plays, so the
+ * player can buffer it ahead of time.
+ *
+ * This class has no Android dependencies so it can be exercised directly on the JVM.
+ */
+class SeekPlanner {
+    /** No seek is needed, playback continues where it is. */
+    static final long NO_SEEK = -1;
+
+    // Seeks closer than this to the current position are skipped.
+    private static final long SEEK_TOLERANCE_MS = 500;
+    private static final int MAX_PLANNED_AD_BREAKS = 8;
+
+    private SnapbackPolicy policy = SnapbackPolicy.LATEST_BREAK_ONLY;
+    private long playedAdMs;
+
+    // The start times of the planned ad breaks, which stay valid when the cue points are updated.
+    private final int[] selected = new int[MAX_PLANNED_AD_BREAKS];
+    private final long[] adBreakStartsMs = new long[MAX_PLANNED_AD_BREAKS];
+    private int adBreakCount;
+    private int nextAdBreak;
+    private long resumeMs = NO_SEEK;
+
+    SnapbackPolicy getPolicy() {
+        return policy;
+    }
+
+    void setPolicy(SnapbackPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Counts ad time towards the played budget of the session.
+     */
+    void addPlayedAdTime(long durationMs) {
+        playedAdMs += durationMs;
+    }
+
+    long getPlayedAdMs() {
+        return playedAdMs;
+    }
+
+    /**
+     * Plans a user seek, replacing any pending plan.
+     * @return the position to seek to now, i.e. the start of the first ad break to play, or the seek
+     * target itself if no ad break has to be played.
+     */
+    long plan(CuePointTable cuePointTable, long fromMs, long toMs) {
+        adBreakCount = policy.selectAdBreaks(cuePointTable, fromMs, toMs, playedAdMs, selected);
+        for (int i = 0; i < adBreakCount; i++) {
+            adBreakStartsMs[i] = cuePointTable.getStartTimeMs(selected[i]);
+        }
+        if (adBreakCount == 0) {
+            resumeMs = NO_SEEK;
+            return toMs;
+        }
+        nextAdBreak = 1;
+        resumeMs = toMs;
+        return adBreakStartsMs[0];
+    }
+
+    /**
+     * @return whether ad breaks are planned, or playback has yet to resume after them.
+     */
+    boolean isPending() {
+        return resumeMs != NO_SEEK;
+    }
+
+    /**
+     * @return the next position the plan will seek to, e.g. to buffer it ahead of time, or NO_SEEK.
+     */
+    long peekNextSeekMs() {
+        if (resumeMs == NO_SEEK) return NO_SEEK;
+        return nextAdBreak < adBreakCount ? adBreakStartsMs[nextAdBreak] : resumeMs;
+    }
+
+    /**
+     * Advances the plan once an ad break is over.
+     * @param positionMs - the stream position playback would continue at
+     * @return the position to seek to next, or NO_SEEK to continue playing.
+     */
+    long onAdBreakEnded(long positionMs) {
+        if (resumeMs == NO_SEEK) return NO_SEEK;
+
+        if (nextAdBreak < adBreakCount) {
+            long startMs = adBreakStartsMs[nextAdBreak++];
+            // An ad break right after the one that ended plays without a seek.
+            return startMs - positionMs > SEEK_TOLERANCE_MS ? startMs : NO_SEEK;
+        }
+
+        long targetMs = resumeMs;
+        reset();
+        // The seek target was within the ad break, or just after it.
+        return targetMs - positionMs > SEEK_TOLERANCE_MS ? targetMs : NO_SEEK;
+    }
+
+    /**
+     * Drops the pending plan, e.g. when a new stream is loaded.
+     */
+    void reset() {
+        adBreakCount = 0;
+        nextAdBreak = 0;
+        resumeMs = NO_SEEK;
+    }
+}
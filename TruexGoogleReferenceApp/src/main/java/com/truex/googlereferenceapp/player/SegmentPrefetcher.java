@@ -0,0 +1,121 @@
+package com.truex.googlereferenceapp.player;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.OptIn;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.cache.CacheWriter;
+
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads media segments of the playing stream into the shared segment cache ahead of a seek, e.g.
+ * the snapback's resume position while the ad break plays, so that the seek does not stall.
+ *
+ * Only the latest request is kept, a new one cancels the running prefetch. Prefetches are
+ * background traffic, which the bandwidth arbiter holds back while the player's buffer is low.
+ */
+@OptIn(markerClass = UnstableApi.class)
+class SegmentPrefetcher {
+    private static final String CLASSTAG = SegmentPrefetcher.class.getSimpleName();
+
+    private final PlaybackResources playbackResources;
+    private final ExecutorService executor;
+
+    // Guarded by this.
+    private List<DataSpec> pending;
+    private boolean prefetching;
+    private CacheWriter activeWriter;
+    private boolean released;
+
+    SegmentPrefetcher(PlaybackResources playbackResources) {
+        this.playbackResources = playbackResources;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "segment-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Replaces any pending or running prefetch with the segments, in order.
+     */
+    synchronized void prefetch(List<DataSpec> segments) {
+        if (released) return;
+        pending = new ArrayList<>(segments);
+        if (activeWriter != null) {
+            activeWriter.cancel();
+        }
+        if (!prefetching) {
+            prefetching = true;
+            executor.execute(this::prefetchPending);
+        }
+    }
+
+    synchronized void cancel() {
+        pending = null;
+        if (activeWriter != null) {
+            activeWriter.cancel();
+        }
+    }
+
+    void release() {
+        synchronized (this) {
+            released = true;
+        }
+        cancel();
+        executor.shutdown();
+    }
+
+    private void prefetchPending() {
+        while (true) {
+            List<DataSpec> segments;
+            synchronized (this) {
+                segments = pending;
+                pending = null;
+                if (segments == null) {
+                    prefetching = false;
+                    return;
+                }
+            }
+
+            for (DataSpec segment : segments) {
+                CacheWriter writer;
+                synchronized (this) {
+                    // Superseded by a newer request.
+                    if (pending != null || released) break;
+                    writer = new CacheWriter(playbackResources.createDataSourceFactory(BandwidthArbiter.Priority.BACKGROUND)
+                            .createDataSource(),
+                            segment, null, null);
+                    activeWriter = writer;
+                }
+
+                try {
+                    writer.cache();
+                } catch (InterruptedIOException e) {
+                    Log.d(CLASSTAG, "Segment prefetch cancelled: " + segment.uri);
+                    break;
+                } catch (IOException e) {
+                    Log.w(CLASSTAG, "Unable to prefetch segment " + segment.uri + ": " + e);
+                    break;
+                } finally {
+                    synchronized (this) {
+                        activeWriter = null;
+                    }
+                }
+            }
+        }
+    }
+}
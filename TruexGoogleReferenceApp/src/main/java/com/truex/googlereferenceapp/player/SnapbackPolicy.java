@@ -0,0 +1,105 @@
+package com.truex.googlereferenceapp.player;
+
+/**
+ * Decides which unplayed ad breaks a user seek has to play before playback continues at the seek
+ * target.
+ *
+ * This class has no Android dependencies so it can be exercised directly on the JVM.
+ */
+final class SnapbackPolicy {
+
+    enum Type {
+        /** Play the last unplayed ad break at or before the seek target, the IMA default. */
+        LATEST_BREAK_ONLY,
+        /** Play every unplayed ad break the seek skips over, in order. */
+        ALL_UNPLAYED_BREAKS,
+        /** Never snap back, seeking over ad breaks is allowed. */
+        NONE,
+        /** Like LATEST_BREAK_ONLY, until the session has played enough ads to earn free seeking. */
+        PLAYED_BUDGET
+    }
+
+    static final SnapbackPolicy LATEST_BREAK_ONLY = new SnapbackPolicy(Type.LATEST_BREAK_ONLY, 0);
+    static final SnapbackPolicy ALL_UNPLAYED_BREAKS = new SnapbackPolicy(Type.ALL_UNPLAYED_BREAKS, 0);
+    static final SnapbackPolicy NONE = new SnapbackPolicy(Type.NONE, 0);
+
+    /**
+     * @param budgetMs - the ad time to play in a session before seeking over ad breaks is allowed
+     */
+    static SnapbackPolicy playedBudget(long budgetMs) {
+        return new SnapbackPolicy(Type.PLAYED_BUDGET, budgetMs);
+    }
+
+    /**
+     * Restores a policy from its type and budget, e.g. as recorded in a playback trace.
+     */
+    static SnapbackPolicy of(Type type, long budgetMs) {
+        switch (type) {
+            case ALL_UNPLAYED_BREAKS:
+                return ALL_UNPLAYED_BREAKS;
+            case NONE:
+                return NONE;
+            case PLAYED_BUDGET:
+                return playedBudget(budgetMs);
+            default:
+                return LATEST_BREAK_ONLY;
+        }
+    }
+
+    private final Type type;
+    private final long budgetMs;
+
+    private SnapbackPolicy(Type type, long budgetMs) {
+        this.type = type;
+        this.budgetMs = budgetMs;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    long getBudgetMs() {
+        return budgetMs;
+    }
+
+    /**
+     * Selects the ad breaks to play for a seek.
+     * @param fromMs - the stream position the seek starts from
+     * @param toMs - the stream position the user seeks to
+     * @param playedAdMs - the ad time played in the session so far
+     * @param adBreaks - receives the indices of the ad breaks to play, in playback order
+     * @return the number of ad breaks selected
+     */
+    int selectAdBreaks(CuePointTable cuePointTable, long fromMs, long toMs, long playedAdMs, int[] adBreaks) {
+        switch (type) {
+            case NONE:
+                return 0;
+            case PLAYED_BUDGET:
+                if (playedAdMs >= budgetMs) return 0;
+                return selectLatestBreak(cuePointTable, toMs, adBreaks);
+            case ALL_UNPLAYED_BREAKS:
+                // Seeking backwards only skips ad breaks that were already passed.
+                if (toMs <= fromMs) return selectLatestBreak(cuePointTable, toMs, adBreaks);
+                int count = 0;
+                int last = cuePointTable.indexAtOrBefore(toMs);
+                for (int i = cuePointTable.indexAtOrBefore(fromMs) + 1; i <= last && count < adBreaks.length; i++) {
+                    if (!cuePointTable.isPlayed(i)) adBreaks[count++] = i;
+                }
+                return count;
+            default:
+                return selectLatestBreak(cuePointTable, toMs, adBreaks);
+        }
+    }
+
+    private static int selectLatestBreak(CuePointTable cuePointTable, long toMs, int[] adBreaks) {
+        int index = cuePointTable.unplayedIndexAtOrBefore(toMs);
+        if (index < 0 || adBreaks.length == 0) return 0;
+        adBreaks[0] = index;
+        return 1;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.PLAYED_BUDGET ? type + "(" + budgetMs + " ms)" : type.toString();
+    }
+}
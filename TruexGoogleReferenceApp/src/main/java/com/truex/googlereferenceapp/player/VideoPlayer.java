@@ -19,36 +19,52 @@ package com.truex.googlereferenceapp.player;
 import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
-import android.view.View;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.OptIn;
 import androidx.media3.common.C;
 import androidx.media3.common.ForwardingPlayer;
+import androidx.media3.common.Format;
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.Metadata;
+import androidx.media3.common.StreamKey;
 import androidx.media3.common.Player;
 import androidx.media3.common.Timeline;
+import androidx.media3.common.TrackSelectionParameters;
+import androidx.media3.common.util.Clock;
 import androidx.media3.common.util.UnstableApi;
+import androidx.media3.common.util.UriUtil;
 import androidx.media3.common.util.Util;
 import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
 import androidx.media3.datasource.DefaultDataSource;
 import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.LoadControl;
 import androidx.media3.exoplayer.dash.DashMediaSource;
 import androidx.media3.exoplayer.dash.DefaultDashChunkSource;
+import androidx.media3.exoplayer.hls.HlsManifest;
 import androidx.media3.exoplayer.hls.HlsMediaSource;
+import androidx.media3.exoplayer.hls.playlist.HlsMediaPlaylist;
 import androidx.media3.exoplayer.source.ForwardingTimeline;
 import androidx.media3.exoplayer.source.MediaSource;
 import androidx.media3.exoplayer.source.ProgressiveMediaSource;
+import androidx.media3.exoplayer.upstream.BandwidthMeter;
 import androidx.media3.extractor.metadata.emsg.EventMessage;
 import androidx.media3.extractor.metadata.id3.TextInformationFrame;
 import androidx.media3.ui.PlayerView;
 
 import com.google.ads.interactivemedia.v3.api.CuePoint;
 import com.google.ads.interactivemedia.v3.api.StreamManager;
+import com.truex.googlereferenceapp.metrics.PlaybackMetrics;
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+import com.truex.googlereferenceapp.trace.PlaybackTrace;
+import com.truex.googlereferenceapp.util.TimeUtils;
 
-import java.util.Formatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A video player that plays HLS or DASH streams using ExoPlayer.
@@ -58,48 +74,171 @@ public class VideoPlayer {
 
     private static final String CLASSTAG = VideoPlayer.class.getSimpleName();
 
+    // Low latency live playback: stay close to the live edge, catching up by adjusting the speed
+    // slightly rather than by seeking.
+    private static final long LIVE_TARGET_OFFSET_MS = 5_000;
+    private static final float LIVE_MIN_PLAYBACK_SPEED = 0.97f;
+    private static final float LIVE_MAX_PLAYBACK_SPEED = 1.03f;
+
+    // At most the preview player and the main player should ever be alive at the same time.
+    private static final int MAX_EXPECTED_ACTIVE_PLAYERS = 2;
+    // The active player counts are checked in the logs by the macrobenchmarks, which run minified
+    // builds, so they are logged under a literal tag rather than the obfuscated class name.
+    private static final String ACTIVE_PLAYERS_TAG = "ActivePlayers";
+
+    // The quality of players that are not focused, when sharing the screen with other players.
+    private static final int UNFOCUSED_MAX_VIDEO_WIDTH = 854;
+    private static final int UNFOCUSED_MAX_VIDEO_HEIGHT = 480;
+    private static final int UNFOCUSED_MAX_VIDEO_BITRATE = 1_000_000;
+    private static final AtomicInteger activePlayers = new AtomicInteger();
+
+    private static final int CONTENT_TYPE_UNKNOWN = -1;
+
+    // How much of the stream to prefetch ahead of a seek, a couple of segments.
+    private static final long PREFETCH_DURATION_MS = 8_000;
+
+    /**
+     * Creates the ExoPlayer of a video player, which allows the playback logic to be driven by a
+     * stand-in player.
+     */
+    interface PlayerFactory {
+        ExoPlayer createPlayer(Context context, LoadControl loadControl, Clock clock,
+                               @Nullable BandwidthMeter bandwidthMeter);
+    }
+
+    static final PlayerFactory DEFAULT_PLAYER_FACTORY = (context, loadControl, clock, bandwidthMeter) -> {
+        ExoPlayer.Builder builder = new ExoPlayer.Builder(context)
+                .setClock(clock)
+                .setLoadControl(loadControl);
+        if (bandwidthMeter != null) {
+            builder.setBandwidthMeter(bandwidthMeter);
+        }
+        return builder.build();
+    };
+
     private final Context context;
+    private final Clock clock;
+    private final PlayerFactory playerFactory;
+    private final PlaybackResources playbackResources;
 
     private ExoPlayer exoPlayer;
+    private ForwardingPlayer playerWrapper;
     private final PlayerView playerView;
     private VideoPlayerCallback playerCallback;
+    private PlaybackMetrics metrics;
+    private MemoryAwareLoadControl loadControl;
 
     private String streamUrl;
+    // One of the C.CONTENT_TYPE_* constants, or CONTENT_TYPE_UNKNOWN to infer it from the url.
+    private int streamContentType = CONTENT_TYPE_UNKNOWN;
+    private DataSource.Factory dataSourceFactory;
+    private SegmentPrefetcher segmentPrefetcher;
+    private List<StreamKey> streamKeys = Collections.emptyList();
     private Boolean streamRequested;
     private boolean canSeek;
+    private boolean liveStream;
+    private long liveAdBreakStartMs = C.TIME_UNSET;
+    private boolean detachedForEngagement;
+    private boolean videoDecoderReleased;
+
+    // As scheduled by the shared playback resources.
+    private boolean hasVideoDecoder = true;
+    private boolean reducedQuality;
+
+    // As configured for the stream.
+    private int maxVideoBitrate = Integer.MAX_VALUE;
+
+    // Records the player's state changes and position jumps, or null.
+    private PlaybackTrace trace;
+
+    // The priority of the player's loads, for the bandwidth arbiter.
+    private BandwidthArbiter.Priority requestPriority = BandwidthArbiter.Priority.PLAYBACK;
 
     private StreamManager streamManager;
     private Timeline timelineWithAds;
+    // The stream's ad breaks, mirrored from IMA's cue points, so that seeks and time conversions
+    // don't call into the SDK.
+    private CuePointTable cuePointTable = new CuePointTable();
+    private boolean offlineAdBreaks; // Whether the ad breaks come from a download rather than from IMA.
 
     public VideoPlayer(Context context, PlayerView playerView) {
+        this(context, playerView, null, Clock.DEFAULT);
+    }
+
+    /**
+     * Creates a video player that shares the bandwidth meter, segment cache and video decoders
+     * with the app's other players.
+     */
+    public VideoPlayer(Context context, PlayerView playerView, PlaybackResources playbackResources) {
+        this(context, playerView, playbackResources, Clock.DEFAULT);
+    }
+
+    /**
+     * Creates a video player whose ExoPlayer runs against the given clock, which allows playback
+     * flows to be replayed deterministically, e.g. with a fake clock.
+     * @param playbackResources - the shared playback resources, or null for a standalone player
+     */
+    VideoPlayer(Context context, PlayerView playerView, PlaybackResources playbackResources, Clock clock) {
+        this(context, playerView, playbackResources, clock, DEFAULT_PLAYER_FACTORY);
+    }
+
+    /**
+     * Creates a video player whose ExoPlayer is created by the given factory, e.g. a stand-in player
+     * for tests.
+     */
+    VideoPlayer(Context context, PlayerView playerView, PlaybackResources playbackResources, Clock clock,
+                PlayerFactory playerFactory) {
         this.context = context;
         this.playerView = playerView;
+        this.playbackResources = playbackResources;
+        this.clock = clock;
+        this.playerFactory = playerFactory;
         streamRequested = false;
         canSeek = true;
         initPlayer();
     }
 
     private long streamToContentMs(long position) {
-        if (position == C.TIME_UNSET || position == 0 || streamManager == null) return position;
-        return streamManager.getContentTimeMsForStreamTimeMs(position);
+        // Live streams have no content timeline separate from the stream.
+        if (position == C.TIME_UNSET || position == 0 || liveStream) return position;
+        if (streamManager != null || offlineAdBreaks) return cuePointTable.streamToContentMs(position);
+        return position;
     }
 
     private long contentToStreamMs(long position) {
-        if (position == C.TIME_UNSET || position == 0 || streamManager == null) return position;
-        return streamManager.getStreamTimeMsForContentTimeMs(position);
+        if (position == C.TIME_UNSET || position == 0 || liveStream) return position;
+        if (streamManager != null || offlineAdBreaks) return cuePointTable.contentToStreamMs(position);
+        return position;
     }
 
     static public String positionDisplay(long position) {
-        StringBuilder formatBuilder = new StringBuilder();
-        Formatter formatter = new Formatter(formatBuilder, Locale.getDefault());
-        String timeDisplay = Util.getStringForTime(formatBuilder, formatter, position);
-        return timeDisplay;
+        return TimeUtils.formatPosition(position);
     }
 
     static public void logPosition(String context, long position) {
         logPosition(context, position, C.TIME_UNSET);
     }
 
+    /**
+     * @return the number of players that were created and not yet released, across all screens.
+     */
+    static public int getActivePlayerCount() {
+        return activePlayers.get();
+    }
+
+    /**
+     * Logs the number of active players, and warns when players are leaking, i.e. when there are
+     * more than the screens should ever need.
+     */
+    static public void logActivePlayers(String context) {
+        int count = activePlayers.get();
+        if (count > MAX_EXPECTED_ACTIVE_PLAYERS) {
+            Log.w(ACTIVE_PLAYERS_TAG, context + ": " + count + " active players, players are leaking");
+        } else {
+            Log.i(ACTIVE_PLAYERS_TAG, context + ": " + count + " active players");
+        }
+    }
+
     static public String playerStateLabelOf(int state) {
         return switch (state) {
             case Player.STATE_IDLE -> "idle";
@@ -121,17 +260,7 @@ public class VideoPlayer {
     }
     
     static public void logPosition(String context, long position, long rawPosition) {
-        StringBuilder msg = new StringBuilder();
-        msg.append("*** ");
-        msg.append(context);
-        msg.append(": ");
-        msg.append(positionDisplay(position));
-        if (rawPosition != C.TIME_UNSET && position != rawPosition) {
-            msg.append(" (raw: ");
-            msg.append(positionDisplay(rawPosition));
-            msg.append(")");
-        }
-        Log.i(CLASSTAG, msg.toString());
+        Log.i(CLASSTAG, TimeUtils.formatPositionMessage(context, position, rawPosition));
     }
 
     private void reportAvailableCommands(String context) {
@@ -154,7 +283,20 @@ public class VideoPlayer {
     private void initPlayer() {
         release();
 
-        exoPlayer = new ExoPlayer.Builder(context).build();
+        loadControl = new MemoryAwareLoadControl();
+        exoPlayer = playerFactory.createPlayer(context, loadControl, clock,
+                playbackResources != null ? playbackResources.getBandwidthMeter() : null);
+        activePlayers.incrementAndGet();
+        if (playbackResources != null) {
+            playbackResources.register(this);
+            updateBufferReporting();
+        }
+        // Re-apply the stream's bitrate limit and the last schedule to the new player.
+        updateVideoTrackSelection();
+
+        // Collect QoE metrics for this playback session.
+        metrics = new PlaybackMetrics();
+        exoPlayer.addAnalyticsListener(metrics);
         reportAvailableCommands("initial");
 
         exoPlayer.addListener(new Player.Listener() {
@@ -166,10 +308,22 @@ public class VideoPlayer {
             @Override
             public void onPlaybackStateChanged(int playbackState) {
                 logPosition("playerStateChanged");
+                if (trace != null) {
+                    trace.record(PlaybackTrace.PLAYER_STATE, playbackState, exoPlayer.getCurrentPosition());
+                }
+            }
+
+            @Override
+            public void onPositionDiscontinuity(@NonNull Player.PositionInfo oldPosition,
+                                                @NonNull Player.PositionInfo newPosition, int reason) {
+                if (trace != null) {
+                    trace.record(PlaybackTrace.PLAYER_DISCONTINUITY, reason,
+                            oldPosition.positionMs, newPosition.positionMs);
+                }
             }
         });
 
-        ForwardingPlayer playerWrapper = new ForwardingPlayer(exoPlayer) {
+        playerWrapper = new ForwardingPlayer(exoPlayer) {
             @Override
             public void seekToDefaultPosition() {
                 seekToDefaultPosition(getCurrentMediaItemIndex());
@@ -288,7 +442,9 @@ public class VideoPlayer {
             logPosition("play");
             if (exoPlayer.getPlaybackState() == Player.STATE_IDLE) {
                 // Work around main player getting stopped due to Truex web view's own video playbacks.
-                // This can happen on some older 4K TVs.
+                // This can happen on some older 4K TVs. The engagement handoff normally avoids this,
+                // see detachForEngagement().
+                Log.w(CLASSTAG, "play: player went idle, preparing again");
                 exoPlayer.prepare();
             }
             exoPlayer.play();
@@ -296,9 +452,25 @@ public class VideoPlayer {
         }
 
         Log.i(CLASSTAG, "*** play: " + streamUrl);
-        DataSource.Factory dataSourceFactory = new DefaultDataSource.Factory(context);
-        int type = Util.inferContentType(Uri.parse(streamUrl));
-        MediaItem mediaItem = MediaItem.fromUri(Uri.parse(streamUrl));
+        metrics.onPlayRequested();
+        DataSource.Factory dataSourceFactory = this.dataSourceFactory;
+        if (dataSourceFactory == null) {
+            dataSourceFactory = playbackResources != null
+                    ? playbackResources.createDataSourceFactory(requestPriority) : new DefaultDataSource.Factory(context);
+        }
+        int type = streamContentType != CONTENT_TYPE_UNKNOWN
+                ? streamContentType : Util.inferContentType(Uri.parse(streamUrl));
+        MediaItem.Builder mediaItemBuilder = new MediaItem.Builder()
+                .setUri(Uri.parse(streamUrl))
+                .setStreamKeys(streamKeys);
+        if (liveStream) {
+            mediaItemBuilder.setLiveConfiguration(new MediaItem.LiveConfiguration.Builder()
+                    .setTargetOffsetMs(LIVE_TARGET_OFFSET_MS)
+                    .setMinPlaybackSpeed(LIVE_MIN_PLAYBACK_SPEED)
+                    .setMaxPlaybackSpeed(LIVE_MAX_PLAYBACK_SPEED)
+                    .build());
+        }
+        MediaItem mediaItem = mediaItemBuilder.build();
         MediaSource mediaSource;
         switch (type) {
             case C.CONTENT_TYPE_HLS:
@@ -352,16 +524,47 @@ public class VideoPlayer {
     }
 
     public void pause() {
+        if (exoPlayer == null) return;
         logPosition("pause");
         exoPlayer.pause();
     }
 
-    public void hide() {
-        playerView.setVisibility(View.GONE);
+    /**
+     * Hands the screen over to an engagement: pauses the player and detaches it from its view, while
+     * keeping it prepared with its buffers and decoders, so that attachAfterEngagement() can show the
+     * content again without re-preparing or rebuffering.
+     *
+     * The player view stays visible underneath the engagement, so its surface is not destroyed,
+     * which would force the video decoder to be reconfigured.
+     * @param releaseVideoDecoder - also releases the video decoder, for devices where the engagement's
+     *                            own video playback needs it. The video then rebuffers on resume.
+     */
+    public void detachForEngagement(boolean releaseVideoDecoder) {
+        if (exoPlayer == null || detachedForEngagement) return;
+        logPosition("detachForEngagement");
+        exoPlayer.pause();
+        playerView.setPlayer(null);
+        if (releaseVideoDecoder) {
+            // Disabling the video renderer releases its codec, the audio keeps its buffers.
+            videoDecoderReleased = true;
+            updateVideoTrackSelection();
+        }
+        detachedForEngagement = true;
     }
 
-    public void show() {
-        playerView.setVisibility(View.VISIBLE);
+    /**
+     * Reattaches the player to its view after an engagement. The player stays paused until play().
+     */
+    public void attachAfterEngagement() {
+        if (exoPlayer == null || !detachedForEngagement) return;
+        logPosition("attachAfterEngagement");
+        if (videoDecoderReleased) {
+            videoDecoderReleased = false;
+            updateVideoTrackSelection();
+        }
+        // Re-attaching the same surface lets the decoder carry on without being reconfigured.
+        playerView.setPlayer(playerWrapper);
+        detachedForEngagement = false;
     }
 
     public void seekTo(long positionMs) {
@@ -369,6 +572,15 @@ public class VideoPlayer {
         exoPlayer.seekTo(positionMs);
     }
 
+    /**
+     * Seeks to a position in content time, i.e. excluding the ads.
+     */
+    public void seekToContentPosition(long contentPositionMs) {
+        long streamPositionMs = contentToStreamMs(contentPositionMs);
+        logPosition("seekToContentPosition", contentPositionMs, streamPositionMs);
+        exoPlayer.seekTo(streamPositionMs);
+    }
+
     public void seekTo(int windowIndex, long positionMs) {
         logPosition("raw seekTo", positionMs);
         exoPlayer.seekTo(windowIndex, positionMs);
@@ -376,92 +588,412 @@ public class VideoPlayer {
 
     public void release() {
         if (exoPlayer != null) {
+            Log.i(CLASSTAG, "Session metrics: " + metrics.snapshot());
+            if (playbackResources != null) {
+                playbackResources.unregister(this);
+            }
+            loadControl.setBandwidthArbiter(null);
             exoPlayer.release();
+            if (playbackResources != null) {
+                // The playback thread is gone, so clear its last report itself.
+                playbackResources.getBandwidthArbiter().setBufferLow(loadControl, false);
+            }
+            if (segmentPrefetcher != null) {
+                segmentPrefetcher.release();
+                segmentPrefetcher = null;
+            }
             exoPlayer = null;
+            playerWrapper = null;
             streamRequested = false;
+            detachedForEngagement = false;
+            videoDecoderReleased = false;
+            activePlayers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Sets the priority of the player's loads from now on, e.g. UI for a preview. Only the buffers
+     * of PLAYBACK players hold back less important traffic when they run low.
+     */
+    public void setRequestPriority(BandwidthArbiter.Priority priority) {
+        requestPriority = priority;
+        updateBufferReporting();
+    }
+
+    private void updateBufferReporting() {
+        if (exoPlayer == null || playbackResources == null) return;
+        // A live buffer can't grow past the live edge, i.e. it stays around the target offset, and
+        // would throttle the other traffic for the whole session.
+        loadControl.setBandwidthArbiter(requestPriority == BandwidthArbiter.Priority.PLAYBACK && !liveStream
+                ? playbackResources.getBandwidthArbiter() : null);
+    }
+
+    /**
+     * Gives this player the focus among the players sharing the playback resources, i.e. a video
+     * decoder and its full quality.
+     */
+    public void requestPlaybackFocus() {
+        if (playbackResources != null && exoPlayer != null) {
+            playbackResources.setFocused(this);
         }
     }
 
+    /**
+     * Applies the shared playback resources' schedule to this player.
+     * @param hasVideoDecoder - whether the player may use a video decoder, otherwise it plays without video
+     * @param reducedQuality - whether the player is limited to a reduced video quality
+     */
+    void applySchedule(boolean hasVideoDecoder, boolean reducedQuality) {
+        if (this.hasVideoDecoder == hasVideoDecoder && this.reducedQuality == reducedQuality) return;
+        this.hasVideoDecoder = hasVideoDecoder;
+        this.reducedQuality = reducedQuality;
+        updateVideoTrackSelection();
+    }
+
+    private void updateVideoTrackSelection() {
+        if (exoPlayer == null) return;
+        TrackSelectionParameters.Builder parameters = exoPlayer.getTrackSelectionParameters().buildUpon()
+                .setTrackTypeDisabled(C.TRACK_TYPE_VIDEO, videoDecoderReleased || !hasVideoDecoder);
+        if (reducedQuality) {
+            parameters.setMaxVideoSize(UNFOCUSED_MAX_VIDEO_WIDTH, UNFOCUSED_MAX_VIDEO_HEIGHT)
+                    .setMaxVideoBitrate(Math.min(UNFOCUSED_MAX_VIDEO_BITRATE, maxVideoBitrate));
+        } else {
+            parameters.clearVideoSizeConstraints()
+                    .setMaxVideoBitrate(maxVideoBitrate);
+        }
+        exoPlayer.setTrackSelectionParameters(parameters.build());
+    }
+
+    /**
+     * @return the current playback position in content time, i.e. excluding the ads, or C.TIME_UNSET.
+     */
+    public long getContentPositionMs() {
+        if (exoPlayer == null || !streamRequested) return C.TIME_UNSET;
+        return streamToContentMs(exoPlayer.getCurrentPosition());
+    }
+
+    /**
+     * @return the memory held by the player's media buffer, in bytes.
+     */
+    public long getBufferedBytes() {
+        return exoPlayer != null ? loadControl.getAllocatedBytes() : 0;
+    }
+
+    /**
+     * Reduces the player's media buffer for the rest of the playback session, e.g. under memory pressure.
+     */
+    public void reduceBuffer() {
+        if (exoPlayer != null) loadControl.reduceBuffer();
+    }
+
     public void setStreamUrl(String streamUrl) {
+        setStreamUrl(streamUrl, CONTENT_TYPE_UNKNOWN);
+    }
+
+    /**
+     * @param contentType - the stream's C.CONTENT_TYPE_*, which selects the media source without
+     * inferring it from the url
+     */
+    public void setStreamUrl(String streamUrl, int contentType) {
         this.streamUrl = streamUrl;
+        this.streamContentType = contentType;
         streamRequested = false; // request new stream on play
     }
 
+    /**
+     * Limits the video bitrate, e.g. as configured for the stream.
+     * @param maxVideoBitrate - in bits per second, or 0 for no limit
+     */
+    public void setMaxVideoBitrate(int maxVideoBitrate) {
+        this.maxVideoBitrate = maxVideoBitrate > 0 ? maxVideoBitrate : Integer.MAX_VALUE;
+        updateVideoTrackSelection();
+    }
+
+    /**
+     * Sets where the stream's media is loaded from, e.g. a download cache, instead of the network.
+     * @param dataSourceFactory - the data source factory, or null for the default one
+     * @param streamKeys - the renditions to play, e.g. only the downloaded ones, or empty for all of them
+     */
+    public void setDataSource(DataSource.Factory dataSourceFactory, List<StreamKey> streamKeys) {
+        this.dataSourceFactory = dataSourceFactory;
+        this.streamKeys = streamKeys != null ? streamKeys : Collections.emptyList();
+    }
+
+    /**
+     * Sets the ad breaks of a downloaded stream, which is played without IMA, so that the player
+     * still shows content times and ad markers.
+     * @param startTimesMs - the ad breaks' start times in stream time, in ascending order
+     * @param endTimesMs - the ad breaks' end times in stream time
+     */
+    public void setOfflineAdBreaks(long[] startTimesMs, long[] endTimesMs) {
+        streamManager = null;
+        cuePointTable.clear();
+        for (int i = 0; i < startTimesMs.length; i++) {
+            cuePointTable.add(startTimesMs[i], endTimesMs[i], false);
+        }
+        offlineAdBreaks = true;
+        timelineWithAds = createContentTimeline();
+        refreshAdMarkers();
+    }
+
     public void setAdsTimeline(StreamManager withStreamManager) {
         if (streamManager == withStreamManager) return;
         this.streamManager = withStreamManager;
-        if (withStreamManager == null) {
-            this.timelineWithAds = null;
-        } else {
-            // Use a timeline that displays content times as opposed to the raw stream times.
-            // I.e. discount the ad time periods.
-            // NOTE: we don't use the ForwardingTimeline helper since the current timeline is a dynamic value.
-            this.timelineWithAds = new Timeline() {
-                @Override
-                public int getWindowCount() {
-                    return exoPlayer.getCurrentTimeline().getWindowCount();
-                }
+        offlineAdBreaks = false;
+        // The cue points are mirrored from the new stream manager's updates.
+        cuePointTable.clear();
+        this.timelineWithAds = withStreamManager != null ? createContentTimeline() : null;
+        refreshAdMarkers();
+    }
 
-                @Override
-                public Window getWindow(int windowIndex, Window window, long defaultPositionProjectionUs) {
-                    Window result = exoPlayer.getCurrentTimeline().getWindow(windowIndex, window, defaultPositionProjectionUs);
-                    if (result.durationUs != C.TIME_UNSET) {
-                        long streamDuration = exoPlayer.getDuration();
-                        long contentDuration = streamToContentMs(streamDuration);
-                        logPosition("getWindow duration", contentDuration, streamDuration);
-                        result.durationUs = Util.msToUs(contentDuration);
-                    }
-                    return result;
-                }
+    private Timeline createContentTimeline() {
+        // Use a timeline that displays content times as opposed to the raw stream times.
+        // I.e. discount the ad time periods.
+        // NOTE: we don't use the ForwardingTimeline helper since the current timeline is a dynamic value.
+        return new Timeline() {
+            @Override
+            public int getWindowCount() {
+                return exoPlayer.getCurrentTimeline().getWindowCount();
+            }
 
-                @Override
-                public int getPeriodCount() {
-                    return exoPlayer.getCurrentTimeline().getPeriodCount();
+            @Override
+            public Window getWindow(int windowIndex, Window window, long defaultPositionProjectionUs) {
+                Window result = exoPlayer.getCurrentTimeline().getWindow(windowIndex, window, defaultPositionProjectionUs);
+                if (result.durationUs != C.TIME_UNSET) {
+                    long streamDuration = exoPlayer.getDuration();
+                    long contentDuration = streamToContentMs(streamDuration);
+                    logPosition("getWindow duration", contentDuration, streamDuration);
+                    result.durationUs = Util.msToUs(contentDuration);
                 }
+                return result;
+            }
 
-                @Override
-                public Period getPeriod(int periodIndex, Period period, boolean setIds) {
-                    Period result = exoPlayer.getCurrentTimeline().getPeriod(periodIndex, period, setIds);
-                    if (result.durationUs != C.TIME_UNSET) {
-                        long streamDuration = exoPlayer.getDuration();
-                        long contentDuration = streamToContentMs(streamDuration);
-                        logPosition("getPeriod duration", contentDuration, streamDuration);
-                        result.durationUs = Util.msToUs(contentDuration);
-                    }
-                    return result;
-                }
+            @Override
+            public int getPeriodCount() {
+                return exoPlayer.getCurrentTimeline().getPeriodCount();
+            }
 
-                @Override
-                public int getIndexOfPeriod(Object uid) {
-                    return exoPlayer.getCurrentTimeline().getIndexOfPeriod(uid);
+            @Override
+            public Period getPeriod(int periodIndex, Period period, boolean setIds) {
+                Period result = exoPlayer.getCurrentTimeline().getPeriod(periodIndex, period, setIds);
+                if (result.durationUs != C.TIME_UNSET) {
+                    long streamDuration = exoPlayer.getDuration();
+                    long contentDuration = streamToContentMs(streamDuration);
+                    logPosition("getPeriod duration", contentDuration, streamDuration);
+                    result.durationUs = Util.msToUs(contentDuration);
                 }
+                return result;
+            }
 
-                @Override
-                public Object getUidOfPeriod(int periodIndex) {
-                    return exoPlayer.getCurrentTimeline().getUidOfPeriod(periodIndex);
-                }
-            };
-        }
-        refreshAdMarkers();
+            @Override
+            public int getIndexOfPeriod(Object uid) {
+                return exoPlayer.getCurrentTimeline().getIndexOfPeriod(uid);
+            }
+
+            @Override
+            public Object getUidOfPeriod(int periodIndex) {
+                return exoPlayer.getCurrentTimeline().getUidOfPeriod(periodIndex);
+            }
+        };
     }
 
     public void refreshAdMarkers() {
         long[] extraAdGroupTimesMs = null;
         boolean[] extraPlayedAdGroups = null;
-        if (streamManager != null) {
-            // Set up the ad markers.
-            List<CuePoint> adBreaks = streamManager.getCuePoints();
-            extraAdGroupTimesMs = new long[adBreaks.size()];
-            extraPlayedAdGroups = new boolean[adBreaks.size()];
-            for (int i = 0; i < adBreaks.size(); i++) {
-                CuePoint adBreak = adBreaks.get(i);
-                extraAdGroupTimesMs[i] = streamManager.getContentTimeMsForStreamTimeMs(adBreak.getStartTimeMs());
-                extraPlayedAdGroups[i] = adBreak.isPlayed();
+        if (liveStream) {
+            // Show the ad breaks still within the live window, relative to the window's start.
+            long windowStartMs = getLiveWindowStartMs();
+            if (windowStartMs != C.TIME_UNSET) {
+                cuePointTable.removeEndingBefore(windowStartMs);
+                extraAdGroupTimesMs = new long[cuePointTable.size()];
+                extraPlayedAdGroups = new boolean[cuePointTable.size()];
+                for (int i = 0; i < cuePointTable.size(); i++) {
+                    extraAdGroupTimesMs[i] = Math.max(0, cuePointTable.getStartTimeMs(i) - windowStartMs);
+                    extraPlayedAdGroups[i] = cuePointTable.isPlayed(i);
+                }
+            }
+        } else if (streamManager != null) {
+            extraAdGroupTimesMs = new long[cuePointTable.size()];
+            extraPlayedAdGroups = new boolean[cuePointTable.size()];
+            for (int i = 0; i < cuePointTable.size(); i++) {
+                extraAdGroupTimesMs[i] = streamManager.getContentTimeMsForStreamTimeMs(cuePointTable.getStartTimeMs(i));
+                extraPlayedAdGroups[i] = cuePointTable.isPlayed(i);
             }
+        } else if (offlineAdBreaks) {
+            // Without IMA, the content times are computed locally from the cue points.
+            extraAdGroupTimesMs = new long[cuePointTable.size()];
+            extraPlayedAdGroups = new boolean[cuePointTable.size()];
+            cuePointTable.fillAdMarkers(extraAdGroupTimesMs, extraPlayedAdGroups);
         }
         playerView.setExtraAdGroupMarkers(extraAdGroupTimesMs, extraPlayedAdGroups);
     }
 
+    /**
+     * Mirrors IMA's cue points into the local cue point table. Ad breaks that already ended
+     * locally stay played, in case IMA has not caught up with them yet.
+     */
+    void updateCuePoints(List<CuePoint> cuePoints) {
+        // Live ad breaks are recorded as they play.
+        if (liveStream) return;
+
+        // The table expects ascending start times, which IMA doesn't guarantee.
+        List<CuePoint> sortedCuePoints = new ArrayList<>(cuePoints);
+        Collections.sort(sortedCuePoints, (a, b) -> Long.compare(a.getStartTimeMs(), b.getStartTimeMs()));
+
+        CuePointTable updated = new CuePointTable();
+        for (int i = 0; i < sortedCuePoints.size(); i++) {
+            CuePoint cuePoint = sortedCuePoints.get(i);
+            long startTimeMs = cuePoint.getStartTimeMs();
+            updated.add(startTimeMs, cuePoint.getEndTimeMs(),
+                    cuePoint.isPlayed() || cuePointTable.isPlayedAt(startTimeMs));
+        }
+        cuePointTable = updated;
+        refreshAdMarkers();
+    }
+
+    /**
+     * Marks the ad break that just ended, or was just skipped, as played. Must be called before
+     * seeking away from its end.
+     * @return the duration of the ad break, or 0 if no ad break was marked.
+     */
+    long markAdBreakPlayed() {
+        if (liveStream || exoPlayer == null) return 0;
+        int i = cuePointTable.indexAtOrBefore(exoPlayer.getCurrentPosition());
+        if (i < 0 || cuePointTable.isPlayed(i)) return 0;
+        cuePointTable.setPlayed(i);
+        if (trace != null) {
+            trace.record(PlaybackTrace.CUE_POINT_PLAYED, 0, cuePointTable.getStartTimeMs(i));
+        }
+        return cuePointTable.getEndTimeMs(i) - cuePointTable.getStartTimeMs(i);
+    }
+
+    /**
+     * @return the stream's ad breaks, for planning seeks. Live ad breaks only appear once played.
+     */
+    CuePointTable getCuePointTable() {
+        return cuePointTable;
+    }
+
+    /**
+     * Loads the segments at the stream position into the segment cache in the background, so that
+     * a later seek to it does not have to wait for the network, e.g. the snap forward after an ad
+     * break. Only VOD HLS streams played through the shared cache are prefetched, from the
+     * currently selected variant.
+     */
+    void prefetch(long streamTimeMs) {
+        if (exoPlayer == null || liveStream || playbackResources == null || dataSourceFactory != null) return;
+        Object manifest = exoPlayer.getCurrentManifest();
+        if (!(manifest instanceof HlsManifest)) return;
+
+        // VOD stream times are relative to the start of the playlist.
+        HlsMediaPlaylist playlist = ((HlsManifest) manifest).mediaPlaylist;
+        long startUs = Util.msToUs(streamTimeMs);
+        long endUs = startUs + Util.msToUs(PREFETCH_DURATION_MS);
+        List<DataSpec> segments = new ArrayList<>();
+        for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+            if (segment.relativeStartTimeUs >= endUs) break;
+            if (segment.relativeStartTimeUs + segment.durationUs <= startUs) continue;
+            if (segments.isEmpty() && segment.initializationSegment != null) {
+                segments.add(segmentDataSpec(playlist, segment.initializationSegment));
+            }
+            segments.add(segmentDataSpec(playlist, segment));
+        }
+        if (segments.isEmpty()) return;
+
+        if (segmentPrefetcher == null) {
+            segmentPrefetcher = new SegmentPrefetcher(playbackResources);
+        }
+        segmentPrefetcher.prefetch(segments);
+    }
+
+    private static DataSpec segmentDataSpec(HlsMediaPlaylist playlist, HlsMediaPlaylist.Segment segment) {
+        return new DataSpec.Builder()
+                .setUri(UriUtil.resolveToUri(playlist.baseUri, segment.url))
+                .setPosition(segment.byteRangeOffset)
+                .setLength(segment.byteRangeLength)
+                .build();
+    }
+
+    /**
+     * @return the stream time at which the ad break being played ends, or C.TIME_UNSET if it is
+     * not known locally, e.g. for live streams.
+     */
+    long getCurrentAdBreakEndMs() {
+        if (liveStream || exoPlayer == null) return C.TIME_UNSET;
+        int i = cuePointTable.indexContaining(exoPlayer.getCurrentPosition());
+        return i >= 0 ? cuePointTable.getEndTimeMs(i) : C.TIME_UNSET;
+    }
+
+    /**
+     * Live streams don't report cue points up front, so we record their ad breaks as they play,
+     * in period time, which unlike the window position doesn't shift as the live window slides.
+     */
+    void onLiveAdBreakStarted() {
+        if (!liveStream) return;
+        liveAdBreakStartMs = getPeriodPositionMs();
+    }
+
+    void onLiveAdBreakEnded() {
+        if (!liveStream || liveAdBreakStartMs == C.TIME_UNSET) return;
+        long endMs = getPeriodPositionMs();
+        if (endMs != C.TIME_UNSET && endMs >= liveAdBreakStartMs) {
+            cuePointTable.add(liveAdBreakStartMs, endMs, true);
+        }
+        liveAdBreakStartMs = C.TIME_UNSET;
+    }
+
+    /**
+     * @return the playback position within the current period, or C.TIME_UNSET if unknown.
+     */
+    private long getPeriodPositionMs() {
+        long windowStartMs = getLiveWindowStartMs();
+        if (windowStartMs == C.TIME_UNSET) return C.TIME_UNSET;
+        return windowStartMs + exoPlayer.getCurrentPosition();
+    }
+
+    /**
+     * @return the start of the current live window within its period, or C.TIME_UNSET if unknown.
+     */
+    private long getLiveWindowStartMs() {
+        if (exoPlayer == null) return C.TIME_UNSET;
+        Timeline currentTimeline = exoPlayer.getCurrentTimeline();
+        if (currentTimeline.isEmpty()) return C.TIME_UNSET;
+        Timeline.Window window = currentTimeline.getWindow(exoPlayer.getCurrentMediaItemIndex(), new Timeline.Window());
+        return window.getPositionInFirstPeriodMs();
+    }
+
+    /**
+     * For multi-period streams, e.g. DASH pod serving streams where every ad pod is a separate period,
+     * finds the period boundary closest to the given stream position.
+     * @return the start of the period within the tolerance of the position, or C.TIME_UNSET if none.
+     */
+    long getPeriodStartNearMs(long positionMs, long toleranceMs) {
+        if (exoPlayer == null) return C.TIME_UNSET;
+        Timeline timeline = exoPlayer.getCurrentTimeline();
+        if (timeline.getPeriodCount() <= 1) return C.TIME_UNSET;
+
+        Timeline.Window window = timeline.getWindow(exoPlayer.getCurrentMediaItemIndex(), new Timeline.Window());
+        Timeline.Period period = new Timeline.Period();
+        long result = C.TIME_UNSET;
+        long closestDistanceMs = toleranceMs;
+        for (int i = window.firstPeriodIndex; i <= window.lastPeriodIndex; i++) {
+            long startMs = timeline.getPeriod(i, period).getPositionInWindowMs();
+            long distanceMs = Math.abs(startMs - positionMs);
+            if (distanceMs <= closestDistanceMs) {
+                closestDistanceMs = distanceMs;
+                result = startMs;
+            }
+        }
+        return result;
+    }
+
+    public void setLiveStream(boolean liveStream) {
+        this.liveStream = liveStream;
+        cuePointTable.clear();
+        liveAdBreakStartMs = C.TIME_UNSET;
+        updateBufferReporting();
+    }
+
     public boolean isPlayingAd() {
         return streamManager != null && streamManager.getAdProgressInfo() != null;
     }
@@ -481,6 +1013,44 @@ public class VideoPlayer {
         playerView.requestFocus();
     }
 
+    void setPlaybackTrace(PlaybackTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Fills in the player's part of a debug HUD sample.
+     * @return false if the player is released.
+     */
+    boolean fillDebugSample(DebugHud.Sample sample) {
+        if (exoPlayer == null) return false;
+        sample.streamPositionMs = exoPlayer.getCurrentPosition();
+        sample.contentPositionMs = getContentPositionMs();
+        sample.bufferedDurationMs = exoPlayer.getTotalBufferedDuration();
+        sample.bufferedBytes = loadControl.getAllocatedBytes();
+        Format videoFormat = exoPlayer.getVideoFormat();
+        sample.videoBitrate = videoFormat != null ? videoFormat.bitrate : Format.NO_VALUE;
+        sample.bandwidthEstimate = playbackResources != null
+                ? playbackResources.getBandwidthMeter().getBitrateEstimate() : Format.NO_VALUE;
+
+        // Live ad breaks are kept in period time, the others in stream time.
+        long cuePointTimeMs = liveStream ? getPeriodPositionMs() : sample.streamPositionMs;
+        sample.cuePointCount = cuePointTable.size();
+        sample.cuePointIndex = cuePointTimeMs != C.TIME_UNSET ? cuePointTable.indexAtOrBefore(cuePointTimeMs) : -1;
+        if (sample.cuePointIndex >= 0) {
+            sample.cuePointStartMs = cuePointTable.getStartTimeMs(sample.cuePointIndex);
+            sample.cuePointEndMs = cuePointTable.getEndTimeMs(sample.cuePointIndex);
+        }
+        sample.metrics = metrics.snapshot();
+        return true;
+    }
+
+    /**
+     * @return the QoE metrics of the current playback session.
+     */
+    public PlaybackMetrics getMetrics() {
+        return metrics;
+    }
+
     public boolean isStreamRequested() {
         return streamRequested;
     }
@@ -496,6 +1066,8 @@ public class VideoPlayer {
 
     /**
      * Returns current position of the playhead in milliseconds for DASH and HLS stream.
+     * For live streams, this is the window's wall clock time, which can't be compared with the
+     * period times of the cue point table.
      */
     public long getCurrentPositionMs() {
         if (exoPlayer == null) return 0;
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 import android.view.ViewGroup;
 
+import androidx.media3.common.C;
 import androidx.media3.ui.PlayerView;
 
 import com.google.ads.interactivemedia.v3.api.Ad;
@@ -22,8 +23,15 @@ import com.google.ads.interactivemedia.v3.api.StreamManager;
 import com.google.ads.interactivemedia.v3.api.StreamRequest;
 import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
 import com.google.ads.interactivemedia.v3.api.player.VideoStreamPlayer;
+import androidx.media3.datasource.DataSource;
+
+import com.truex.googlereferenceapp.analytics.AnalyticsReporter;
+import com.truex.googlereferenceapp.download.StreamDownloads;
 import com.truex.googlereferenceapp.home.StreamConfiguration;
+import com.truex.googlereferenceapp.metrics.PlaybackMetrics;
+import com.truex.googlereferenceapp.player.ads.AdClassifier;
 import com.truex.googlereferenceapp.player.ads.TruexAdManager;
+import com.truex.googlereferenceapp.trace.PlaybackTrace;
 
 import org.json.JSONObject;
 
@@ -34,6 +42,13 @@ import java.util.List;
 public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListener, AdErrorEvent.AdErrorListener, AdsLoader.AdsLoadedListener {
     private static final String CLASSTAG = VideoPlayerWithAds.class.getSimpleName();
 
+    // How far the end of an ad break, according to IMA, may be off from the matching period boundary.
+    private static final long PERIOD_BOUNDARY_TOLERANCE_MS = 2000;
+
+    // Whether to release the video decoder for the duration of an engagement, e.g. for devices that
+    // can't decode the engagement's video alongside the stream. Costs a rebuffer when resuming.
+    private static final boolean RELEASE_VIDEO_DECODER_FOR_ENGAGEMENT = false;
+
     // The stream configuration for the selected content
     // The Video ID and Content ID are used to initialize the stream with the IMA SDK
     // These values should be set based on your stream
@@ -45,39 +60,118 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
     private VideoPlayer videoPlayer;
 
     final private ImaSdkFactory sdkFactory;
+    final private AdUiFactory adUiFactory;
     private AdsLoader adsLoader;
     private StreamDisplayContainer displayContainer;
     private StreamManager streamManager;
     private List<VideoStreamPlayer.VideoStreamPlayerCallback> playerCallbacks;
 
-    private long resumePositionAfterSnapbackMs; // Stream time to snap back to, in milliseconds.
+    // Tracks whether we are in content, an ad break, an Infillion engagement, etc.
+    private final PlaybackStateMachine stateMachine;
 
-    private boolean didSeekPastAdBreak;
+    // Plans the snapbacks of user seeks over unplayed ad breaks, and where to resume after them.
+    private final SeekPlanner seekPlanner = new SeekPlanner();
+
+    // Content time to resume the stream from once it is loaded, e.g. when the screen is restarted.
+    private long startContentPositionMs = C.TIME_UNSET;
 
     // The renderer that drives the Infillion (true[X] or IDVx) engagement experience
     private TruexAdManager truexAdManager;
 
     private SeekPosition lastAdEndTime;
 
+    // Records the IMA and Infillion ad events, and the session metrics
+    final private AnalyticsReporter analyticsReporter;
+
+    // Records the playback events for offline replay, or null.
+    private PlaybackTrace trace;
+
+    // A downloaded stream to play instead of requesting one from IMA, and where to read it from.
+    private StreamDownloads.OfflineStream offlineStream;
+    private DataSource.Factory offlineDataSourceFactory;
+
+    // Notified once the stitched stream and its ad breaks are known, e.g. to download the stream.
+    private StitchedStreamListener stitchedStreamListener;
+    private String stitchedStreamUrl;
+
+    interface StitchedStreamListener {
+        void onStitchedStreamLoaded(String streamUrl, List<CuePoint> cuePoints);
+    }
+
+    /**
+     * Creates the ad UI, i.e. IMA's display container and the Infillion engagements, which allows
+     * the ad playback logic to be driven without the IMA SDK's views or the ad renderer.
+     */
+    interface AdUiFactory {
+        StreamDisplayContainer createStreamDisplayContainer(ViewGroup adUiContainer, VideoStreamPlayer videoStreamPlayer);
+
+        TruexAdManager createTruexAdManager(Context context, PlaybackHandler playbackHandler, PlaybackMetrics metrics,
+                                            AnalyticsReporter analyticsReporter, PlaybackTrace trace);
+    }
+
+    static final AdUiFactory DEFAULT_AD_UI_FACTORY = new AdUiFactory() {
+        @Override
+        public StreamDisplayContainer createStreamDisplayContainer(ViewGroup adUiContainer,
+                                                                   VideoStreamPlayer videoStreamPlayer) {
+            return ImaSdkFactory.createStreamDisplayContainer(adUiContainer, videoStreamPlayer);
+        }
+
+        @Override
+        public TruexAdManager createTruexAdManager(Context context, PlaybackHandler playbackHandler,
+                                                   PlaybackMetrics metrics, AnalyticsReporter analyticsReporter,
+                                                   PlaybackTrace trace) {
+            return new TruexAdManager(context, playbackHandler, metrics, analyticsReporter, trace);
+        }
+    };
+
     /**
      * Creates a new VideoPlaybackManager that implements IMA direct-ad-insertion.
      * @param context the app's context.
      * @param playerView the playerview videos will be displayed in
      * @param adUiContainer ViewGroup in which to display the ad's UI.
+     * @param playbackResources the playback resources shared with the app's other players.
+     * @param analyticsReporter the reporter for ad events and session metrics, or null.
      */
     VideoPlayerWithAds(Context context,
                        StreamConfiguration streamConfiguration,
                        PlayerView playerView,
-                       ViewGroup adUiContainer) {
-        this.videoPlayer = new VideoPlayer(context, playerView);
+                       ViewGroup adUiContainer,
+                       PlaybackResources playbackResources,
+                       AnalyticsReporter analyticsReporter) {
+        this(context, streamConfiguration, new VideoPlayer(context, playerView, playbackResources), adUiContainer,
+                ImaSdkFactory.getInstance(), DEFAULT_AD_UI_FACTORY, analyticsReporter);
+    }
+
+    /**
+     * Creates a new VideoPlaybackManager around an existing video player, IMA SDK factory and ad UI.
+     * This allows the ad playback logic to be driven by stand-ins for the player and the IMA SDK.
+     */
+    VideoPlayerWithAds(Context context,
+                       StreamConfiguration streamConfiguration,
+                       VideoPlayer videoPlayer,
+                       ViewGroup adUiContainer,
+                       ImaSdkFactory sdkFactory,
+                       AdUiFactory adUiFactory,
+                       AnalyticsReporter analyticsReporter) {
+        this.videoPlayer = videoPlayer;
+        this.analyticsReporter = analyticsReporter;
         this.streamConfiguration = streamConfiguration;
         this.context = context;
         this.adUiContainer = adUiContainer;
         this.playerCallbacks = new ArrayList<>();
-        this.sdkFactory = ImaSdkFactory.getInstance();
+        this.sdkFactory = sdkFactory;
+        this.adUiFactory = adUiFactory;
+        videoPlayer.setLiveStream(streamConfiguration.isLive());
+        videoPlayer.setMaxVideoBitrate(streamConfiguration.getMaxBitrate());
+        seekPlanner.setPolicy(getSnapbackPolicy(streamConfiguration));
+        this.stateMachine = new PlaybackStateMachine();
+        stateMachine.setListener((from, event, to) -> {
+            Log.i(CLASSTAG, "Playback state: " + from + " -> " + to + " on " + event);
+            trace(PlaybackTrace.STATE_TRANSITION, event.ordinal(), from.ordinal(), to.ordinal());
+        });
         ImaSdkSettings settings = sdkFactory.createImaSdkSettings();
         VideoStreamPlayer videoStreamPlayer = createVideoStreamPlayer();
-        this.displayContainer = ImaSdkFactory.createStreamDisplayContainer(adUiContainer, videoStreamPlayer);
+        this.displayContainer = adUiFactory.createStreamDisplayContainer(adUiContainer, videoStreamPlayer);
         videoPlayer.setCallback(
                 new VideoPlayerCallback() {
                     @Override
@@ -89,21 +183,32 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
 
                     @Override
                     public void onSeek(int windowIndex, long streamPositionMs) {
-                        long allowedPositionMs = streamPositionMs;
-                        if (streamManager != null) {
-                            CuePoint cuePoint = streamManager.getPreviousCuePointForStreamTimeMs(streamPositionMs);
-                            if (cuePoint != null && !cuePoint.isPlayed()) {
-                                resumePositionAfterSnapbackMs = streamPositionMs; // Update snap back time.
-                                // Missed cue point, so snap back to the beginning of cue point.
-                                allowedPositionMs = cuePoint.getStartTimeMs();
-                                Log.i(CLASSTAG, "Ad snapback to " + VideoPlayer.positionDisplay(allowedPositionMs)
-                                        + " for " + VideoPlayer.positionDisplay(streamPositionMs));
-                                videoPlayer.seekTo(windowIndex, allowedPositionMs);
-                                videoPlayer.setCanSeek(false);
-                                return;
-                            }
+                        if (!stateMachine.isIn(PlaybackStateMachine.State.CONTENT)) {
+                            // Only user seeks within the content are allowed.
+                            Log.i(CLASSTAG, "Ignoring seek in state " + stateMachine.getState());
+                            trace(PlaybackTrace.USER_SEEK, PlaybackTrace.SEEK_IGNORED, streamPositionMs, streamPositionMs);
+                            return;
                         }
+                        if (streamConfiguration.isLive()) {
+                            // Live ad breaks are only recorded once played, in period time, while the
+                            // playhead is in the window's wall clock time, so there is nothing to snap back to.
+                            trace(PlaybackTrace.USER_SEEK, PlaybackTrace.SEEK_ALLOWED, streamPositionMs, streamPositionMs);
+                            videoPlayer.seekTo(windowIndex, streamPositionMs);
+                            return;
+                        }
+                        long allowedPositionMs = seekPlanner.plan(videoPlayer.getCuePointTable(),
+                                videoPlayer.getCurrentPositionMs(), streamPositionMs);
+                        if (seekPlanner.isPending()) {
+                            stateMachine.fire(PlaybackStateMachine.Event.SNAPBACK);
+                            // Missed cue point, so snap back to the beginning of cue point.
+                            Log.i(CLASSTAG, "Ad snapback to " + VideoPlayer.positionDisplay(allowedPositionMs)
+                                    + " for " + VideoPlayer.positionDisplay(streamPositionMs));
+                        }
+                        trace(PlaybackTrace.USER_SEEK,
+                                allowedPositionMs != streamPositionMs ? PlaybackTrace.SEEK_SNAPBACK : PlaybackTrace.SEEK_ALLOWED,
+                                streamPositionMs, allowedPositionMs);
                         videoPlayer.seekTo(windowIndex, allowedPositionMs);
+                        prefetchNextSeek();
                     }
                 });
         adsLoader = sdkFactory.createAdsLoader(context, settings, displayContainer);
@@ -113,15 +218,78 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
      * Builds the stream request and begins playback of the requested stream
      */
     void requestAndPlayStream() {
+        // The main stream gets the full quality over any other player on screen.
+        videoPlayer.requestPlaybackFocus();
+
         // Enable controls for the video player
         videoPlayer.enableControls(true);
 
+        // Hold back analytics uploads while the stream is playing
+        if (analyticsReporter != null) analyticsReporter.setPlaybackActive(true);
+
+        if (offlineStream != null) {
+            // The ads are part of the downloaded stream, so there is nothing to request from IMA.
+            Log.i(CLASSTAG, "Playing downloaded stream: " + offlineStream.getUrl());
+            videoPlayer.setDataSource(offlineDataSourceFactory, offlineStream.getStreamKeys());
+            videoPlayer.setOfflineAdBreaks(offlineStream.getAdBreakStartTimesMs(), offlineStream.getAdBreakEndTimesMs());
+            videoPlayer.setStreamUrl(offlineStream.getUrl(), streamConfiguration.getFormat().getContentType());
+            videoPlayer.play();
+            if (startContentPositionMs > 0) {
+                videoPlayer.seekToContentPosition(startContentPositionMs);
+            }
+            startContentPositionMs = C.TIME_UNSET;
+            return;
+        }
+
         // Request the stream
         adsLoader.addAdErrorListener(this);
         adsLoader.addAdsLoadedListener(this);
         adsLoader.requestStream(buildStreamRequest());
     }
 
+    /**
+     * Plays a downloaded stream, with its persisted ad breaks, rather than requesting one from IMA.
+     * @param dataSourceFactory - reads the downloaded segments
+     */
+    void setOfflineStream(StreamDownloads.OfflineStream offlineStream, DataSource.Factory dataSourceFactory) {
+        this.offlineStream = offlineStream;
+        this.offlineDataSourceFactory = dataSourceFactory;
+    }
+
+    void setStitchedStreamListener(StitchedStreamListener listener) {
+        this.stitchedStreamListener = listener;
+    }
+
+    /**
+     * Resumes the stream from the content position once it is loaded, rather than from its start.
+     * Only applies to VOD streams, live streams always start at the live edge.
+     */
+    void setStartContentPositionMs(long contentPositionMs) {
+        startContentPositionMs = contentPositionMs;
+    }
+
+    /**
+     * @return the current playback position in content time, or C.TIME_UNSET, e.g. for live streams.
+     */
+    long getContentPositionMs() {
+        if (videoPlayer == null || streamConfiguration.isLive()) return C.TIME_UNSET;
+        return videoPlayer.getContentPositionMs();
+    }
+
+    /**
+     * @return the memory held by the video player's media buffer, in bytes.
+     */
+    long getBufferedBytes() {
+        return videoPlayer != null ? videoPlayer.getBufferedBytes() : 0;
+    }
+
+    /**
+     * Reduces the video player's media buffer, e.g. under memory pressure.
+     */
+    void reduceBuffer() {
+        if (videoPlayer != null) videoPlayer.reduceBuffer();
+    }
+
     /**
      * Destroys and releases the video player and stream manager
      */
@@ -141,22 +309,34 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
 
         // Clean-up the video player
         if (videoPlayer != null) {
+            if (analyticsReporter != null) {
+                analyticsReporter.report("session", "metrics", videoPlayer.getMetrics().snapshot().toJSON());
+            }
             videoPlayer.release();
             videoPlayer = null;
         }
 
+        stateMachine.reset();
+        seekPlanner.reset();
+        lastAdEndTime = null;
+
         if (adsLoader != null) {
             adsLoader.release();
             adsLoader = null;
         }
+
+        // Playback is over, upload the recorded events
+        if (analyticsReporter != null) analyticsReporter.setPlaybackActive(false);
     }
 
     /**
      * Resumes playback of the video player
      */
     void resume() {
+        if (analyticsReporter != null) analyticsReporter.setPlaybackActive(true);
+
         // Resume the current ad -- if active
-        if (truexAdManager != null) {
+        if (stateMachine.isIn(PlaybackStateMachine.State.ENGAGEMENT)) {
             truexAdManager.resume();
             return;
         }
@@ -172,8 +352,11 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
      * Pauses playback of the video player
      */
     void pause() {
+        // Use the time away from playback to upload the recorded events
+        if (analyticsReporter != null) analyticsReporter.setPlaybackActive(false);
+
         // Pause the current ad -- if active
-        if (truexAdManager != null) {
+        if (stateMachine.isIn(PlaybackStateMachine.State.ENGAGEMENT)) {
             truexAdManager.pause();
             return;
         }
@@ -184,19 +367,135 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
         }
     }
 
+    /**
+     * Records the playback events of this session to the trace, for offline replay.
+     */
+    void setPlaybackTrace(PlaybackTrace trace) {
+        this.trace = trace;
+        videoPlayer.setPlaybackTrace(trace);
+        trace(PlaybackTrace.SESSION_STARTED, streamConfiguration.isLive() ? 1 : 0, 0, 0);
+        traceSnapbackPolicy();
+    }
+
+    private static SnapbackPolicy getSnapbackPolicy(StreamConfiguration streamConfiguration) {
+        switch (streamConfiguration.getAdPolicy()) {
+            case ALL_UNPLAYED_BREAKS:
+                return SnapbackPolicy.ALL_UNPLAYED_BREAKS;
+            case NONE:
+                return SnapbackPolicy.NONE;
+            case PLAYED_BUDGET:
+                return SnapbackPolicy.playedBudget(streamConfiguration.getAdBudgetMs());
+            default:
+                return SnapbackPolicy.LATEST_BREAK_ONLY;
+        }
+    }
+
+    /**
+     * Sets which unplayed ad breaks a user seek has to play, as configured for the stream by default.
+     */
+    void setSnapbackPolicy(SnapbackPolicy policy) {
+        seekPlanner.setPolicy(policy);
+        traceSnapbackPolicy();
+    }
+
+    private void traceSnapbackPolicy() {
+        SnapbackPolicy policy = seekPlanner.getPolicy();
+        trace(PlaybackTrace.SNAPBACK_POLICY, policy.getType().ordinal(), policy.getBudgetMs(), 0);
+    }
+
+    /**
+     * Buffers the snapback's next seek target while the ad break plays, so that the seek does not
+     * stall playback a second time.
+     */
+    private void prefetchNextSeek() {
+        long nextSeekMs = seekPlanner.peekNextSeekMs();
+        if (nextSeekMs != SeekPlanner.NO_SEEK) {
+            videoPlayer.prefetch(nextSeekMs);
+        }
+    }
+
+    private void trace(int type, int arg, long value1, long value2) {
+        if (trace != null) trace.record(type, arg, value1, value2);
+    }
+
+    private void traceCuePoints(List<CuePoint> cuePoints) {
+        if (trace == null) return;
+        trace.record(PlaybackTrace.CUE_POINTS, cuePoints.size());
+        for (CuePoint cuePoint : cuePoints) {
+            trace.record(PlaybackTrace.CUE_POINT, cuePoint.isPlayed() ? 1 : 0,
+                    cuePoint.getStartTimeMs(), cuePoint.getEndTimeMs());
+        }
+    }
+
+    /**
+     * Fills in a debug HUD sample.
+     * @return false if the player is released.
+     */
+    boolean fillDebugSample(DebugHud.Sample sample) {
+        // The video player is gone once released, e.g. after an ad error.
+        if (videoPlayer == null || !videoPlayer.fillDebugSample(sample)) return false;
+        sample.playbackState = stateMachine.getState().name();
+        return true;
+    }
+
+    /**
+     * @return the current playback state, i.e. content, ad break, engagement, etc.
+     */
+    PlaybackStateMachine.State getPlaybackState() {
+        return stateMachine.getState();
+    }
+
     /**
      * Creates a Stream Request from the requested stream configuration
      * This method also sets up the Display Container for video playback
      * @return the new Stream Request that will be used to begin playback
      */
     private StreamRequest buildStreamRequest() {
+        StreamRequest request = createStreamRequest();
+        // IMA serves HLS unless asked otherwise.
+        if (streamConfiguration.getFormat() == StreamConfiguration.Format.DASH) {
+            request.setFormat(StreamRequest.StreamFormat.DASH);
+        }
+        return request;
+    }
+
+    private StreamRequest createStreamRequest() {
         // Create the stream request
+        if (streamConfiguration.isPodServing()) {
+            // The ad pods are stitched in as separate periods, see onStreamInitialized()
+            if (streamConfiguration.isLive()) {
+                return sdkFactory.createPodStreamRequest(streamConfiguration.getNetworkCode(),
+                        streamConfiguration.getAssetKey(), null);
+            }
+            return sdkFactory.createVodPodStreamRequest(streamConfiguration.getNetworkCode());
+        }
+        if (streamConfiguration.isLive()) {
+            return sdkFactory.createLiveStreamRequest(streamConfiguration.getAssetKey(), null);
+        }
         return sdkFactory.createVodStreamRequest(
                 streamConfiguration.getContentID(),
                 streamConfiguration.getVideoID(),
                 null);
     }
 
+    /**
+     * Loads the stitched stream once IMA has initialized a pod serving stream.
+     * The ad pods are separate periods in the stitched manifest, so that ExoPlayer can preload the
+     * next period and transition between content and ads without gaps.
+     */
+    private void onStreamInitialized() {
+        if (!streamConfiguration.isPodServing()) return;
+
+        String streamUrl = streamConfiguration.getPodManifestURL().replace("[[STREAMID]]", streamManager.getStreamId());
+        if (streamConfiguration.isLive()) {
+            videoPlayer.setStreamUrl(streamUrl, streamConfiguration.getFormat().getContentType());
+            videoPlayer.play();
+        } else {
+            // IMA calls loadUrl() with the stream, once it has the ad timing for it.
+            streamManager.loadThirdPartyStream(streamUrl, null);
+        }
+    }
+
     /**
      * Handles the ad started event
      * If the ad is a true[X] or IDVx placeholder ad, we will display the appropriate interactive ad
@@ -215,44 +514,30 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
         lastAdEndTime.addSeconds(ad.getDuration());
 
         // [1] - Look for Infillion ads (both TrueX and IDVx)
-        String adSystem = ad.getAdSystem();
-        boolean isTrueX = "trueX".equals(adSystem);
-        boolean isIDVx = "IDVx".equals(adSystem);
-        if (!isTrueX && !isIDVx) return; // not an Infillion ad
-
         // [2] - Get ad parameters
-        // The ad description contains the Infillion vast config url
-        String vastConfigUrl = ad.getDescription();
-        JSONObject params = null;
-
-        // Try to get trafficking parameters if available
-        try {
-            String traffickingParams = ad.getTraffickingParameters();
-            if (traffickingParams != null && !traffickingParams.isEmpty()) {
-                params = new JSONObject(traffickingParams);
-            }
-        } catch (Exception e) {
-            // Trafficking parameters not available or not valid JSON
-        }
+        // The classification, including the parsed ad parameters, is cached per creative.
+        AdClassifier.Classification classification = AdClassifier.getInstance().classify(ad);
+        if (!classification.isInfillionAd()) return; // not an Infillion ad, or no valid configuration found
 
-        // Validate we have either valid parameters or a valid VAST URL
-        if (params == null && (vastConfigUrl == null || !vastConfigUrl.contains("get.truex.com"))) {
-            return; // No valid configuration found
-        }
+        // Ignore the placeholder if an engagement is already underway for this ad break.
+        if (!stateMachine.fire(PlaybackStateMachine.Event.ENGAGEMENT_STARTED)) return;
 
         // [3] - Prepare to enter the engagement
-        // Pause the underlying stream, in order to present the Infillion experience
-        videoPlayer.pause();
-        videoPlayer.hide();
+        // Pause the underlying stream, in order to present the Infillion experience.
+        // The player stays prepared, so that the stream can resume without rebuffering.
+        videoPlayer.detachForEngagement(RELEASE_VIDEO_DECODER_FOR_ENGAGEMENT);
 
         // [4] - Start the Infillion engagement (TrueX or IDVx)
-        truexAdManager = new TruexAdManager(context, this);
+        videoPlayer.getMetrics().onEngagementStarted();
+        truexAdManager = adUiFactory.createTruexAdManager(context, this, videoPlayer.getMetrics(),
+                analyticsReporter, trace);
 
         // Initialize with params if available, otherwise use VAST URL
+        JSONObject params = classification.getParams();
         if (params != null) {
-            truexAdManager.startAd(adUiContainer, params, isIDVx);
+            truexAdManager.startAd(adUiContainer, params, classification.isIDVx());
         } else {
-            truexAdManager.startAd(adUiContainer, vastConfigUrl, isIDVx);
+            truexAdManager.startAd(adUiContainer, classification.getVastConfigUrl(), classification.isIDVx());
         }
     }
 
@@ -267,8 +552,17 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
         return new VideoStreamPlayer() {
             @Override
             public void loadUrl(String url, List<HashMap<String, String>> subtitles) {
-                videoPlayer.setStreamUrl(url);
+                stitchedStreamUrl = url;
+                videoPlayer.setStreamUrl(url, streamConfiguration.getFormat().getContentType());
                 videoPlayer.play();
+
+                // Bookmarking: the new stream session has the same content, but may have different ads.
+                if (startContentPositionMs > 0 && streamManager != null && !streamConfiguration.isLive()) {
+                    long streamPositionMs = streamManager.getStreamTimeMsForContentTimeMs(startContentPositionMs);
+                    trace(PlaybackTrace.APP_SEEK, PlaybackTrace.SEEK_BOOKMARK, streamPositionMs, 0);
+                    videoPlayer.seekTo(streamPositionMs);
+                }
+                startContentPositionMs = C.TIME_UNSET;
             }
 
             public void pause() {
@@ -297,6 +591,10 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
             @Override
             public void onAdBreakStarted() {
                 Log.i(CLASSTAG, "Ad Break Started");
+                if (!stateMachine.fire(PlaybackStateMachine.Event.AD_BREAK_STARTED)) return;
+
+                videoPlayer.getMetrics().onAdBreakStarted();
+                videoPlayer.onLiveAdBreakStarted();
 
                 // Disable player controls
                 videoPlayer.enableControls(false);
@@ -307,18 +605,10 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
             @Override
             public void onAdBreakEnded() {
                 Log.i(CLASSTAG, "Ad Break Ended");
+                if (!stateMachine.fire(PlaybackStateMachine.Event.AD_BREAK_ENDED)) return;
 
-                if (resumePositionAfterSnapbackMs > 0) {
-                    videoPlayer.seekTo(resumePositionAfterSnapbackMs);
-                }
-                resumePositionAfterSnapbackMs = 0;
-
-                videoPlayer.refreshAdMarkers();
-
-                // Re-enable player controls
-                videoPlayer.enableControls(true);
-
-                lastAdEndTime = null;
+                videoPlayer.onLiveAdBreakEnded();
+                concludeAdBreak();
             }
 
             @Override
@@ -341,53 +631,118 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
         };
     }
 
+    /**
+     * Restores content playback once an ad break is over. If the ad break was the result of a
+     * snapback, continues with the next planned ad break, or snaps forward to the user's original
+     * seek target.
+     */
+    private void concludeAdBreak() {
+        // Before the snap forward, while the position is still at the end of the ad break.
+        seekPlanner.addPlayedAdTime(videoPlayer.markAdBreakPlayed());
+
+        long seekPositionMs = seekPlanner.onAdBreakEnded(videoPlayer.getCurrentPositionMs());
+        if (seekPositionMs != SeekPlanner.NO_SEEK) {
+            if (seekPlanner.isPending()) {
+                stateMachine.fire(PlaybackStateMachine.Event.SNAPBACK);
+                trace(PlaybackTrace.APP_SEEK, PlaybackTrace.SEEK_NEXT_AD_BREAK, seekPositionMs, 0);
+            } else {
+                trace(PlaybackTrace.APP_SEEK, PlaybackTrace.SEEK_SNAP_FORWARD, seekPositionMs, 0);
+            }
+            videoPlayer.seekTo(seekPositionMs);
+            prefetchNextSeek();
+        }
+
+        videoPlayer.refreshAdMarkers();
+
+        // Re-enable player controls
+        videoPlayer.enableControls(true);
+
+        lastAdEndTime = null;
+    }
+
     /** PlaybackHandler implementation **/
 
     @Override
     public void resumeStream() {
         Log.i(CLASSTAG, "Resume Stream Called");
+        if (!stateMachine.fire(PlaybackStateMachine.Event.ENGAGEMENT_ENDED)) return;
 
         // Remove the true[X] ad manager reference
         truexAdManager = null;
+        videoPlayer.getMetrics().onEngagementEnded();
 
         // Display and resume the stream
-        videoPlayer.show();
+        videoPlayer.attachAfterEngagement();
         videoPlayer.play();
 
-        if (didSeekPastAdBreak) {
-            // Manually call onAdBreakEnded() now
-            didSeekPastAdBreak = false;
-            VideoStreamPlayer streamPlayer = displayContainer != null ? displayContainer.getVideoStreamPlayer() : null;
-            if (streamPlayer != null) {
-                streamPlayer.onAdBreakEnded();
-            }
+        if (stateMachine.isIn(PlaybackStateMachine.State.CONTENT)) {
+            // We seeked past the ad break, so it is over now.
+            concludeAdBreak();
         }
         else if (lastAdEndTime != null) {
             // seek to the end of the placeholder video for the current ad
             SeekPosition seekPosition = SeekPosition.fromMilliseconds(lastAdEndTime.getMilliseconds());
             seekPosition.subtractMilliseconds(100);
+            trace(PlaybackTrace.APP_SEEK, PlaybackTrace.SEEK_PLACEHOLDER_END, seekPosition.getMilliseconds(), 0);
             videoPlayer.seekTo(seekPosition.getMilliseconds());
         }
     }
 
     @Override
     public void skipCurrentAdBreak() {
+        if (!stateMachine.canFire(PlaybackStateMachine.Event.AD_BREAK_SKIPPED)) return;
+
+        // The end of the current ad break, from the cue point table when it knows the break.
+        SeekPosition seekPosition;
+        long adBreakEndMs = videoPlayer.getCurrentAdBreakEndMs();
+        if (adBreakEndMs != C.TIME_UNSET) {
+            seekPosition = SeekPosition.fromMilliseconds(adBreakEndMs);
+        } else {
+            seekPosition = getCurrentAdBreakEnd();
+            if (seekPosition == null) {
+                return;
+            }
+        }
+
+        // With ad pods in their own periods, seek exactly to the start of the content period.
+        long periodStartMs = videoPlayer.getPeriodStartNearMs(seekPosition.getMilliseconds(), PERIOD_BOUNDARY_TOLERANCE_MS);
+        if (periodStartMs != C.TIME_UNSET) {
+            seekPosition = SeekPosition.fromMilliseconds(periodStartMs);
+        } else {
+            // Add two seconds to avoid displaying a frozen UI
+            seekPosition.addSeconds(2);
+        }
+
+        // Seek past the ad break
+        trace(PlaybackTrace.APP_SEEK, PlaybackTrace.SEEK_SKIP_AD_BREAK, seekPosition.getMilliseconds(), 0);
+        videoPlayer.seekTo(seekPosition.getMilliseconds());
+
+        // The ad break is concluded when we resume the stream
+        stateMachine.fire(PlaybackStateMachine.Event.AD_BREAK_SKIPPED);
+    }
+
+    /**
+     * Asks IMA for the end of the current ad break, e.g. for live streams, whose ad breaks are not
+     * known up front.
+     * @return the end of the current ad break, or null if there is no current ad.
+     */
+    private SeekPosition getCurrentAdBreakEnd() {
         // Retrieve current ad
         Ad ad = streamManager.getCurrentAd();
         if (ad == null) {
-            return;
+            return null;
         }
 
         // Retrieve ad pod info
         AdPodInfo adPodInfo = ad.getAdPodInfo();
         if (adPodInfo == null) {
-            return;
+            return null;
         }
 
         // Retrieve ad progress info
         AdProgressInfo adProgressInfo = streamManager.getAdProgressInfo();
         if (adProgressInfo == null) {
-            return;
+            return null;
         }
 
         // Set-up the initial offset for seeking past the ad break
@@ -395,15 +750,7 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
 
         // Add the duration of the ad break
         seekPosition.addSeconds(adProgressInfo.getAdBreakDuration());
-
-        // Add two seconds to avoid displaying a frozen UI
-        seekPosition.addSeconds(2);
-
-        // Seek past the ad break
-        videoPlayer.seekTo(seekPosition.getMilliseconds());
-
-        // We will need to manually call onAdBreakEnded() when we resume the stream
-        didSeekPastAdBreak = true;
+        return seekPosition;
     }
 
     /** AdErrorListener implementation **/
@@ -423,13 +770,25 @@ public class VideoPlayerWithAds implements PlaybackHandler, AdEvent.AdEventListe
         }
 
         Log.i(CLASSTAG, String.format("Event: %s", event.getType()));
+        if (analyticsReporter != null) analyticsReporter.report("ima_ad_event", event.getType().name());
+        trace(PlaybackTrace.IMA_AD_EVENT, event.getType().ordinal(), videoPlayer.getCurrentPositionMs(), 0);
         switch (event.getType()) {
             case CUEPOINTS_CHANGED:
+                List<CuePoint> cuePoints = streamManager.getCuePoints();
+                traceCuePoints(cuePoints);
                 videoPlayer.setAdsTimeline(streamManager);
+                videoPlayer.updateCuePoints(cuePoints);
+                if (stitchedStreamListener != null && stitchedStreamUrl != null) {
+                    stitchedStreamListener.onStitchedStreamLoaded(stitchedStreamUrl, cuePoints);
+                    stitchedStreamListener = null;
+                }
                 break;
             case STARTED:
                 onAdStarted(event);
                 break;
+            case STREAM_INITIALIZED:
+                onStreamInitialized();
+                break;
         }
     }
 
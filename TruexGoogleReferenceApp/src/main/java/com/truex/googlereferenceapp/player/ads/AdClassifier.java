@@ -0,0 +1,191 @@
+package com.truex.googlereferenceapp.player.ads;
+
+import com.google.ads.interactivemedia.v3.api.Ad;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Classifies IMA ads as true[X], IDVx or regular ads, and extracts the Infillion engagement
+ * parameters for them.
+ *
+ * The same creatives are typically trafficked across many ad pods and viewing sessions, so the
+ * results are cached per ad id / creative id in a bounded LRU map. This way a repeat creative
+ * only costs a map lookup instead of parsing its trafficking parameters on the playback path.
+ * The parameters are parsed once, when classified, and every caller gets its own copy of them, since
+ * the ad renderer is free to modify what it is given.
+ */
+public class AdClassifier {
+    static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static final AdClassifier sharedInstance = new AdClassifier(DEFAULT_MAX_ENTRIES);
+
+    public enum AdType {
+        TRUEX,
+        IDVX,
+        REGULAR
+    }
+
+    /**
+     * The result of classifying an ad.
+     */
+    public static class Classification {
+        private static final Classification REGULAR = new Classification(AdType.REGULAR, null, null);
+
+        private final AdType adType;
+        // Never handed out directly, or null.
+        private final JSONObject params;
+        private final String vastConfigUrl;
+
+        private Classification(AdType adType, JSONObject params, String vastConfigUrl) {
+            this.adType = adType;
+            this.params = params;
+            this.vastConfigUrl = vastConfigUrl;
+        }
+
+        public AdType getAdType() {
+            return adType;
+        }
+
+        public boolean isIDVx() {
+            return adType == AdType.IDVX;
+        }
+
+        /**
+         * @return true if the ad is an Infillion ad with either valid trafficking parameters or
+         * a valid vast config url, i.e. an engagement can be started for it.
+         */
+        public boolean isInfillionAd() {
+            return adType != AdType.REGULAR;
+        }
+
+        /**
+         * @return a copy of the trafficking parameters, which the caller may modify, or null if not
+         * available.
+         */
+        public JSONObject getParams() {
+            return params == null ? null : copyOf(params);
+        }
+
+        /**
+         * @return the Infillion vast config url taken from the ad description.
+         */
+        public String getVastConfigUrl() {
+            return vastConfigUrl;
+        }
+    }
+
+    private final Map<String, Classification> cache;
+
+    AdClassifier(int maxEntries) {
+        // Access ordered, so that the eldest entry is always the least recently used one.
+        this.cache = new LinkedHashMap<String, Classification>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Classification> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static AdClassifier getInstance() {
+        return sharedInstance;
+    }
+
+    /**
+     * Classifies the ad, using the cached result for the ad's creative if available.
+     * @param ad - the IMA ad to classify
+     * @return the classification, never null
+     */
+    public synchronized Classification classify(Ad ad) {
+        String key = cacheKeyOf(ad);
+        Classification result = key == null ? null : cache.get(key);
+        if (result == null) {
+            result = computeClassification(ad);
+            if (key != null) cache.put(key, result);
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    static String cacheKeyOf(Ad ad) {
+        String adId = ad.getAdId();
+        String creativeId = ad.getCreativeId();
+        if (adId == null && creativeId == null) return null;
+        return adId + "/" + creativeId;
+    }
+
+    private static Classification computeClassification(Ad ad) {
+        // [1] - Look for Infillion ads (both TrueX and IDVx)
+        String adSystem = ad.getAdSystem();
+        AdType adType;
+        if ("trueX".equals(adSystem)) {
+            adType = AdType.TRUEX;
+        } else if ("IDVx".equals(adSystem)) {
+            adType = AdType.IDVX;
+        } else {
+            return Classification.REGULAR; // not an Infillion ad
+        }
+
+        // [2] - Get ad parameters
+        // The ad description contains the Infillion vast config url
+        String vastConfigUrl = ad.getDescription();
+        JSONObject params = null;
+
+        // Try to get trafficking parameters if available
+        try {
+            String traffickingParams = ad.getTraffickingParameters();
+            if (traffickingParams != null && !traffickingParams.isEmpty()) {
+                params = new JSONObject(traffickingParams);
+            }
+        } catch (Exception e) {
+            // Trafficking parameters not available or not valid JSON
+        }
+
+        // Validate we have either valid parameters or a valid VAST URL
+        if (params == null && (vastConfigUrl == null || !vastConfigUrl.contains("get.truex.com"))) {
+            return Classification.REGULAR; // No valid configuration found
+        }
+
+        return new Classification(adType, params, vastConfigUrl);
+    }
+
+    /**
+     * Copies the JSON structure without serializing and parsing it again. Strings, numbers and
+     * booleans are immutable, so they are shared.
+     */
+    static JSONObject copyOf(JSONObject jsonObject) {
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            try {
+                copy.put(key, copyOfValue(jsonObject.opt(key)));
+            } catch (JSONException e) {
+                // Not thrown for values taken from a valid JSON object.
+                throw new IllegalStateException(e);
+            }
+        }
+        return copy;
+    }
+
+    private static Object copyOfValue(Object value) {
+        if (value instanceof JSONObject) return copyOf((JSONObject) value);
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            JSONArray copy = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                copy.put(copyOfValue(array.opt(i)));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
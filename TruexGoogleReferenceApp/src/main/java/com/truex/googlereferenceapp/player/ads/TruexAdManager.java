@@ -7,7 +7,10 @@ import android.view.ViewGroup;
 import com.truex.adrenderer.TruexAdEvent;
 import com.truex.adrenderer.TruexAdOptions;
 import com.truex.adrenderer.TruexAdRenderer;
+import com.truex.googlereferenceapp.analytics.AnalyticsReporter;
+import com.truex.googlereferenceapp.metrics.PlaybackMetrics;
 import com.truex.googlereferenceapp.player.PlaybackHandler;
+import com.truex.googlereferenceapp.trace.PlaybackTrace;
 
 import org.json.JSONObject;
 
@@ -25,10 +28,26 @@ public class TruexAdManager {
 
     private PlaybackHandler playbackHandler;
     private TruexAdRenderer truexAdRenderer;
+    private PlaybackMetrics metrics;
+    private AnalyticsReporter analyticsReporter;
+    private PlaybackTrace trace;
     private boolean didReceiveCredit;
 
     public TruexAdManager(Context context, PlaybackHandler playbackHandler) {
+        this(context, playbackHandler, null, null, null);
+    }
+
+    /**
+     * @param metrics - the playback session metrics to report ad credits to, or null
+     * @param analyticsReporter - the reporter to record the ad events with, or null
+     * @param trace - the playback trace to record the ad events to, or null
+     */
+    public TruexAdManager(Context context, PlaybackHandler playbackHandler, PlaybackMetrics metrics,
+                          AnalyticsReporter analyticsReporter, PlaybackTrace trace) {
         this.playbackHandler = playbackHandler;
+        this.metrics = metrics;
+        this.analyticsReporter = analyticsReporter;
+        this.trace = trace;
 
         // Set-up the true[X] ad renderer
         truexAdRenderer = new TruexAdRenderer(context);
@@ -98,6 +117,8 @@ public class TruexAdManager {
      */
     private void adEventHandler(TruexAdEvent event, Map<String, ?> data) {
         Log.d(CLASSTAG, "ad event recieved: " + event);
+        if (analyticsReporter != null) analyticsReporter.report("truex_ad_event", event.name());
+        if (trace != null) trace.record(PlaybackTrace.TRUEX_AD_EVENT, event.ordinal());
 
         boolean closeAd = false;
         switch (event) {
@@ -108,6 +129,7 @@ public class TruexAdManager {
                 // [5] - Respond to AD_FREE_POD
                 // the user did sufficient interaction for an ad credit
                 didReceiveCredit = true;
+                if (metrics != null) metrics.onAdCreditReceived();
                 break;
 
             case USER_CANCEL_STREAM:
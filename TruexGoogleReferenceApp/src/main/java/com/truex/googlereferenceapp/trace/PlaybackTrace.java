@@ -0,0 +1,134 @@
+package com.truex.googlereferenceapp.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the ordered sequence of playback events, e.g. player state changes, IMA and Infillion ad
+ * events, seeks and cue point snapshots, so that field issues around snapbacks and ad skipping can
+ * be replayed offline, see PlaybackTraceReader.
+ *
+ * The trace is a memory mapped ring file of fixed size records, which keeps the last records across
+ * sessions and crashes at the cost of a few stores per record. Layout, little endian:
+ * <pre>
+ *   header:  magic, version, record size, capacity (4 ints), write count (long)
+ *   records: capacity * (time ms (long), type (int), arg (int), value1 (long), value2 (long))
+ * </pre>
+ * The record at write count % capacity is the next to be overwritten.
+ *
+ * This class has no Android dependencies so the trace can be read directly on the JVM.
+ */
+public class PlaybackTrace {
+    static final int MAGIC = 0x54585054; // "TXPT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES;
+    static final int WRITE_COUNT_OFFSET = 4 * Integer.BYTES;
+    static final int RECORD_SIZE = 3 * Long.BYTES + 2 * Integer.BYTES;
+
+    /** A playback session started. arg: 1 for a live stream */
+    public static final int SESSION_STARTED = 1;
+    /** The player's state changed. arg: the player state, value1: the stream position */
+    public static final int PLAYER_STATE = 2;
+    /** The player's position jumped. arg: the discontinuity reason, value1: from, value2: to */
+    public static final int PLAYER_DISCONTINUITY = 3;
+    /** The user seeked. arg: a SEEK_* outcome, value1: the requested position, value2: the allowed position */
+    public static final int USER_SEEK = 4;
+    /** The app seeked by itself. arg: a SEEK_* reason, value1: the position */
+    public static final int APP_SEEK = 5;
+    /** An IMA ad event. arg: the AdEventType ordinal, value1: the stream position */
+    public static final int IMA_AD_EVENT = 6;
+    /** An Infillion ad event. arg: the TruexAdEvent ordinal */
+    public static final int TRUEX_AD_EVENT = 7;
+    /** The playback state machine transitioned. arg: the event ordinal, value1: from, value2: to */
+    public static final int STATE_TRANSITION = 8;
+    /** A cue point snapshot follows. arg: the number of CUE_POINT records that follow */
+    public static final int CUE_POINTS = 9;
+    /** A cue point of the preceding snapshot. arg: 1 if played, value1: start, value2: end */
+    public static final int CUE_POINT = 10;
+    /** An ad break ended and was marked as played, ahead of IMA. value1: its start */
+    public static final int CUE_POINT_PLAYED = 11;
+    /** The snapback policy of the session. arg: the SnapbackPolicy.Type ordinal, value1: its played budget */
+    public static final int SNAPBACK_POLICY = 12;
+
+    /** USER_SEEK outcomes **/
+    public static final int SEEK_IGNORED = -1;
+    public static final int SEEK_ALLOWED = 0;
+    public static final int SEEK_SNAPBACK = 1;
+
+    /** APP_SEEK reasons **/
+    public static final int SEEK_BOOKMARK = 1;
+    public static final int SEEK_SNAP_FORWARD = 2;
+    public static final int SEEK_SKIP_AD_BREAK = 3;
+    public static final int SEEK_PLACEHOLDER_END = 4;
+    public static final int SEEK_NEXT_AD_BREAK = 5;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long writeCount;
+
+    /**
+     * Maps the trace file, continuing the existing trace if it has the same capacity.
+     * @param capacity - the number of records kept
+     */
+    public PlaybackTrace(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            boolean existing = channel.size() == size;
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (existing && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                    && buffer.getInt(8) == RECORD_SIZE && buffer.getInt(12) == capacity) {
+                writeCount = buffer.getLong(WRITE_COUNT_OFFSET);
+            } else {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putInt(12, capacity);
+                buffer.putLong(WRITE_COUNT_OFFSET, 0);
+            }
+        }
+    }
+
+    public void record(int type, int arg) {
+        record(type, arg, 0, 0);
+    }
+
+    public void record(int type, int arg, long value1) {
+        record(type, arg, value1, 0);
+    }
+
+    /**
+     * Appends a record, overwriting the oldest one once the trace is full. May be called from any thread.
+     */
+    public synchronized void record(int type, int arg, long value1, long value2) {
+        int position = HEADER_SIZE + (int) (writeCount % capacity) * RECORD_SIZE;
+        ByteBuffer record = buffer;
+        record.putLong(position, System.nanoTime() / 1_000_000);
+        record.putInt(position + 8, type);
+        record.putInt(position + 12, arg);
+        record.putLong(position + 16, value1);
+        record.putLong(position + 24, value2);
+        // Publish the record last, so that a crash never exposes a partially written newest record.
+        writeCount++;
+        record.putLong(WRITE_COUNT_OFFSET, writeCount);
+    }
+
+    /**
+     * @return a reader over the records recorded so far, e.g. to attach them to a bug report.
+     */
+    public synchronized PlaybackTraceReader read() {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.capacity());
+        ByteBuffer source = buffer.duplicate();
+        source.position(0);
+        copy.put(source);
+        return new PlaybackTraceReader(copy);
+    }
+}
@@ -0,0 +1,78 @@
+package com.truex.googlereferenceapp.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+/**
+ * Reads the records of a playback trace, oldest first.
+ *
+ * This class has no Android dependencies so a trace pulled from a device can be read on the JVM.
+ */
+public class PlaybackTraceReader {
+
+    /**
+     * A trace record, see PlaybackTrace for the meaning of its fields per type.
+     */
+    public static class Record {
+        public long timeMs;
+        public int type;
+        public int arg;
+        public long value1;
+        public long value2;
+    }
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final long writeCount;
+    private long readCount;
+
+    PlaybackTraceReader(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < PlaybackTrace.HEADER_SIZE
+                || buffer.getInt(0) != PlaybackTrace.MAGIC
+                || buffer.getInt(4) != PlaybackTrace.VERSION
+                || buffer.getInt(8) != PlaybackTrace.RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid playback trace");
+        }
+        capacity = buffer.getInt(12);
+        writeCount = buffer.getLong(PlaybackTrace.WRITE_COUNT_OFFSET);
+        if (buffer.capacity() < PlaybackTrace.HEADER_SIZE + (long) capacity * PlaybackTrace.RECORD_SIZE) {
+            throw new IllegalArgumentException("Truncated playback trace");
+        }
+        // Once the ring has wrapped, only the last capacity records are left.
+        readCount = Math.max(0, writeCount - capacity);
+    }
+
+    /**
+     * Reads a trace file, e.g. pulled from a device.
+     */
+    public static PlaybackTraceReader open(File file) throws IOException {
+        return new PlaybackTraceReader(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    }
+
+    /**
+     * @return the number of records left to read.
+     */
+    public long remaining() {
+        return writeCount - readCount;
+    }
+
+    /**
+     * Reads the next record into the given one.
+     * @return false if there are no records left.
+     */
+    public boolean next(Record record) {
+        if (readCount >= writeCount) return false;
+        int position = PlaybackTrace.HEADER_SIZE + (int) (readCount % capacity) * PlaybackTrace.RECORD_SIZE;
+        record.timeMs = buffer.getLong(position);
+        record.type = buffer.getInt(position + 8);
+        record.arg = buffer.getInt(position + 12);
+        record.value1 = buffer.getLong(position + 16);
+        record.value2 = buffer.getLong(position + 24);
+        readCount++;
+        return true;
+    }
+}
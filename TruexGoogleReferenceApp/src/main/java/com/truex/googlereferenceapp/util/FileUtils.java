@@ -2,45 +2,43 @@ package com.truex.googlereferenceapp.util;
 
 import android.content.Context;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 
 public final class FileUtils {
+    private static final int BUFFER_SIZE = 8192;
 
     private FileUtils() {
 
     }
 
+    /**
+     * Reads a raw resource as UTF-8 text, in a single pass over its bytes.
+     * This does blocking I/O, so it should not be called from the main thread.
+     */
     public static String getRawFileContents(Context context, int resourceId) {
         if (context == null) {
             return null;
         }
 
-        InputStream vastContentStream = context.getResources().openRawResource(resourceId);
-
-        StringBuilder stringBuilder = new StringBuilder();
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new InputStreamReader(vastContentStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                stringBuilder.append(line);
-            }
+        try (InputStream inputStream = context.getResources().openRawResource(resourceId)) {
+            return new String(readBytes(inputStream), StandardCharsets.UTF_8);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
 
-        return stringBuilder.toString();
+        return null;
+    }
+
+    private static byte[] readBytes(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(inputStream.available(), BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
     }
 }
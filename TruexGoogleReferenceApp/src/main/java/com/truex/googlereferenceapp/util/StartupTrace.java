@@ -0,0 +1,68 @@
+package com.truex.googlereferenceapp.util;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the milestones of the app's cold start, from the process start to the first draw of the
+ * home screen, and reports their timings once the startup is complete.
+ *
+ * Each milestone is also emitted as a trace section, so the startup can be inspected in a system trace.
+ * Only to be used from the main thread.
+ */
+public final class StartupTrace {
+    private static final String CLASSTAG = StartupTrace.class.getSimpleName();
+
+    private static final List<String> milestones = new ArrayList<>();
+    private static final List<Long> timesMs = new ArrayList<>();
+    private static boolean completed;
+    private static String report;
+
+    private StartupTrace() {
+
+    }
+
+    /**
+     * Records a milestone, with its time since the process started.
+     */
+    public static void mark(String milestone) {
+        if (completed) return;
+        Trace.beginSection("startup: " + milestone);
+        milestones.add(milestone);
+        timesMs.add(SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime());
+        Trace.endSection();
+    }
+
+    /**
+     * Records the final milestone and reports the startup timings. Later calls are ignored.
+     */
+    public static void complete(String milestone) {
+        if (completed) return;
+        mark(milestone);
+        completed = true;
+
+        StringBuilder builder = new StringBuilder("Startup:");
+        long previousMs = 0;
+        for (int i = 0; i < milestones.size(); i++) {
+            long timeMs = timesMs.get(i);
+            builder.append(' ').append(milestones.get(i))
+                    .append("=").append(timeMs).append("ms")
+                    .append(" (+").append(timeMs - previousMs).append(")");
+            previousMs = timeMs;
+        }
+        report = builder.toString();
+        Log.i(CLASSTAG, report);
+    }
+
+    /**
+     * @return the startup timings report, or null while the startup is not complete.
+     */
+    public static String getReport() {
+        return report;
+    }
+}
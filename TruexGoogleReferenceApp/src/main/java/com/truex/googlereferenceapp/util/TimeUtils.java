@@ -0,0 +1,71 @@
+package com.truex.googlereferenceapp.util;
+
+/**
+ * Formatting of player positions for display and logging.
+ *
+ * This is plain Java without Android or media3 dependencies, so that it can be benchmarked on the JVM.
+ */
+public final class TimeUtils {
+
+    // Same value as media3's C.TIME_UNSET.
+    public static final long TIME_UNSET = Long.MIN_VALUE + 1;
+
+    private TimeUtils() {
+
+    }
+
+    /**
+     * Formats the position the same way as media3's Util.getStringForTime, i.e. as "[h:]mm:ss",
+     * without going through a java.util.Formatter.
+     */
+    public static String formatPosition(long positionMs) {
+        StringBuilder builder = new StringBuilder(10);
+        appendPosition(builder, positionMs);
+        return builder.toString();
+    }
+
+    public static void appendPosition(StringBuilder builder, long positionMs) {
+        if (positionMs == TIME_UNSET) {
+            positionMs = 0;
+        }
+        if (positionMs < 0) {
+            builder.append('-');
+            positionMs = -positionMs;
+        }
+        long totalSeconds = (positionMs + 500) / 1000;
+        long seconds = totalSeconds % 60;
+        long minutes = (totalSeconds / 60) % 60;
+        long hours = totalSeconds / 3600;
+        if (hours > 0) {
+            builder.append(hours);
+            builder.append(':');
+        }
+        appendTwoDigits(builder, minutes);
+        builder.append(':');
+        appendTwoDigits(builder, seconds);
+    }
+
+    /**
+     * Builds the position log message used by the video player, e.g. "*** pause: 01:05 (raw: 02:35)".
+     */
+    public static String formatPositionMessage(String context, long position, long rawPosition) {
+        StringBuilder msg = new StringBuilder(context.length() + 32);
+        msg.append("*** ");
+        msg.append(context);
+        msg.append(": ");
+        appendPosition(msg, position);
+        if (rawPosition != TIME_UNSET && position != rawPosition) {
+            msg.append(" (raw: ");
+            appendPosition(msg, rawPosition);
+            msg.append(")");
+        }
+        return msg.toString();
+    }
+
+    private static void appendTwoDigits(StringBuilder builder, long value) {
+        if (value < 10) {
+            builder.append('0');
+        }
+        builder.append(value);
+    }
+}
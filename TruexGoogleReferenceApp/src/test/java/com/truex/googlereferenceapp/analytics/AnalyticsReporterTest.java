@@ -0,0 +1,141 @@
+package com.truex.googlereferenceapp.analytics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Uploads recorded events to a local http server, with a short retry delay.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AnalyticsReporterTest {
+    private static final long RETRY_DELAY_MS = 50;
+    private static final long TIMEOUT_MS = 5_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private volatile boolean offline;
+    private AnalyticsReporter reporter;
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    if (offline) throw new IOException("offline");
+                    return chain.proceed(chain.request());
+                })
+                .build();
+        reporter = new AnalyticsReporter(folder.newFolder("analytics"), () -> httpClient,
+                server.url("/events").toString(), RETRY_DELAY_MS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void uploadsEventsAsGzippedBatch() throws Exception {
+        server.enqueue(new MockResponse());
+        reporter.report("ima_ad_event", "STARTED");
+        reporter.report("truex_ad_event", "OPT_IN");
+        reporter.flush();
+
+        RecordedRequest request = server.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(request);
+        assertEquals("POST", request.getMethod());
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        String[] events = gunzip(request.getBody().readByteArray()).split("\n");
+        assertEquals(2, events.length);
+        assertEquals("STARTED", new JSONObject(events[0]).getString("name"));
+        assertEquals("truex_ad_event", new JSONObject(events[1]).getString("type"));
+    }
+
+    @Test
+    public void retriesAfterServerError() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse());
+        reporter.report("ima_ad_event", "STARTED");
+        reporter.flush();
+
+        String failed = gunzip(server.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS).getBody().readByteArray());
+        String retried = gunzip(server.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS).getBody().readByteArray());
+        assertEquals(failed, retried);
+
+        // Once uploaded, the batch is not uploaded again.
+        assertNull(server.takeRequest(10 * RETRY_DELAY_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void retriesWhileOffline() throws Exception {
+        offline = true;
+        server.enqueue(new MockResponse());
+        reporter.report("ima_ad_event", "STARTED");
+        reporter.flush();
+        assertNull(server.takeRequest(4 * RETRY_DELAY_MS, TimeUnit.MILLISECONDS));
+
+        offline = false;
+        RecordedRequest request = server.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(request);
+        assertTrue(gunzip(request.getBody().readByteArray()).contains("STARTED"));
+    }
+
+    @Test
+    public void dropsRejectedBatch() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.enqueue(new MockResponse());
+        reporter.report("ima_ad_event", "REJECTED");
+        reporter.flush();
+        assertNotNull(server.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // The rejected batch does not hold back the newer events.
+        reporter.report("ima_ad_event", "STARTED");
+        reporter.flush();
+        String events = gunzip(server.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS).getBody().readByteArray());
+        assertTrue(events.contains("STARTED"));
+        assertFalse(events.contains("REJECTED"));
+    }
+
+    @Test
+    public void holdsBackUploadsDuringPlayback() throws Exception {
+        server.enqueue(new MockResponse());
+        reporter.setPlaybackActive(true);
+        reporter.report("ima_ad_event", "STARTED");
+        reporter.flush();
+        assertNull(server.takeRequest(4 * RETRY_DELAY_MS, TimeUnit.MILLISECONDS));
+
+        reporter.setPlaybackActive(false);
+        assertNotNull(server.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static String gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
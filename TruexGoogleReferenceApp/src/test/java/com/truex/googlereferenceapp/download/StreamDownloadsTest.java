@@ -0,0 +1,209 @@
+package com.truex.googlereferenceapp.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.media3.database.StandaloneDatabaseProvider;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSourceUtil;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.exoplayer.offline.Download;
+import androidx.media3.exoplayer.offline.DownloadRequest;
+import androidx.media3.exoplayer.scheduler.Requirements;
+
+import com.google.ads.interactivemedia.v3.api.CuePoint;
+import com.truex.googlereferenceapp.home.StreamConfiguration;
+import com.truex.googlereferenceapp.network.BandwidthArbiter;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * Downloads a progressive stream from a local http server, which can drop the connection halfway
+ * through the first response.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StreamDownloadsTest {
+    private static final long TIMEOUT_MS = 10_000;
+    private static final int STREAM_BYTES = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private final byte[] stream = new byte[STREAM_BYTES];
+    private final AtomicBoolean interruptNextResponse = new AtomicBoolean();
+    private StreamConfiguration streamConfiguration;
+    private StreamDownloads streamDownloads;
+
+    @Before
+    public void setUp() throws IOException, JSONException {
+        new Random(42).nextBytes(stream);
+        server.setDispatcher(new RangeDispatcher());
+        server.start();
+
+        streamConfiguration = StreamConfiguration.getStreamConfiguration(new JSONObject()
+                .put("title", "Download")
+                .put("google_content_id", "content")
+                .put("google_video_id", "video"));
+        Context context = RuntimeEnvironment.getApplication();
+        streamDownloads = new StreamDownloads(context, folder.newFolder("downloads"),
+                new StandaloneDatabaseProvider(context), new BandwidthArbiter());
+        streamDownloads.getDownloadManager().setRequirements(new Requirements(0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void downloadsStream() throws IOException {
+        addDownload();
+        Download download = awaitDownloadCompleted();
+
+        assertEquals(STREAM_BYTES, download.getBytesDownloaded());
+        assertEquals(1, server.getRequestCount());
+        assertCached();
+    }
+
+    @Test
+    public void resumesInterruptedDownload() throws Exception {
+        interruptNextResponse.set(true);
+        addDownload();
+        Download download = awaitDownloadCompleted();
+
+        assertEquals(STREAM_BYTES, download.getBytesDownloaded());
+        assertEquals(2, server.getRequestCount());
+        assertNull(server.takeRequest().getHeader("Range"));
+        // The retry only requests what the interrupted response didn't deliver.
+        String range = server.takeRequest().getHeader("Range");
+        assertNotNull(range);
+        assertTrue(range, range.startsWith("bytes=") && !range.startsWith("bytes=0-"));
+        assertCached();
+    }
+
+    @Test
+    public void offlineStreamHasSortedAdBreaks() {
+        assertNull(streamDownloads.getOfflineStream(streamConfiguration));
+
+        addDownload(cuePoint(600_000, 630_000), cuePoint(0, 15_000), cuePoint(300_000, 330_000));
+        awaitDownloadCompleted();
+
+        StreamDownloads.OfflineStream offlineStream = streamDownloads.getOfflineStream(streamConfiguration);
+        assertNotNull(offlineStream);
+        assertEquals(server.url("/stream.mp4").toString(), offlineStream.getUrl());
+        assertArrayEquals(new long[] {0, 300_000, 600_000}, offlineStream.getAdBreakStartTimesMs());
+        assertArrayEquals(new long[] {15_000, 330_000, 630_000}, offlineStream.getAdBreakEndTimesMs());
+    }
+
+    private void addDownload(CuePoint... cuePoints) {
+        DownloadRequest request = new DownloadRequest.Builder(StreamDownloads.getDownloadId(streamConfiguration),
+                Uri.parse(server.url("/stream.mp4").toString()))
+                .setData(StreamDownloads.encodeAdBreaks(Arrays.asList(cuePoints)))
+                .build();
+        // The download service would add the request to the same download manager.
+        streamDownloads.getDownloadManager().addDownload(request);
+    }
+
+    private Download awaitDownloadCompleted() {
+        runMainLooperUntil(() -> {
+            Download download = streamDownloads.getDownload(streamConfiguration);
+            return download != null && download.state == Download.STATE_COMPLETED;
+        });
+        return streamDownloads.getDownload(streamConfiguration);
+    }
+
+    /**
+     * Reads the stream from the download cache, which fails on any request to the server.
+     */
+    private void assertCached() throws IOException {
+        int requestCount = server.getRequestCount();
+        DataSource dataSource = streamDownloads.getDataSourceFactory().createDataSource();
+        try {
+            dataSource.open(new DataSpec(Uri.parse(server.url("/stream.mp4").toString())));
+            assertArrayEquals(stream, DataSourceUtil.readToEnd(dataSource));
+        } finally {
+            dataSource.close();
+        }
+        assertEquals(requestCount, server.getRequestCount());
+    }
+
+    /**
+     * The download manager runs on its own thread, and reports to the main looper.
+     */
+    private static void runMainLooperUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(10));
+        }
+    }
+
+    private static CuePoint cuePoint(long startTimeMs, long endTimeMs) {
+        CuePoint cuePoint = mock(CuePoint.class);
+        when(cuePoint.getStartTimeMs()).thenReturn(startTimeMs);
+        when(cuePoint.getEndTimeMs()).thenReturn(endTimeMs);
+        return cuePoint;
+    }
+
+    /**
+     * Serves the stream with range support, like a CDN would.
+     */
+    private class RangeDispatcher extends Dispatcher {
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            int start = 0;
+            String range = request.getHeader("Range");
+            if (range != null && range.startsWith("bytes=")) {
+                String first = range.substring("bytes=".length(), range.indexOf('-'));
+                start = Integer.parseInt(first);
+            }
+            MockResponse response = new MockResponse()
+                    .setHeader("Content-Type", "video/mp4")
+                    .setHeader("Accept-Ranges", "bytes")
+                    .setBody(new Buffer().write(stream, start, stream.length - start));
+            if (start > 0) {
+                response.setResponseCode(206)
+                        .setHeader("Content-Range", "bytes " + start + "-" + (stream.length - 1) + "/" + stream.length);
+            }
+            if (interruptNextResponse.getAndSet(false)) {
+                // Drops the connection after half of the body.
+                response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+            }
+            return response;
+        }
+    }
+}
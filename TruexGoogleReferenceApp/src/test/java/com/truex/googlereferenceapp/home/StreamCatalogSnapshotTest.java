@@ -0,0 +1,157 @@
+package com.truex.googlereferenceapp.home;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a snapshot of two streams that share their network code, and reads it back, intact or
+ * with a corrupt header or record.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StreamCatalogSnapshotTest {
+    private static final int RECORD_COUNT_POSITION = 8;
+    private static final int STRING_COUNT_POSITION = 16;
+    private static final int RECORDS_POSITION = 20;
+    // The stream type, format, preview format and ad policy ordinals follow the 9 string indices.
+    private static final int STREAM_TYPE_POSITION = RECORDS_POSITION + 9 * Integer.BYTES;
+    private static final int AD_POLICY_POSITION = STREAM_TYPE_POSITION + 3 * Integer.BYTES;
+    private static final int MAX_BITRATE_POSITION = AD_POLICY_POSITION + Integer.BYTES;
+    private static final int AD_BUDGET_POSITION = MAX_BITRATE_POSITION + Integer.BYTES;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException, JSONException {
+        file = new File(folder.getRoot(), "catalog.snapshot");
+        StreamCatalogSnapshot.write(file, Arrays.asList(
+                StreamConfiguration.getStreamConfiguration(new JSONObject()
+                        .put("title", "Live")
+                        .put("google_asset_key", "asset")
+                        .put("google_network_code", "21775744923")),
+                StreamConfiguration.getStreamConfiguration(new JSONObject()
+                        .put("title", "VOD")
+                        .put("google_content_id", "content")
+                        .put("google_video_id", "video")
+                        .put("google_network_code", "21775744923")
+                        .put("ad_policy", "none")
+                        .put("ad_budget_seconds", 90)
+                        .put("max_bitrate", 2_000_000))));
+    }
+
+    @Test
+    public void readsWrittenCatalog() throws IOException {
+        List<StreamConfiguration> streamConfigurations = StreamCatalogSnapshot.read(file).asList();
+        assertEquals(2, streamConfigurations.size());
+        assertEquals("Live", streamConfigurations.get(0).getTitle());
+        assertEquals(StreamConfiguration.StreamType.LIVE, streamConfigurations.get(0).getStreamType());
+        assertEquals("video", streamConfigurations.get(1).getVideoID());
+        assertEquals(StreamConfiguration.AdPolicy.NONE, streamConfigurations.get(1).getAdPolicy());
+        assertEquals(90_000, streamConfigurations.get(1).getAdBudgetMs());
+        assertEquals(2_000_000, streamConfigurations.get(1).getMaxBitrate());
+        assertEquals(streamConfigurations.get(0).getNetworkCode(), streamConfigurations.get(1).getNetworkCode());
+    }
+
+    @Test
+    public void missingSnapshotIsNull() throws IOException {
+        assertNull(StreamCatalogSnapshot.read(new File(folder.getRoot(), "missing.snapshot")));
+    }
+
+    @Test
+    public void negativeRecordCountIsInvalid() throws IOException {
+        writeInt(RECORD_COUNT_POSITION, -1);
+        assertInvalid();
+    }
+
+    @Test
+    public void oversizedRecordCountIsInvalid() throws IOException {
+        writeInt(RECORD_COUNT_POSITION, Integer.MAX_VALUE);
+        assertInvalid();
+    }
+
+    @Test
+    public void negativeStringCountIsInvalid() throws IOException {
+        writeInt(STRING_COUNT_POSITION, -2);
+        assertInvalid();
+    }
+
+    @Test
+    public void oversizedStringCountIsInvalid() throws IOException {
+        writeInt(STRING_COUNT_POSITION, Integer.MAX_VALUE);
+        assertInvalid();
+    }
+
+    @Test
+    public void outOfRangeStringIndexIsInvalid() throws IOException {
+        writeInt(RECORDS_POSITION, 1000);
+        assertInvalid();
+    }
+
+    @Test
+    public void outOfRangeStreamTypeIsInvalid() throws IOException {
+        writeInt(STREAM_TYPE_POSITION, StreamConfiguration.StreamType.values().length);
+        assertInvalid();
+    }
+
+    @Test
+    public void negativeAdPolicyIsInvalid() throws IOException {
+        writeInt(AD_POLICY_POSITION, -1);
+        assertInvalid();
+    }
+
+    @Test
+    public void negativeMaxBitrateIsInvalid() throws IOException {
+        writeInt(MAX_BITRATE_POSITION, -1);
+        assertInvalid();
+    }
+
+    @Test
+    public void negativeAdBudgetIsInvalid() throws IOException {
+        // Sets the high half of the little endian long.
+        writeInt(AD_BUDGET_POSITION + Integer.BYTES, -1);
+        assertInvalid();
+    }
+
+    @Test
+    public void truncatedSnapshotIsInvalid() throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 1);
+        }
+        assertInvalid();
+    }
+
+    private void writeInt(long position, int value) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(position);
+            // The snapshot is little endian.
+            randomAccessFile.writeInt(Integer.reverseBytes(value));
+        }
+    }
+
+    private void assertInvalid() {
+        try {
+            StreamCatalogSnapshot.read(file);
+            fail("Expected an invalid snapshot");
+        } catch (IOException expected) {
+            // Invalid snapshots are reported as such, and not by a runtime exception.
+        }
+    }
+}
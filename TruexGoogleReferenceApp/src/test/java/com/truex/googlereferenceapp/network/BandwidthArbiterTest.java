@@ -0,0 +1,139 @@
+package com.truex.googlereferenceapp.network;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Acquires requests on a background thread, which is held back while a buffer is reported low.
+ * The hold times are measured by the system clock, which only advances when the test says so.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BandwidthArbiterTest {
+    private static final long MAX_HOLD_MS = 1_000;
+    private static final long BLOCKED_MS = 100;
+    private static final long TIMEOUT_MS = 5_000;
+
+    private final BandwidthArbiter arbiter = new BandwidthArbiter(MAX_HOLD_MS, MAX_HOLD_MS);
+    private final Object buffer = new Object();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private Thread request;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (request != null) {
+            request.interrupt();
+            request.join(TIMEOUT_MS);
+        }
+    }
+
+    @Test
+    public void requestsProceedWhileBufferIsFine() throws InterruptedException {
+        assertFalse(arbiter.isThrottling());
+        for (BandwidthArbiter.Priority priority : BandwidthArbiter.Priority.values()) {
+            assertProceeds(priority);
+        }
+    }
+
+    @Test
+    public void playbackAndAdRequestsAreNeverHeld() throws InterruptedException {
+        arbiter.setBufferLow(buffer, true);
+        assertTrue(arbiter.isThrottling());
+        assertProceeds(BandwidthArbiter.Priority.PLAYBACK);
+        assertProceeds(BandwidthArbiter.Priority.PLAYBACK);
+        assertProceeds(BandwidthArbiter.Priority.AD);
+    }
+
+    @Test
+    public void backgroundRequestWaitsUntilBufferRecovers() throws InterruptedException {
+        arbiter.setBufferLow(buffer, true);
+        startRequest(BandwidthArbiter.Priority.BACKGROUND);
+        assertHeld();
+
+        arbiter.setBufferLow(buffer, false);
+        assertProceeded();
+    }
+
+    @Test
+    public void backgroundRequestWaitsForEveryLowBuffer() throws InterruptedException {
+        Object otherBuffer = new Object();
+        arbiter.setBufferLow(buffer, true);
+        arbiter.setBufferLow(otherBuffer, true);
+        startRequest(BandwidthArbiter.Priority.BACKGROUND);
+
+        arbiter.setBufferLow(buffer, false);
+        assertHeld();
+        arbiter.setBufferLow(otherBuffer, false);
+        assertProceeded();
+    }
+
+    @Test
+    public void uiRequestsProceedOneAtATimeWhileThrottled() throws InterruptedException {
+        arbiter.setBufferLow(buffer, true);
+        assertProceeds(BandwidthArbiter.Priority.UI);
+        startRequest(BandwidthArbiter.Priority.UI);
+        assertHeld();
+
+        arbiter.release(BandwidthArbiter.Priority.UI);
+        assertProceeded();
+    }
+
+    @Test
+    public void heldRequestProceedsAfterMaxHold() throws InterruptedException {
+        arbiter.setBufferLow(buffer, true);
+        startRequest(BandwidthArbiter.Priority.BACKGROUND);
+        assertHeld();
+
+        ShadowSystemClock.advanceBy(Duration.ofMillis(MAX_HOLD_MS));
+        assertProceeded();
+    }
+
+    @Test
+    public void interruptedRequestFails() throws InterruptedException {
+        arbiter.setBufferLow(buffer, true);
+        startRequest(BandwidthArbiter.Priority.BACKGROUND);
+        assertHeld();
+
+        request.interrupt();
+        request.join(TIMEOUT_MS);
+        assertFalse(request.isAlive());
+        assertTrue(failure.get() instanceof InterruptedIOException);
+    }
+
+    private void assertProceeds(BandwidthArbiter.Priority priority) throws InterruptedException {
+        startRequest(priority);
+        assertProceeded();
+    }
+
+    private void startRequest(BandwidthArbiter.Priority priority) {
+        request = new Thread(() -> {
+            try {
+                arbiter.acquire(priority);
+            } catch (InterruptedIOException e) {
+                failure.set(e);
+            }
+        });
+        request.start();
+    }
+
+    private void assertHeld() throws InterruptedException {
+        request.join(BLOCKED_MS);
+        assertTrue("Request was not held back", request.isAlive());
+    }
+
+    private void assertProceeded() throws InterruptedException {
+        request.join(TIMEOUT_MS);
+        assertFalse("Request was still held back", request.isAlive());
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,92 @@
+package com.truex.googlereferenceapp.network;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+@RunWith(RobolectricTestRunner.class)
+public class PriorityInterceptorTest {
+    private final MockWebServer server = new MockWebServer();
+    private final CountingArbiter arbiter = new CountingArbiter();
+    private OkHttpClient httpClient;
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+        httpClient = new OkHttpClient.Builder()
+                .addInterceptor(new PriorityInterceptor(arbiter))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void requestIsActiveUntilBodyIsClosed() throws IOException {
+        server.enqueue(new MockResponse().setBody("cover image"));
+        Response response = httpClient.newCall(new Request.Builder().url(server.url("/cover")).build()).execute();
+        assertEquals(1, arbiter.active);
+
+        assertEquals("cover image", response.body().string());
+        assertEquals(0, arbiter.active);
+    }
+
+    @Test
+    public void closingResponseReleasesOnce() throws IOException {
+        server.enqueue(new MockResponse().setBody("events"));
+        Request request = new Request.Builder()
+                .url(server.url("/events"))
+                .tag(BandwidthArbiter.Priority.class, BandwidthArbiter.Priority.BACKGROUND)
+                .build();
+        Response response = httpClient.newCall(request).execute();
+        response.close();
+        response.close();
+        assertEquals(0, arbiter.active);
+        assertEquals(1, arbiter.released);
+    }
+
+    @Test
+    public void failedRequestIsReleased() throws IOException {
+        Request request = new Request.Builder().url(server.url("/cover")).build();
+        server.shutdown();
+        try {
+            httpClient.newCall(request).execute();
+        } catch (IOException expected) {
+            // The server is gone.
+        }
+        assertEquals(0, arbiter.active);
+    }
+
+    private static class CountingArbiter extends BandwidthArbiter {
+        volatile int active;
+        volatile int released;
+
+        @Override
+        public void acquire(Priority priority) throws InterruptedIOException {
+            super.acquire(priority);
+            active++;
+        }
+
+        @Override
+        public void release(Priority priority) {
+            active--;
+            released++;
+            super.release(priority);
+        }
+    }
+}
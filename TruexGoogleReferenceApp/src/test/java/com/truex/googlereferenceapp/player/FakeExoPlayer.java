@@ -0,0 +1,60 @@
+package com.truex.googlereferenceapp.player;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import androidx.media3.common.Player;
+import androidx.media3.common.Timeline;
+import androidx.media3.common.TrackSelectionParameters;
+import androidx.media3.exoplayer.ExoPlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stand-in ExoPlayer for driving playback flows on the JVM. Its playhead only moves when the test
+ * advances it or seeks, i.e. it doubles as the clock of the flow, and its seeks are recorded.
+ */
+class FakeExoPlayer {
+    final ExoPlayer exoPlayer = mock(ExoPlayer.class);
+    final List<Long> seeks = new ArrayList<>();
+    private long positionMs;
+
+    FakeExoPlayer() {
+        when(exoPlayer.getCurrentPosition()).thenAnswer(invocation -> positionMs);
+        when(exoPlayer.getContentPosition()).thenAnswer(invocation -> positionMs);
+        when(exoPlayer.getCurrentTimeline()).thenReturn(Timeline.EMPTY);
+        when(exoPlayer.getAvailableCommands()).thenReturn(Player.Commands.EMPTY);
+        when(exoPlayer.getTrackSelectionParameters()).thenReturn(TrackSelectionParameters.DEFAULT_WITHOUT_CONTEXT);
+        when(exoPlayer.getPlaybackState()).thenReturn(Player.STATE_READY);
+        doAnswer(invocation -> seek(invocation.getArgument(0))).when(exoPlayer).seekTo(anyLong());
+        doAnswer(invocation -> seek(invocation.getArgument(1))).when(exoPlayer).seekTo(anyInt(), anyLong());
+    }
+
+    /**
+     * @return a player factory that hands out this player.
+     */
+    VideoPlayer.PlayerFactory factory() {
+        return (context, loadControl, clock, bandwidthMeter) -> exoPlayer;
+    }
+
+    long getPositionMs() {
+        return positionMs;
+    }
+
+    /**
+     * Plays on for the given time.
+     */
+    void advance(long durationMs) {
+        positionMs += durationMs;
+    }
+
+    private Void seek(long positionMs) {
+        this.positionMs = positionMs;
+        seeks.add(positionMs);
+        return null;
+    }
+}
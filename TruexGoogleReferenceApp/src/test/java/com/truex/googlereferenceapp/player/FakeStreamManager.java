@@ -0,0 +1,63 @@
+package com.truex.googlereferenceapp.player;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.ads.interactivemedia.v3.api.CuePoint;
+import com.google.ads.interactivemedia.v3.api.StreamManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stand-in IMA stream manager for a VOD stream with the given ad breaks, which maps between
+ * content and stream time like IMA does.
+ */
+class FakeStreamManager {
+    final StreamManager streamManager = mock(StreamManager.class);
+    private final List<CuePoint> cuePoints = new ArrayList<>();
+
+    FakeStreamManager() {
+        when(streamManager.getStreamId()).thenReturn("fake-stream-id");
+        when(streamManager.getCuePoints()).thenAnswer(invocation -> new ArrayList<>(cuePoints));
+        when(streamManager.getStreamTimeMsForContentTimeMs(anyLong()))
+                .thenAnswer(invocation -> toStreamMs(invocation.getArgument(0)));
+        when(streamManager.getContentTimeMsForStreamTimeMs(anyLong()))
+                .thenAnswer(invocation -> toContentMs(invocation.getArgument(0)));
+    }
+
+    /**
+     * Adds an ad break, in stream time. Ad breaks must be added in ascending order.
+     */
+    FakeStreamManager addAdBreak(long startTimeMs, long endTimeMs, boolean played) {
+        cuePoints.add(cuePoint(startTimeMs, endTimeMs, played));
+        return this;
+    }
+
+    static CuePoint cuePoint(long startTimeMs, long endTimeMs, boolean played) {
+        CuePoint cuePoint = mock(CuePoint.class);
+        when(cuePoint.getStartTimeMs()).thenReturn(startTimeMs);
+        when(cuePoint.getEndTimeMs()).thenReturn(endTimeMs);
+        when(cuePoint.isPlayed()).thenReturn(played);
+        return cuePoint;
+    }
+
+    private long toStreamMs(long contentTimeMs) {
+        long streamTimeMs = contentTimeMs;
+        for (CuePoint cuePoint : cuePoints) {
+            if (cuePoint.getStartTimeMs() >= streamTimeMs) break;
+            streamTimeMs += cuePoint.getEndTimeMs() - cuePoint.getStartTimeMs();
+        }
+        return streamTimeMs;
+    }
+
+    private long toContentMs(long streamTimeMs) {
+        long contentTimeMs = streamTimeMs;
+        for (CuePoint cuePoint : cuePoints) {
+            if (cuePoint.getStartTimeMs() >= streamTimeMs) break;
+            contentTimeMs -= Math.min(streamTimeMs, cuePoint.getEndTimeMs()) - cuePoint.getStartTimeMs();
+        }
+        return contentTimeMs;
+    }
+}
@@ -0,0 +1,66 @@
+package com.truex.googlereferenceapp.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+import androidx.media3.common.C;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class LifecyclePlayerOwnerTest {
+    private final List<Object> released = new ArrayList<>();
+    private LifecycleRegistry lifecycle;
+    private LifecyclePlayerOwner<Object> owner;
+    private long lastResumePositionMs;
+
+    @Before
+    public void setUp() {
+        LifecycleOwner lifecycleOwner = () -> lifecycle;
+        lifecycle = LifecycleRegistry.createUnsafe(lifecycleOwner);
+        owner = new LifecyclePlayerOwner<>("test", lifecycleOwner, new LifecyclePlayerOwner.Callback<Object>() {
+            @Override
+            public Object createPlayer(long resumePositionMs) {
+                lastResumePositionMs = resumePositionMs;
+                return new Object();
+            }
+
+            @Override
+            public long releasePlayer(Object player) {
+                released.add(player);
+                return 42_000;
+            }
+        });
+    }
+
+    @Test
+    public void releasedPlayerIsDroppedUntilRestart() {
+        lifecycle.setCurrentState(Lifecycle.State.STARTED);
+        Object player = owner.getPlayer();
+        assertEquals(C.TIME_UNSET, lastResumePositionMs);
+
+        // E.g. shed under memory pressure.
+        owner.releasePlayer();
+        assertNull(owner.getPlayer());
+        assertEquals(1, released.size());
+
+        // Stopping doesn't release it twice.
+        lifecycle.setCurrentState(Lifecycle.State.CREATED);
+        assertEquals(1, released.size());
+
+        // Starting again creates a new player, resuming where the released one left off.
+        lifecycle.setCurrentState(Lifecycle.State.STARTED);
+        assertNotSame(player, owner.getPlayer());
+        assertEquals(42_000, lastResumePositionMs);
+    }
+}
@@ -0,0 +1,126 @@
+package com.truex.googlereferenceapp.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.truex.googlereferenceapp.player.PlaybackStateMachine.Event;
+import com.truex.googlereferenceapp.player.PlaybackStateMachine.State;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+public class PlaybackStateMachineTest {
+    // The expected transitions, every other event is ignored in its state.
+    private static final Object[][] TRANSITIONS = {
+            {State.CONTENT, Event.SNAPBACK, State.SNAPBACK_PENDING},
+            {State.CONTENT, Event.AD_BREAK_STARTED, State.AD_BREAK},
+            {State.SNAPBACK_PENDING, Event.AD_BREAK_STARTED, State.AD_BREAK},
+            {State.SNAPBACK_PENDING, Event.AD_BREAK_ENDED, State.CONTENT},
+            {State.AD_BREAK, Event.ENGAGEMENT_STARTED, State.ENGAGEMENT},
+            {State.AD_BREAK, Event.AD_BREAK_ENDED, State.CONTENT},
+            {State.ENGAGEMENT, Event.AD_BREAK_SKIPPED, State.POST_SKIP},
+            {State.ENGAGEMENT, Event.ENGAGEMENT_ENDED, State.AD_BREAK},
+            {State.POST_SKIP, Event.ENGAGEMENT_ENDED, State.CONTENT},
+    };
+
+    // The events that lead from the initial state to each state.
+    private static final Map<State, Event[]> PATHS = new EnumMap<>(State.class);
+
+    static {
+        PATHS.put(State.CONTENT, new Event[0]);
+        PATHS.put(State.SNAPBACK_PENDING, new Event[] {Event.SNAPBACK});
+        PATHS.put(State.AD_BREAK, new Event[] {Event.AD_BREAK_STARTED});
+        PATHS.put(State.ENGAGEMENT, new Event[] {Event.AD_BREAK_STARTED, Event.ENGAGEMENT_STARTED});
+        PATHS.put(State.POST_SKIP,
+                new Event[] {Event.AD_BREAK_STARTED, Event.ENGAGEMENT_STARTED, Event.AD_BREAK_SKIPPED});
+    }
+
+    @Test
+    public void startsInContent() {
+        assertEquals(State.CONTENT, new PlaybackStateMachine().getState());
+    }
+
+    @Test
+    public void appliesEveryEventInEveryState() {
+        for (State from : State.values()) {
+            for (Event event : Event.values()) {
+                PlaybackStateMachine stateMachine = stateMachineIn(from);
+                List<String> transitions = new ArrayList<>();
+                stateMachine.setListener((previous, firedEvent, next) ->
+                        transitions.add(previous + " " + firedEvent + " " + next));
+                State expected = expectedTransition(from, event);
+                String label = event + " in " + from;
+
+                assertEquals(label, expected != null, stateMachine.canFire(event));
+                assertEquals(label, expected != null, stateMachine.fire(event));
+                if (expected != null) {
+                    assertEquals(label, expected, stateMachine.getState());
+                    assertEquals(label, 1, transitions.size());
+                    assertEquals(label, from + " " + event + " " + expected, transitions.get(0));
+                } else {
+                    // Ignored events change nothing, and are not reported.
+                    assertEquals(label, from, stateMachine.getState());
+                    assertTrue(label, transitions.isEmpty());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ignoresDuplicateEvents() {
+        // IMA reports the end of the ad break after the engagement already skipped it.
+        PlaybackStateMachine stateMachine = stateMachineIn(State.POST_SKIP);
+        assertFalse(stateMachine.fire(Event.AD_BREAK_ENDED));
+        assertEquals(State.POST_SKIP, stateMachine.getState());
+
+        // A second placeholder in the same ad break doesn't start another engagement.
+        stateMachine = stateMachineIn(State.ENGAGEMENT);
+        assertFalse(stateMachine.fire(Event.ENGAGEMENT_STARTED));
+        assertEquals(State.ENGAGEMENT, stateMachine.getState());
+
+        // The ad break end is only handled once.
+        stateMachine = stateMachineIn(State.AD_BREAK);
+        assertTrue(stateMachine.fire(Event.AD_BREAK_ENDED));
+        assertFalse(stateMachine.fire(Event.AD_BREAK_ENDED));
+        assertEquals(State.CONTENT, stateMachine.getState());
+
+        // Only one snapback is pending at a time.
+        stateMachine = stateMachineIn(State.SNAPBACK_PENDING);
+        assertFalse(stateMachine.fire(Event.SNAPBACK));
+        assertEquals(State.SNAPBACK_PENDING, stateMachine.getState());
+    }
+
+    @Test
+    public void resetReturnsToContentFromEveryState() {
+        for (State state : State.values()) {
+            PlaybackStateMachine stateMachine = stateMachineIn(state);
+            List<State> reported = new ArrayList<>();
+            stateMachine.setListener((from, event, to) -> reported.add(to));
+            stateMachine.reset();
+            assertEquals(state.toString(), State.CONTENT, stateMachine.getState());
+            assertTrue(state.toString(), stateMachine.isIn(State.CONTENT));
+            assertTrue(state.toString(), reported.isEmpty());
+        }
+    }
+
+    private static PlaybackStateMachine stateMachineIn(State state) {
+        PlaybackStateMachine stateMachine = new PlaybackStateMachine();
+        for (Event event : PATHS.get(state)) {
+            assertTrue(stateMachine.fire(event));
+        }
+        assertEquals(state, stateMachine.getState());
+        return stateMachine;
+    }
+
+    private static State expectedTransition(State from, Event event) {
+        for (Object[] transition : TRANSITIONS) {
+            if (transition[0] == from && transition[1] == event) return (State) transition[2];
+        }
+        return null;
+    }
+}
@@ -0,0 +1,264 @@
+package com.truex.googlereferenceapp.player;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.view.ViewGroup;
+
+import androidx.media3.common.Player;
+import androidx.media3.common.util.Clock;
+import androidx.media3.ui.PlayerView;
+
+import com.google.ads.interactivemedia.v3.api.Ad;
+import com.google.ads.interactivemedia.v3.api.AdError;
+import com.google.ads.interactivemedia.v3.api.AdErrorEvent;
+import com.google.ads.interactivemedia.v3.api.AdEvent;
+import com.google.ads.interactivemedia.v3.api.AdPodInfo;
+import com.google.ads.interactivemedia.v3.api.AdsLoader;
+import com.google.ads.interactivemedia.v3.api.AdsManagerLoadedEvent;
+import com.google.ads.interactivemedia.v3.api.AdsRenderingSettings;
+import com.google.ads.interactivemedia.v3.api.ImaSdkFactory;
+import com.google.ads.interactivemedia.v3.api.StreamDisplayContainer;
+import com.google.ads.interactivemedia.v3.api.player.VideoStreamPlayer;
+import com.truex.googlereferenceapp.analytics.AnalyticsReporter;
+import com.truex.googlereferenceapp.home.StreamConfiguration;
+import com.truex.googlereferenceapp.metrics.PlaybackMetrics;
+import com.truex.googlereferenceapp.player.ads.AdClassifier;
+import com.truex.googlereferenceapp.player.ads.TruexAdManager;
+import com.truex.googlereferenceapp.trace.PlaybackTrace;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Drives the ad playback flows of a VOD stream with a single unplayed ad break, 60s to 90s in stream
+ * time, with stand-ins for ExoPlayer, the IMA SDK and the Infillion ad renderer.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class VideoPlayerWithAdsTest {
+    private static final String STREAM_URL = "https://example.com/stream.m3u8";
+
+    private final FakeExoPlayer player = new FakeExoPlayer();
+    private final FakeStreamManager streamManager = new FakeStreamManager().addAdBreak(60_000, 90_000, false);
+    private final PlayerView playerView = mock(PlayerView.class);
+    private final ViewGroup adUiContainer = mock(ViewGroup.class);
+    private final TruexAdManager truexAdManager = mock(TruexAdManager.class);
+
+    private VideoPlayerWithAds videoPlayerWithAds;
+    private VideoPlayer videoPlayer;
+    private VideoStreamPlayer videoStreamPlayer;
+    private Player playerWrapper;
+    private boolean engagementCreated;
+
+    @Before
+    public void setUp() throws Exception {
+        AdClassifier.getInstance().clear();
+        Context context = RuntimeEnvironment.getApplication();
+        StreamConfiguration streamConfiguration = StreamConfiguration.getStreamConfiguration(new JSONObject()
+                .put("title", "Test stream")
+                .put("google_content_id", "content")
+                .put("google_video_id", "video"));
+
+        ImaSdkFactory sdkFactory = mock(ImaSdkFactory.class);
+        when(sdkFactory.createAdsLoader(any(Context.class), any(), any(StreamDisplayContainer.class))).thenReturn(mock(AdsLoader.class));
+        when(sdkFactory.createAdsRenderingSettings()).thenReturn(mock(AdsRenderingSettings.class));
+        VideoPlayerWithAds.AdUiFactory adUiFactory = new VideoPlayerWithAds.AdUiFactory() {
+            @Override
+            public StreamDisplayContainer createStreamDisplayContainer(ViewGroup container, VideoStreamPlayer streamPlayer) {
+                videoStreamPlayer = streamPlayer;
+                return mock(StreamDisplayContainer.class);
+            }
+
+            @Override
+            public TruexAdManager createTruexAdManager(Context context, PlaybackHandler playbackHandler,
+                                                       PlaybackMetrics metrics, AnalyticsReporter analyticsReporter,
+                                                       PlaybackTrace trace) {
+                engagementCreated = true;
+                return truexAdManager;
+            }
+        };
+
+        videoPlayer = new VideoPlayer(context, playerView, null, Clock.DEFAULT, player.factory());
+        videoPlayerWithAds = new VideoPlayerWithAds(context, streamConfiguration, videoPlayer, adUiContainer,
+                sdkFactory, adUiFactory, null);
+
+        // The player view seeks through the wrapper, in content time.
+        ArgumentCaptor<Player> playerCaptor = ArgumentCaptor.forClass(Player.class);
+        verify(playerView).setPlayer(playerCaptor.capture());
+        playerWrapper = playerCaptor.getValue();
+
+        // IMA loads the stitched stream, and reports its ad breaks.
+        AdsManagerLoadedEvent loadedEvent = mock(AdsManagerLoadedEvent.class);
+        when(loadedEvent.getStreamManager()).thenReturn(streamManager.streamManager);
+        videoPlayerWithAds.onAdsManagerLoaded(loadedEvent);
+        videoStreamPlayer.loadUrl(STREAM_URL, Collections.emptyList());
+        videoPlayerWithAds.onAdEvent(adEvent(AdEvent.AdEventType.CUEPOINTS_CHANGED, null));
+        player.advance(10_000);
+    }
+
+    @Test
+    public void snapbackEngagementAndSkipResumeAtSeekTarget() {
+        // Seeking over the unplayed ad break snaps back to its start.
+        playerWrapper.seekTo(100_000);
+        assertEquals(PlaybackStateMachine.State.SNAPBACK_PENDING, videoPlayerWithAds.getPlaybackState());
+        assertEquals(Arrays.asList(60_000L), player.seeks);
+
+        videoStreamPlayer.onAdBreakStarted();
+        assertEquals(PlaybackStateMachine.State.AD_BREAK, videoPlayerWithAds.getPlaybackState());
+
+        // The Infillion placeholder starts the engagement, with the stream paused.
+        player.advance(1_000);
+        videoPlayerWithAds.onAdEvent(adEvent(AdEvent.AdEventType.STARTED, infillionAd()));
+        assertEquals(PlaybackStateMachine.State.ENGAGEMENT, videoPlayerWithAds.getPlaybackState());
+        verify(truexAdManager).startAd(eq(adUiContainer), any(JSONObject.class), eq(false));
+        verify(player.exoPlayer).pause();
+
+        // The ad credit skips the rest of the ad break.
+        videoPlayerWithAds.skipCurrentAdBreak();
+        assertEquals(PlaybackStateMachine.State.POST_SKIP, videoPlayerWithAds.getPlaybackState());
+        assertEquals(Arrays.asList(60_000L, 92_000L), player.seeks);
+
+        // Resuming the stream snaps forward to the user's seek target.
+        videoPlayerWithAds.resumeStream();
+        assertEquals(PlaybackStateMachine.State.CONTENT, videoPlayerWithAds.getPlaybackState());
+        assertEquals(Arrays.asList(60_000L, 92_000L, 130_000L), player.seeks);
+        assertTrue(videoPlayer.getCuePointTable().isPlayed(0));
+        verify(player.exoPlayer, times(2)).play();
+
+        // IMA's own end of the skipped ad break changes nothing.
+        videoStreamPlayer.onAdBreakEnded();
+        assertEquals(PlaybackStateMachine.State.CONTENT, videoPlayerWithAds.getPlaybackState());
+        assertEquals(3, player.seeks.size());
+    }
+
+    @Test
+    public void snapbackWithoutEngagementResumesAtSeekTargetOnceAdBreakEnds() {
+        playerWrapper.seekTo(100_000);
+        videoStreamPlayer.onAdBreakStarted();
+
+        // A regular ad plays through without an engagement.
+        videoPlayerWithAds.onAdEvent(adEvent(AdEvent.AdEventType.STARTED, regularAd()));
+        assertEquals(PlaybackStateMachine.State.AD_BREAK, videoPlayerWithAds.getPlaybackState());
+        assertFalse(engagementCreated);
+
+        player.advance(30_000);
+        videoStreamPlayer.onAdBreakEnded();
+        assertEquals(PlaybackStateMachine.State.CONTENT, videoPlayerWithAds.getPlaybackState());
+        assertEquals(Arrays.asList(60_000L, 130_000L), player.seeks);
+        assertTrue(videoPlayer.getCuePointTable().isPlayed(0));
+    }
+
+    @Test
+    public void playedAdBreakIsSeekedOver() {
+        playerWrapper.seekTo(100_000);
+        videoStreamPlayer.onAdBreakStarted();
+        player.advance(30_000);
+        videoStreamPlayer.onAdBreakEnded();
+
+        playerWrapper.seekTo(30_000);
+        playerWrapper.seekTo(100_000);
+        assertEquals(PlaybackStateMachine.State.CONTENT, videoPlayerWithAds.getPlaybackState());
+        assertEquals(Arrays.asList(60_000L, 130_000L, 30_000L, 130_000L), player.seeks);
+    }
+
+    @Test
+    public void cuePointUpdateKeepsAdBreakPlayedLocally() {
+        playerWrapper.seekTo(100_000);
+        videoStreamPlayer.onAdBreakStarted();
+        player.advance(30_000);
+        videoStreamPlayer.onAdBreakEnded();
+
+        // IMA has not caught up with the played ad break yet.
+        videoPlayerWithAds.onAdEvent(adEvent(AdEvent.AdEventType.CUEPOINTS_CHANGED, null));
+        assertTrue(videoPlayer.getCuePointTable().isPlayed(0));
+    }
+
+    @Test
+    public void cuePointsAreSortedByStartTime() {
+        videoPlayer.updateCuePoints(Arrays.asList(
+                FakeStreamManager.cuePoint(300_000, 330_000, false),
+                FakeStreamManager.cuePoint(60_000, 90_000, true)));
+
+        CuePointTable cuePointTable = videoPlayer.getCuePointTable();
+        assertEquals(60_000, cuePointTable.getStartTimeMs(0));
+        assertTrue(cuePointTable.isPlayed(0));
+        assertEquals(300_000, cuePointTable.getStartTimeMs(1));
+        assertEquals(270_000, cuePointTable.streamToContentMs(330_000));
+    }
+
+    @Test
+    public void seeksAreIgnoredDuringAdBreak() {
+        player.advance(50_000);
+        videoStreamPlayer.onAdBreakStarted();
+
+        playerWrapper.seekTo(100_000);
+        assertEquals(PlaybackStateMachine.State.AD_BREAK, videoPlayerWithAds.getPlaybackState());
+        assertTrue(player.seeks.isEmpty());
+    }
+
+    @Test
+    public void skipIsIgnoredOutsideEngagement() {
+        playerWrapper.seekTo(100_000);
+        videoStreamPlayer.onAdBreakStarted();
+
+        videoPlayerWithAds.skipCurrentAdBreak();
+        assertEquals(PlaybackStateMachine.State.AD_BREAK, videoPlayerWithAds.getPlaybackState());
+        assertEquals(Arrays.asList(60_000L), player.seeks);
+        assertFalse(engagementCreated);
+    }
+
+    @Test
+    public void debugSampleIsEmptyOnceReleasedAfterAdError() {
+        assertTrue(videoPlayerWithAds.fillDebugSample(new DebugHud.Sample()));
+
+        AdErrorEvent errorEvent = mock(AdErrorEvent.class);
+        when(errorEvent.getError()).thenReturn(mock(AdError.class));
+        videoPlayerWithAds.onAdError(errorEvent);
+        assertFalse(videoPlayerWithAds.fillDebugSample(new DebugHud.Sample()));
+    }
+
+    private static AdEvent adEvent(AdEvent.AdEventType type, Ad ad) {
+        AdEvent event = mock(AdEvent.class);
+        when(event.getType()).thenReturn(type);
+        when(event.getAd()).thenReturn(ad);
+        return event;
+    }
+
+    private static Ad infillionAd() {
+        Ad ad = ad("trueX", "infillion-ad");
+        when(ad.getTraffickingParameters()).thenReturn("{\"user_id\":\"test\"}");
+        return ad;
+    }
+
+    private static Ad regularAd() {
+        return ad("GDFP", "regular-ad");
+    }
+
+    private static Ad ad(String adSystem, String adId) {
+        AdPodInfo adPodInfo = mock(AdPodInfo.class);
+        when(adPodInfo.getTimeOffset()).thenReturn(60.0);
+        Ad ad = mock(Ad.class);
+        when(ad.getAdSystem()).thenReturn(adSystem);
+        when(ad.getAdId()).thenReturn(adId);
+        when(ad.getCreativeId()).thenReturn(adId + "-creative");
+        when(ad.getDuration()).thenReturn(30.0);
+        when(ad.getAdPodInfo()).thenReturn(adPodInfo);
+        return ad;
+    }
+}
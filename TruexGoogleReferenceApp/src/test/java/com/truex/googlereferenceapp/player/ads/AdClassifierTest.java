@@ -0,0 +1,143 @@
+package com.truex.googlereferenceapp.player.ads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.ads.interactivemedia.v3.api.Ad;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class AdClassifierTest {
+    private static final String PARAMS = "{\"user_id\":\"test\",\"placement_hash\":\"abc\"}";
+    private static final String VAST_CONFIG_URL = "https://get.truex.com/abc/vast/config";
+
+    private final AdClassifier classifier = new AdClassifier(AdClassifier.DEFAULT_MAX_ENTRIES);
+
+    @Test
+    public void cacheKeyIsAdIdAndCreativeId() {
+        assertEquals("ad/creative", AdClassifier.cacheKeyOf(ad("ad", "creative", "GDFP")));
+        assertEquals("ad/null", AdClassifier.cacheKeyOf(ad("ad", null, "GDFP")));
+        assertEquals("null/creative", AdClassifier.cacheKeyOf(ad(null, "creative", "GDFP")));
+        assertNull(AdClassifier.cacheKeyOf(ad(null, null, "GDFP")));
+    }
+
+    @Test
+    public void classifiesRegularAd() {
+        AdClassifier.Classification classification = classifier.classify(ad("ad", "creative", "GDFP"));
+        assertEquals(AdClassifier.AdType.REGULAR, classification.getAdType());
+        assertFalse(classification.isInfillionAd());
+        assertNull(classification.getParams());
+    }
+
+    @Test
+    public void classifiesTruexPlaceholderWithParams() throws Exception {
+        Ad ad = ad("ad", "creative", "trueX");
+        when(ad.getTraffickingParameters()).thenReturn(PARAMS);
+        AdClassifier.Classification classification = classifier.classify(ad);
+        assertEquals(AdClassifier.AdType.TRUEX, classification.getAdType());
+        assertTrue(classification.isInfillionAd());
+        assertFalse(classification.isIDVx());
+        assertEquals("test", classification.getParams().getString("user_id"));
+    }
+
+    @Test
+    public void classifiesIdvxPlaceholderWithVastConfigUrl() {
+        Ad ad = ad("ad", "creative", "IDVx");
+        when(ad.getDescription()).thenReturn(VAST_CONFIG_URL);
+        AdClassifier.Classification classification = classifier.classify(ad);
+        assertTrue(classification.isIDVx());
+        assertNull(classification.getParams());
+        assertEquals(VAST_CONFIG_URL, classification.getVastConfigUrl());
+    }
+
+    @Test
+    public void placeholderWithoutValidConfigurationIsRegular() {
+        Ad ad = ad("ad", "creative", "trueX");
+        when(ad.getTraffickingParameters()).thenReturn("not json");
+        when(ad.getDescription()).thenReturn("https://example.com/vast");
+        assertEquals(AdClassifier.AdType.REGULAR, classifier.classify(ad).getAdType());
+    }
+
+    @Test
+    public void everyCallerGetsItsOwnParams() throws Exception {
+        Ad ad = ad("ad", "creative", "trueX");
+        when(ad.getTraffickingParameters()).thenReturn(PARAMS);
+        JSONObject params = classifier.classify(ad).getParams();
+        params.put("user_id", "modified");
+
+        JSONObject cachedParams = classifier.classify(ad).getParams();
+        assertNotSame(params, cachedParams);
+        assertEquals("test", cachedParams.getString("user_id"));
+    }
+
+    @Test
+    public void nestedParamsAreCopied() throws Exception {
+        Ad ad = ad("ad", "creative", "trueX");
+        when(ad.getTraffickingParameters()).thenReturn("{\"user\":{\"id\":\"test\"},\"slots\":[{\"id\":1}]}");
+        JSONObject params = classifier.classify(ad).getParams();
+        params.getJSONObject("user").put("id", "modified");
+        params.getJSONArray("slots").getJSONObject(0).put("id", 2);
+
+        JSONObject cachedParams = classifier.classify(ad).getParams();
+        assertEquals("test", cachedParams.getJSONObject("user").getString("id"));
+        assertEquals(1, cachedParams.getJSONArray("slots").getJSONObject(0).getInt("id"));
+        verify(ad, times(1)).getTraffickingParameters();
+    }
+
+    @Test
+    public void repeatCreativeIsClassifiedOnce() {
+        Ad ad = ad("ad", "creative", "GDFP");
+        AdClassifier.Classification classification = classifier.classify(ad);
+        assertSame(classification, classifier.classify(ad));
+        verify(ad, times(1)).getAdSystem();
+    }
+
+    @Test
+    public void adsWithoutIdsAreNotCached() {
+        Ad ad = ad(null, null, "GDFP");
+        classifier.classify(ad);
+        classifier.classify(ad);
+        verify(ad, times(2)).getAdSystem();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedCreative() {
+        int maxEntries = AdClassifier.DEFAULT_MAX_ENTRIES;
+        Ad[] ads = new Ad[maxEntries + 1];
+        for (int i = 0; i < ads.length; i++) {
+            ads[i] = ad("ad" + i, "creative" + i, "GDFP");
+        }
+        for (int i = 0; i < maxEntries; i++) {
+            classifier.classify(ads[i]);
+        }
+
+        // The first creative was used recently, so the second one is the eldest.
+        classifier.classify(ads[0]);
+        classifier.classify(ads[maxEntries]);
+
+        classifier.classify(ads[0]);
+        verify(ads[0], times(1)).getAdSystem();
+        classifier.classify(ads[1]);
+        verify(ads[1], times(2)).getAdSystem();
+    }
+
+    private static Ad ad(String adId, String creativeId, String adSystem) {
+        Ad ad = mock(Ad.class);
+        when(ad.getAdId()).thenReturn(adId);
+        when(ad.getCreativeId()).thenReturn(creativeId);
+        when(ad.getAdSystem()).thenReturn(adSystem);
+        return ad;
+    }
+}
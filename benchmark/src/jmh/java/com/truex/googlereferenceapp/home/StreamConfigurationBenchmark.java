@@ -0,0 +1,72 @@
+package com.truex.googlereferenceapp.home;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Stream catalog loading on startup, either by parsing the fetched JSON, or by reading the binary
+ * snapshot written after the previous fetch.
+ */
+@State(Scope.Thread)
+public class StreamConfigurationBenchmark {
+    @Param({"10", "100", "1000"})
+    int catalogSize;
+
+    private String catalogJson;
+    private File snapshotFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JSONException, IOException {
+        JSONArray catalog = new JSONArray();
+        for (int i = 0; i < catalogSize; i++) {
+            JSONObject entry = new JSONObject()
+                    .put("title", "Stream " + i)
+                    .put("description", "The description of stream " + i + ", as shown on the home screen.")
+                    .put("cover", "https://example.com/covers/" + i + ".jpg")
+                    .put("preview", "https://example.com/previews/" + i + ".mp4")
+                    .put("google_content_id", "2548831")
+                    .put("google_video_id", "tears-of-steel-" + i)
+                    .put("stream_type", "vod")
+                    .put("ad_policy", "played_budget")
+                    .put("ad_budget_seconds", 90);
+            catalog.put(entry);
+        }
+        catalogJson = catalog.toString();
+
+        snapshotFile = File.createTempFile("catalog", ".snapshot");
+        StreamCatalogSnapshot.write(snapshotFile,
+                StreamConfiguration.getStreamConfigurations(new JSONArray(catalogJson)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        snapshotFile.delete();
+    }
+
+    @Benchmark
+    public List<StreamConfiguration> parseCatalog() throws JSONException {
+        return StreamConfiguration.getStreamConfigurations(new JSONArray(catalogJson));
+    }
+
+    @Benchmark
+    public void readSnapshot(Blackhole blackhole) throws IOException {
+        // The home screen decodes every entry it binds, i.e. all of them for a short catalog.
+        List<StreamConfiguration> streamConfigurations = StreamCatalogSnapshot.read(snapshotFile).asList();
+        for (int i = 0; i < streamConfigurations.size(); i++) {
+            blackhole.consume(streamConfigurations.get(i));
+        }
+    }
+}
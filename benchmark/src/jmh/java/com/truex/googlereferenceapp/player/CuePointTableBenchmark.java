@@ -0,0 +1,71 @@
+package com.truex.googlereferenceapp.player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Stream to content time conversion, as done by the video player for every position query, and
+ * the ad marker construction of a downloaded stream's ad breaks.
+ */
+@State(Scope.Thread)
+public class CuePointTableBenchmark {
+    private static final long AD_BREAK_INTERVAL_MS = 10 * 60 * 1000;
+    private static final long AD_BREAK_DURATION_MS = 90 * 1000;
+
+    @Param({"4", "32", "256"})
+    int cuePointCount;
+
+    private CuePointTable table;
+    private long[] streamPositionsMs;
+    private int nextPosition;
+
+    @Setup
+    public void setUp() {
+        table = new CuePointTable();
+        addCuePoints(table);
+
+        streamPositionsMs = new long[1024];
+        long streamDurationMs = cuePointCount * AD_BREAK_INTERVAL_MS;
+        for (int i = 0; i < streamPositionsMs.length; i++) {
+            streamPositionsMs[i] = streamDurationMs * i / streamPositionsMs.length;
+        }
+    }
+
+    private void addCuePoints(CuePointTable target) {
+        for (int i = 0; i < cuePointCount; i++) {
+            long startMs = i * AD_BREAK_INTERVAL_MS;
+            target.add(startMs, startMs + AD_BREAK_DURATION_MS, i % 2 == 0);
+        }
+    }
+
+    private long nextStreamPosition() {
+        long position = streamPositionsMs[nextPosition];
+        nextPosition = (nextPosition + 1) & (streamPositionsMs.length - 1);
+        return position;
+    }
+
+    @Benchmark
+    public long streamToContent() {
+        return table.streamToContentMs(nextStreamPosition());
+    }
+
+    @Benchmark
+    public long contentToStream() {
+        return table.contentToStreamMs(nextStreamPosition());
+    }
+
+    @Benchmark
+    public void refreshAdMarkers(Blackhole blackhole) {
+        table.clear();
+        addCuePoints(table);
+        long[] adGroupTimesMs = new long[table.size()];
+        boolean[] playedAdGroups = new boolean[table.size()];
+        table.fillAdMarkers(adGroupTimesMs, playedAdGroups);
+        blackhole.consume(adGroupTimesMs);
+        blackhole.consume(playedAdGroups);
+    }
+}
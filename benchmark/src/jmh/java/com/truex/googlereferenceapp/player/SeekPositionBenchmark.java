@@ -0,0 +1,31 @@
+package com.truex.googlereferenceapp.player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The seek position arithmetic done when skipping an ad break or resuming after a placeholder ad.
+ */
+@State(Scope.Thread)
+public class SeekPositionBenchmark {
+    double timeOffsetSeconds = 600.0;
+    double adDurationSeconds = 30.5;
+
+    @Benchmark
+    public long skipAdBreak() {
+        SeekPosition seekPosition = SeekPosition.fromSeconds(timeOffsetSeconds);
+        seekPosition.addSeconds(adDurationSeconds);
+        seekPosition.addSeconds(2);
+        return seekPosition.getMilliseconds();
+    }
+
+    @Benchmark
+    public long resumeAfterPlaceholder() {
+        SeekPosition lastAdEndTime = SeekPosition.fromSeconds(timeOffsetSeconds);
+        lastAdEndTime.addSeconds(adDurationSeconds);
+        SeekPosition seekPosition = SeekPosition.fromMilliseconds(lastAdEndTime.getMilliseconds());
+        seekPosition.subtractMilliseconds(100);
+        return seekPosition.getMilliseconds();
+    }
+}
@@ -0,0 +1,25 @@
+package com.truex.googlereferenceapp.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Position formatting as done by VideoPlayer.positionDisplay and VideoPlayer.logPosition,
+ * the latter being called on every content position query of the player view.
+ */
+@State(Scope.Thread)
+public class TimeUtilsBenchmark {
+    long positionMs = 754_321;
+    long rawPositionMs = 3_845_120;
+
+    @Benchmark
+    public String positionDisplay() {
+        return TimeUtils.formatPosition(positionMs);
+    }
+
+    @Benchmark
+    public String logPosition() {
+        return TimeUtils.formatPositionMessage("getContentPosition", positionMs, rawPositionMs);
+    }
+}
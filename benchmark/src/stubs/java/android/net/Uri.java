@@ -0,0 +1,29 @@
+package android.net;
+
+/**
+ * Stands in for the framework class, for the app sources compiled into the benchmarks.
+ */
+public final class Uri {
+    private final String uriString;
+
+    private Uri(String uriString) {
+        this.uriString = uriString;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    public String getPath() {
+        int start = uriString.indexOf("://");
+        start = start < 0 ? 0 : uriString.indexOf('/', start + 3);
+        if (start < 0) return "";
+        int end = uriString.indexOf('?', start);
+        return end < 0 ? uriString.substring(start) : uriString.substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return uriString;
+    }
+}
@@ -0,0 +1,31 @@
+package android.os;
+
+/**
+ * Stands in for the framework class, for the app sources compiled into the benchmarks.
+ * Parceling is not benchmarked.
+ */
+public final class Parcel {
+    public String readString() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int readInt() {
+        throw new UnsupportedOperationException();
+    }
+
+    public long readLong() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeString(String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeInt(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeLong(long value) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * Stands in for the framework interface, for the app sources compiled into the benchmarks.
+ */
+public interface Parcelable {
+    int describeContents();
+
+    void writeToParcel(Parcel dest, int flags);
+
+    interface Creator<T> {
+        T createFromParcel(Parcel source);
+
+        T[] newArray(int size);
+    }
+}
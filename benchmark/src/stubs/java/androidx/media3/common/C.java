@@ -0,0 +1,13 @@
+package androidx.media3.common;
+
+/**
+ * Stands in for the media3 constants used by the app sources compiled into the benchmarks.
+ */
+public final class C {
+    public static final int CONTENT_TYPE_DASH = 0;
+    public static final int CONTENT_TYPE_HLS = 2;
+    public static final int CONTENT_TYPE_OTHER = 4;
+
+    private C() {
+    }
+}
@@ -0,0 +1,12 @@
+package androidx.media3.common;
+
+/**
+ * Stands in for the media3 constants used by the app sources compiled into the benchmarks.
+ */
+public final class MimeTypes {
+    public static final String APPLICATION_M3U8 = "application/x-mpegURL";
+    public static final String APPLICATION_MPD = "application/dash+xml";
+
+    private MimeTypes() {
+    }
+}
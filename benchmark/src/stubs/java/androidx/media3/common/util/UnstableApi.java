@@ -0,0 +1,7 @@
+package androidx.media3.common.util;
+
+/**
+ * Stands in for the annotation, for the app sources compiled into the benchmarks.
+ */
+public @interface UnstableApi {
+}
@@ -0,0 +1,23 @@
+package androidx.media3.common.util;
+
+import android.net.Uri;
+
+import androidx.media3.common.C;
+
+/**
+ * Stands in for the media3 utilities used by the app sources compiled into the benchmarks.
+ */
+public final class Util {
+    private Util() {
+    }
+
+    /**
+     * Infers the content type from the path's extension, like media3 does.
+     */
+    public static int inferContentType(Uri uri) {
+        String path = uri.getPath();
+        if (path.endsWith(".m3u8")) return C.CONTENT_TYPE_HLS;
+        if (path.endsWith(".mpd")) return C.CONTENT_TYPE_DASH;
+        return C.CONTENT_TYPE_OTHER;
+    }
+}
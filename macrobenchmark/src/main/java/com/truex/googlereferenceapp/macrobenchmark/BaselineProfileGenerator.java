@@ -0,0 +1,31 @@
+package com.truex.googlereferenceapp.macrobenchmark;
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import kotlin.Unit;
+
+/**
+ * Generates the Baseline Profile that ships with the app, by recording the classes and methods used
+ * from the cold start to the first frame of the stream.
+ *
+ * Run with: ./gradlew :TruexGoogleReferenceApp:generateBaselineProfile
+ */
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+    @Rule
+    public BaselineProfileRule baselineProfileRule = new BaselineProfileRule();
+
+    @Test
+    public void generate() {
+        baselineProfileRule.collect(Journeys.PACKAGE_NAME, scope -> {
+            Journeys.startAndWaitForHome(scope);
+            Journeys.playAndWaitForFirstFrame(scope);
+            return Unit.INSTANCE;
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package com.truex.googlereferenceapp.macrobenchmark;
+
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+/**
+ * The user journeys shared by the Baseline Profile generator and the macrobenchmarks.
+ */
+final class Journeys {
+    static final String PACKAGE_NAME = "com.truex.googlereferenceapp";
+
+    // The stream catalog and the stream itself are loaded from the network.
+    private static final long TIMEOUT_MS = 30_000;
+
+    private Journeys() {
+
+    }
+
+    /**
+     * Cold starts the app and waits until the home screen shows the first stream.
+     */
+    static void startAndWaitForHome(MacrobenchmarkScope scope) {
+        scope.pressHome();
+        scope.startActivityAndWait();
+
+        UiDevice device = scope.getDevice();
+        if (!device.wait(Until.hasObject(By.res(PACKAGE_NAME, "play_button")), TIMEOUT_MS)) {
+            throw new AssertionError("The home screen did not show a stream");
+        }
+    }
+
+    /**
+     * Plays the stream shown on the home screen and waits for its first rendered frame.
+     */
+    static void playAndWaitForFirstFrame(MacrobenchmarkScope scope) {
+        UiDevice device = scope.getDevice();
+        UiObject2 playButton = device.findObject(By.res(PACKAGE_NAME, "play_button"));
+        playButton.click();
+
+        if (!device.wait(Until.hasObject(By.res(PACKAGE_NAME, "ad_ui_container")), TIMEOUT_MS)) {
+            throw new AssertionError("The player screen was not shown");
+        }
+
+        // The player view hides its shutter once the first frame is rendered.
+        if (!device.wait(Until.gone(By.res(PACKAGE_NAME, "exo_shutter")), TIMEOUT_MS)) {
+            throw new AssertionError("The stream did not render a frame");
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.truex.googlereferenceapp.macrobenchmark;
+
+import static org.junit.Assert.assertTrue;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import kotlin.Unit;
+
+/**
+ * Backgrounds and foregrounds the app many times during playback, and checks that the players are
+ * released with their screens, i.e. that there are never more active players than the screens need.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlayerLifecycleLeakTest {
+    private static final int CYCLES = 20;
+
+    // At most the preview player and the main player.
+    private static final int MAX_ACTIVE_PLAYERS = 2;
+
+    // Logged by VideoPlayer.logActivePlayers whenever a screen starts or stops its player.
+    private static final String ACTIVE_PLAYERS_TAG = "ActivePlayers";
+    private static final Pattern ACTIVE_PLAYERS = Pattern.compile("(\\d+) active players");
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void backgroundingDoesNotLeakPlayers() throws IOException {
+        UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+        device.executeShellCommand("logcat -c");
+
+        benchmarkRule.measureRepeated(
+                Journeys.PACKAGE_NAME,
+                Collections.singletonList(new StartupTimingMetric()),
+                new CompilationMode.None(),
+                StartupMode.COLD,
+                1,
+                scope -> Unit.INSTANCE,
+                scope -> {
+                    Journeys.startAndWaitForHome(scope);
+                    Journeys.playAndWaitForFirstFrame(scope);
+                    for (int i = 0; i < CYCLES; i++) {
+                        // Resumes the existing task, so the player screen stops and starts again.
+                        scope.pressHome();
+                        scope.startActivityAndWait();
+                    }
+                    return Unit.INSTANCE;
+                });
+
+        String log = device.executeShellCommand("logcat -d -s " + ACTIVE_PLAYERS_TAG + ":*");
+        Matcher matcher = ACTIVE_PLAYERS.matcher(log);
+        int counts = 0;
+        int maxCount = 0;
+        while (matcher.find()) {
+            counts++;
+            maxCount = Math.max(maxCount, Integer.parseInt(matcher.group(1)));
+        }
+        // Guards against the counts not being logged at all, e.g. under a different tag.
+        assertTrue("No active player counts logged", counts > 0);
+        assertTrue(maxCount + " active players across " + CYCLES + " background cycles",
+                maxCount <= MAX_ACTIVE_PLAYERS);
+    }
+}
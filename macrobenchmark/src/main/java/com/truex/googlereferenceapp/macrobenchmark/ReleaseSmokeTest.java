@@ -0,0 +1,83 @@
+package com.truex.googlereferenceapp.macrobenchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Plays a stream once on the minified release build, up to the start of its Infillion engagement,
+ * to catch missing keep rules, e.g. for the IMA SDK, the True[X] Ad Renderer or Dagger, which would
+ * otherwise only show up as crashes at runtime. The release build relies on the consumer rules of
+ * the ad SDKs, so the engagement is what proves that their ad events still reach the app.
+ *
+ * Run with: ./gradlew :macrobenchmark:pixel6Api34BenchmarkAndroidTest
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.truex.googlereferenceapp.macrobenchmark.ReleaseSmokeTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReleaseSmokeTest {
+    // The reference stream starts with an Infillion preroll.
+    private static final long ENGAGEMENT_TIMEOUT_MS = 30_000;
+    private static final long POLL_INTERVAL_MS = 500;
+
+    // Logged by TruexAdManager, whose log tag is obfuscated in the release build.
+    private static final String AD_STARTED = "ad event recieved: AD_STARTED";
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void playsStream() {
+        benchmarkRule.measureRepeated(
+                Journeys.PACKAGE_NAME,
+                Collections.singletonList(new StartupTimingMetric()),
+                new CompilationMode.None(),
+                StartupMode.COLD,
+                1,
+                scope -> Unit.INSTANCE,
+                scope -> {
+                    clearLog(scope.getDevice());
+                    Journeys.startAndWaitForHome(scope);
+                    Journeys.playAndWaitForFirstFrame(scope);
+                    waitForEngagement(scope.getDevice());
+                    return Unit.INSTANCE;
+                });
+    }
+
+    private static void clearLog(UiDevice device) {
+        try {
+            device.executeShellCommand("logcat -c");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void waitForEngagement(UiDevice device) {
+        long deadline = System.currentTimeMillis() + ENGAGEMENT_TIMEOUT_MS;
+        try {
+            while (!device.executeShellCommand("logcat -d").contains(AD_STARTED)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new AssertionError("The Infillion engagement did not start");
+                }
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Interrupted while waiting for the Infillion engagement");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.truex.googlereferenceapp.macrobenchmark;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Measures the cold start to the home screen, and the time from pressing Play to the first frame of
+ * the stream, both without any compilation and with the Baseline Profile, so the two can be compared.
+ *
+ * Run with: ./gradlew :macrobenchmark:pixel6Api34BenchmarkAndroidTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+    private static final int ITERATIONS = 5;
+
+    // Matches PlaybackMetrics.FIRST_FRAME_TRACE_SECTION in the app.
+    private static final String FIRST_FRAME_TRACE_SECTION = "PlaybackFirstFrame";
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void startupNoCompilation() {
+        startup(new CompilationMode.None());
+    }
+
+    @Test
+    public void startupBaselineProfile() {
+        startup(new CompilationMode.Partial(BaselineProfileMode.Require));
+    }
+
+    @Test
+    public void playbackNoCompilation() {
+        playback(new CompilationMode.None());
+    }
+
+    @Test
+    public void playbackBaselineProfile() {
+        playback(new CompilationMode.Partial(BaselineProfileMode.Require));
+    }
+
+    private void startup(CompilationMode compilationMode) {
+        benchmarkRule.measureRepeated(
+                Journeys.PACKAGE_NAME,
+                Collections.singletonList(new StartupTimingMetric()),
+                compilationMode,
+                StartupMode.COLD,
+                ITERATIONS,
+                scope -> Unit.INSTANCE,
+                scope -> {
+                    Journeys.startAndWaitForHome(scope);
+                    return Unit.INSTANCE;
+                });
+    }
+
+    private void playback(CompilationMode compilationMode) {
+        benchmarkRule.measureRepeated(
+                Journeys.PACKAGE_NAME,
+                Arrays.asList(
+                        new TraceSectionMetric(FIRST_FRAME_TRACE_SECTION, TraceSectionMetric.Mode.First.INSTANCE),
+                        new FrameTimingMetric()),
+                compilationMode,
+                StartupMode.COLD,
+                ITERATIONS,
+                scope -> {
+                    Journeys.startAndWaitForHome(scope);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    Journeys.playAndWaitForFirstFrame(scope);
+                    return Unit.INSTANCE;
+                });
+    }
+}
@@ -0,0 +1,286 @@
+package com.truex.googlereferenceapp.player;
+
+import com.truex.googlereferenceapp.trace.PlaybackTrace;
+import com.truex.googlereferenceapp.trace.PlaybackTraceReader;
+import com.truex.googlereferenceapp.util.TimeUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Replays a playback trace pulled from a device against the ad playback logic of the player, i.e.
+ * the playback state machine and the cue point table, to reproduce snapback and ad skipping issues
+ * offline.
+ *
+ * Every record is printed with its time since the session started and since the previous record.
+ * The recorded state transitions are re-applied to the state machine, and the recorded user seeks
+ * and snap forwards are re-planned with the recorded snapback policy against the recorded cue points.
+ * The seek planner only sees the positions that were recorded, the latest of which stands in for the
+ * position a seek started from. Where the replay diverges from the recording, the divergence is
+ * reported, and the tool exits with an error.
+ *
+ * The trace stores the enums by ordinal, so the tool has to be built from the same revision as the
+ * app that recorded the trace.
+ */
+public class PlaybackTraceReplay {
+    private static final String[] PLAYER_STATES = { "?", "IDLE", "BUFFERING", "READY", "ENDED" };
+
+    private final PlaybackStateMachine stateMachine = new PlaybackStateMachine();
+    private final CuePointTable cuePointTable = new CuePointTable();
+    private SeekPlanner seekPlanner = new SeekPlanner();
+    private final StringBuilder line = new StringBuilder(128);
+
+    private long sessionStartMs = -1;
+    private long previousTimeMs = -1;
+    private long adBreakStartMs = -1;
+    private long engagementStartMs = -1;
+    private long lastPositionMs;
+    private long expectedSeekMs = SeekPlanner.NO_SEEK;
+    private int divergences;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: PlaybackTraceReplay <playback.trace>");
+            System.exit(2);
+        }
+
+        PlaybackTraceReplay replay = new PlaybackTraceReplay();
+        PlaybackTraceReader reader = PlaybackTraceReader.open(new File(args[0]));
+        System.out.println("Replaying " + reader.remaining() + " records");
+        PlaybackTraceReader.Record record = new PlaybackTraceReader.Record();
+        while (reader.next(record)) {
+            replay.replay(record);
+        }
+
+        System.out.println(replay.divergences + " divergence(s)");
+        System.exit(replay.divergences == 0 ? 0 : 1);
+    }
+
+    private void replay(PlaybackTraceReader.Record record) {
+        if (record.type == PlaybackTrace.SESSION_STARTED || sessionStartMs < 0) {
+            sessionStartMs = record.timeMs;
+            previousTimeMs = record.timeMs;
+            stateMachine.reset();
+            cuePointTable.clear();
+            seekPlanner = new SeekPlanner();
+            adBreakStartMs = -1;
+            engagementStartMs = -1;
+            lastPositionMs = 0;
+            expectedSeekMs = SeekPlanner.NO_SEEK;
+        }
+
+        line.setLength(0);
+        line.append(String.format(Locale.US, "%+9d ms %+7d ms  ",
+                record.timeMs - sessionStartMs, record.timeMs - previousTimeMs));
+        previousTimeMs = record.timeMs;
+
+        switch (record.type) {
+            case PlaybackTrace.SESSION_STARTED:
+                line.append("session started").append(record.arg == 1 ? " (live)" : "");
+                break;
+            case PlaybackTrace.PLAYER_STATE:
+                line.append("player ").append(playerState(record.arg)).append(" at ");
+                TimeUtils.appendPosition(line, record.value1);
+                lastPositionMs = record.value1;
+                break;
+            case PlaybackTrace.PLAYER_DISCONTINUITY:
+                line.append("player jumped (reason ").append(record.arg).append(") ");
+                TimeUtils.appendPosition(line, record.value1);
+                line.append(" -> ");
+                TimeUtils.appendPosition(line, record.value2);
+                lastPositionMs = record.value2;
+                break;
+            case PlaybackTrace.USER_SEEK:
+                replayUserSeek(record);
+                break;
+            case PlaybackTrace.APP_SEEK:
+                replayAppSeek(record);
+                break;
+            case PlaybackTrace.IMA_AD_EVENT:
+                line.append("IMA ad event #").append(record.arg).append(" at ");
+                TimeUtils.appendPosition(line, record.value1);
+                lastPositionMs = record.value1;
+                break;
+            case PlaybackTrace.TRUEX_AD_EVENT:
+                line.append("Infillion ad event #").append(record.arg);
+                break;
+            case PlaybackTrace.STATE_TRANSITION:
+                replayTransition(record);
+                break;
+            case PlaybackTrace.CUE_POINTS:
+                cuePointTable.clear();
+                line.append(record.arg).append(" cue points");
+                break;
+            case PlaybackTrace.CUE_POINT:
+                cuePointTable.add(record.value1, record.value2, record.arg == 1);
+                line.append("  cue point ");
+                TimeUtils.appendPosition(line, record.value1);
+                line.append('-');
+                TimeUtils.appendPosition(line, record.value2);
+                line.append(record.arg == 1 ? " played" : "");
+                break;
+            case PlaybackTrace.CUE_POINT_PLAYED:
+                replayCuePointPlayed(record);
+                break;
+            case PlaybackTrace.SNAPBACK_POLICY:
+                seekPlanner.setPolicy(SnapbackPolicy.of(SnapbackPolicy.Type.values()[record.arg], record.value1));
+                line.append("snapback policy ").append(seekPlanner.getPolicy());
+                break;
+            default:
+                line.append("unknown record type ").append(record.type);
+                break;
+        }
+        System.out.println(line);
+    }
+
+    private void replayTransition(PlaybackTraceReader.Record record) {
+        PlaybackStateMachine.Event event = PlaybackStateMachine.Event.values()[record.arg];
+        PlaybackStateMachine.State from = PlaybackStateMachine.State.values()[(int) record.value1];
+        PlaybackStateMachine.State to = PlaybackStateMachine.State.values()[(int) record.value2];
+        line.append(from).append(" -> ").append(to).append(" on ").append(event);
+
+        if (!stateMachine.isIn(from)) {
+            diverge("replayed state is " + stateMachine.getState());
+        }
+        if (!stateMachine.fire(event)) {
+            diverge("replayed state machine ignores " + event);
+        } else if (!stateMachine.isIn(to)) {
+            diverge("replayed transition ends in " + stateMachine.getState());
+        }
+
+        // Ad break timing.
+        switch (event) {
+            case AD_BREAK_STARTED:
+                adBreakStartMs = record.timeMs;
+                break;
+            case ENGAGEMENT_STARTED:
+                engagementStartMs = record.timeMs;
+                appendSince("ad break start", adBreakStartMs, record.timeMs);
+                break;
+            case AD_BREAK_SKIPPED:
+                appendSince("engagement start", engagementStartMs, record.timeMs);
+                break;
+            case ENGAGEMENT_ENDED:
+                appendSince("engagement start", engagementStartMs, record.timeMs);
+                break;
+            case AD_BREAK_ENDED:
+                appendSince("ad break start", adBreakStartMs, record.timeMs);
+                break;
+            default:
+                break;
+        }
+        if (stateMachine.isIn(PlaybackStateMachine.State.CONTENT)) {
+            adBreakStartMs = -1;
+            engagementStartMs = -1;
+            // The ad break is concluded, the app continues with the planned snapback seeks.
+            if (from != PlaybackStateMachine.State.CONTENT) {
+                expectedSeekMs = seekPlanner.onAdBreakEnded(lastPositionMs);
+            }
+        }
+    }
+
+    private void replayUserSeek(PlaybackTraceReader.Record record) {
+        long requestedMs = record.value1;
+        long allowedMs = record.value2;
+        line.append("user seek to ");
+        TimeUtils.appendPosition(line, requestedMs);
+
+        if (record.arg == PlaybackTrace.SEEK_IGNORED) {
+            line.append(" ignored");
+            if (stateMachine.isIn(PlaybackStateMachine.State.CONTENT)) {
+                diverge("replay allows the seek in " + stateMachine.getState());
+            }
+            return;
+        }
+
+        // A snapback is recorded after its SNAPBACK transition.
+        boolean snapback = record.arg == PlaybackTrace.SEEK_SNAPBACK;
+        PlaybackStateMachine.State expected = snapback
+                ? PlaybackStateMachine.State.SNAPBACK_PENDING : PlaybackStateMachine.State.CONTENT;
+        if (!stateMachine.isIn(expected)) {
+            diverge("replayed state is " + stateMachine.getState());
+        }
+
+        // Snap back to the start of the first ad break the policy wants played.
+        long replayedMs = seekPlanner.plan(cuePointTable, lastPositionMs, requestedMs);
+        lastPositionMs = allowedMs;
+
+        if (snapback) {
+            line.append(" snapped back to ");
+            TimeUtils.appendPosition(line, allowedMs);
+        }
+        if (replayedMs != allowedMs) {
+            line.append(" ");
+            TimeUtils.appendPosition(line, replayedMs);
+            diverge("replay seeks to a different position");
+        }
+    }
+
+    private void replayCuePointPlayed(PlaybackTraceReader.Record record) {
+        line.append("cue point ");
+        TimeUtils.appendPosition(line, record.value1);
+        line.append(" played");
+
+        int index = cuePointTable.indexAtOrBefore(record.value1);
+        if (index < 0 || cuePointTable.getStartTimeMs(index) != record.value1) {
+            diverge("replay has no such cue point");
+        } else {
+            cuePointTable.setPlayed(index);
+            seekPlanner.addPlayedAdTime(cuePointTable.getEndTimeMs(index) - cuePointTable.getStartTimeMs(index));
+        }
+    }
+
+    private void replayAppSeek(PlaybackTraceReader.Record record) {
+        line.append("app seek to ");
+        TimeUtils.appendPosition(line, record.value1);
+        lastPositionMs = record.value1;
+        switch (record.arg) {
+            case PlaybackTrace.SEEK_BOOKMARK:
+                line.append(" (bookmark)");
+                break;
+            case PlaybackTrace.SEEK_SNAP_FORWARD:
+                line.append(" (snap forward)");
+                checkPlannedSeek(record.value1);
+                break;
+            case PlaybackTrace.SEEK_NEXT_AD_BREAK:
+                line.append(" (next ad break)");
+                checkPlannedSeek(record.value1);
+                break;
+            case PlaybackTrace.SEEK_SKIP_AD_BREAK:
+                line.append(" (skip ad break)");
+                break;
+            case PlaybackTrace.SEEK_PLACEHOLDER_END:
+                line.append(" (placeholder end)");
+                break;
+            default:
+                line.append(" (reason ").append(record.arg).append(')');
+                break;
+        }
+    }
+
+    private void checkPlannedSeek(long positionMs) {
+        if (expectedSeekMs == SeekPlanner.NO_SEEK) {
+            diverge("replay continues playing after the ad break");
+        } else if (positionMs != expectedSeekMs) {
+            line.append(" ");
+            TimeUtils.appendPosition(line, expectedSeekMs);
+            diverge("replay plans a different seek");
+        }
+        expectedSeekMs = SeekPlanner.NO_SEEK;
+    }
+
+    private void appendSince(String label, long sinceMs, long timeMs) {
+        if (sinceMs < 0) return;
+        line.append(", ").append(timeMs - sinceMs).append(" ms after ").append(label);
+    }
+
+    private void diverge(String message) {
+        divergences++;
+        line.append("  <-- DIVERGED: ").append(message);
+    }
+
+    private static String playerState(int state) {
+        return state > 0 && state < PLAYER_STATES.length ? PLAYER_STATES[state] : Integer.toString(state);
+    }
+}